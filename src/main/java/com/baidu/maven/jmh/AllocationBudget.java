@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * An allocation budget of the POM: the benchmarks whose label matches the pattern must not allocate more than the
+ * given bytes per operation.
+ *
+ * <pre>
+ * &lt;allocationBudgets&gt;
+ *   &lt;allocationBudget&gt;
+ *     &lt;benchmark&gt;StringOperationBenchmark.stringSplit.*stringLengthIncrease=1}&lt;/benchmark&gt;
+ *     &lt;bytesPerOp&gt;0&lt;/bytesPerOp&gt;
+ *   &lt;/allocationBudget&gt;
+ * &lt;/allocationBudgets&gt;
+ * </pre>
+ */
+public class AllocationBudget {
+
+    /** The regular expression, found in the benchmark label "benchmark mode {params}". */
+    private String benchmark;
+
+    /** The bytes per operation. */
+    private long bytesPerOp;
+
+    /** The compiled pattern. */
+    private Pattern pattern;
+
+    /**
+     * Gets the benchmark pattern.
+     *
+     * @return the benchmark pattern
+     */
+    public String getBenchmark() {
+        return benchmark;
+    }
+
+    /**
+     * Sets the benchmark pattern.
+     *
+     * @param benchmark the new benchmark pattern
+     */
+    public void setBenchmark(String benchmark) {
+        this.benchmark = benchmark;
+        this.pattern = null;
+    }
+
+    /**
+     * Gets the bytes per operation.
+     *
+     * @return the bytes per operation
+     */
+    public long getBytesPerOp() {
+        return bytesPerOp;
+    }
+
+    /**
+     * Sets the bytes per operation.
+     *
+     * @param bytesPerOp the new bytes per operation
+     */
+    public void setBytesPerOp(long bytesPerOp) {
+        this.bytesPerOp = bytesPerOp;
+    }
+
+    /**
+     * Compile the pattern.
+     *
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    void compile() {
+        try {
+            pattern = Pattern.compile(StringUtils.isEmpty(benchmark) ? ".*" : benchmark);
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException("Allocation budget " + benchmark + " has an invalid benchmark pattern: "
+                    + e.getDescription(), e);
+        }
+    }
+
+    /**
+     * If the budget applies to a benchmark.
+     *
+     * @param label the benchmark label
+     * @return true, if it matches
+     */
+    public boolean matches(String label) {
+        if (pattern == null) {
+            compile();
+        }
+        return pattern.matcher(label).find();
+    }
+}
@@ -0,0 +1,274 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.results.BenchmarkResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.BenchmarkListEntry;
+import org.openjdk.jmh.runner.ExBenchmarkParams;
+
+/**
+ * Checks the allocation of benchmarks against budgets in bytes per operation, from the POM or a {@link BytesPerOp}
+ * annotation. The allocation is the gc.alloc.rate.norm of the GC profiler, checked for every fork, so a fork that
+ * allocates cannot hide behind one that does not. The profiler counts TLAB allocations and reports fractions of a
+ * byte on allocation-free code, so it is rounded to whole bytes before the check.
+ */
+public class AllocationGate {
+
+    /** The Constant ALLOCATION, the secondary result of the GC profiler. */
+    public static final String ALLOCATION = "·gc.alloc.rate.norm";
+
+    /** The budgets of the POM, the first matching one applies. */
+    private final List<AllocationBudget> budgets;
+
+    /** The budgets of annotated benchmarks, by benchmark name. */
+    private final Map<String, Long> annotated;
+
+    /** The benchmarks with a budget but without an allocation result in the last check. */
+    private final List<String> unmeasured = new ArrayList<String>();
+
+    /**
+     * Instantiates a new allocation gate.
+     *
+     * @param budgets the budgets of the POM, may be null
+     * @param annotated the budgets of annotated benchmarks, by benchmark name
+     * @throws IllegalArgumentException if the pattern of a budget is invalid
+     */
+    public AllocationGate(List<AllocationBudget> budgets, Map<String, Long> annotated) {
+        this.budgets = budgets != null ? budgets : new ArrayList<AllocationBudget>();
+        this.annotated = annotated;
+        for (AllocationBudget budget : this.budgets) {
+            budget.compile();
+        }
+    }
+
+    /**
+     * If there is any budget, and so the GC profiler is needed.
+     *
+     * @return true, if there are budgets
+     */
+    public boolean hasBudgets() {
+        return !budgets.isEmpty() || !annotated.isEmpty();
+    }
+
+    /**
+     * Read the {@link BytesPerOp} budgets of the benchmarks, from the method or else its class. Classes are loaded
+     * without initialization; one that can not be loaded has no annotated budget.
+     *
+     * @param entries the benchmarks
+     * @param loader the class loader of the benchmarks
+     * @return the budgets by benchmark name
+     */
+    public static Map<String, Long> annotatedBudgets(Collection<BenchmarkListEntry> entries, ClassLoader loader) {
+        Map<String, Long> ret = new HashMap<String, Long>();
+        for (BenchmarkListEntry entry : entries) {
+            String name = entry.getUsername();
+            String methodName = name.substring(name.lastIndexOf('.') + 1);
+            try {
+                Class<?> clazz = Class.forName(entry.getUserClassQName(), false, loader);
+                Long budget = null;
+                for (Method method : clazz.getMethods()) {
+                    if (method.getName().equals(methodName)) {
+                        budget = bytesPerOp(method);
+                        break;
+                    }
+                }
+                if (budget == null) {
+                    budget = bytesPerOp(clazz);
+                }
+                if (budget != null) {
+                    ret.put(name, budget);
+                }
+            } catch (ClassNotFoundException e) {
+                continue;
+            } catch (LinkageError e) {
+                continue;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * The value of a BytesPerOp annotation, found by its simple name.
+     *
+     * @param element the element
+     * @return the budget, null if not annotated
+     */
+    private static Long bytesPerOp(AnnotatedElement element) {
+        for (Annotation annotation : element.getAnnotations()) {
+            Class<? extends Annotation> type = annotation.annotationType();
+            if (!type.getSimpleName().equals(BytesPerOp.class.getSimpleName())) {
+                continue;
+            }
+            try {
+                Object value = type.getMethod("value").invoke(annotation);
+                if (value instanceof Number) {
+                    return ((Number) value).longValue();
+                }
+            } catch (ReflectiveOperationException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The budget of a benchmark.
+     *
+     * @param result the result
+     * @return the bytes per operation, null without budget
+     */
+    public Long budget(RunResult result) {
+        String label = ExBenchmarkParams.label(result.getParams());
+        for (AllocationBudget budget : budgets) {
+            if (budget.matches(label)) {
+                return budget.getBytesPerOp();
+            }
+        }
+        return annotated.get(result.getParams().getBenchmark());
+    }
+
+    /**
+     * Check the results against their budgets.
+     *
+     * @param results the results
+     * @return the violations
+     */
+    public List<Violation> check(Collection<RunResult> results) {
+        unmeasured.clear();
+        List<Violation> violations = new ArrayList<Violation>();
+        for (RunResult result : results) {
+            Long budget = budget(result);
+            if (budget == null) {
+                continue;
+            }
+            String label = ExBenchmarkParams.label(result.getParams());
+            double worst = Double.NaN;
+            int worstFork = 0;
+            int fork = 0;
+            for (BenchmarkResult br : result.getBenchmarkResults()) {
+                fork++;
+                Result allocation = br.getSecondaryResults().get(ALLOCATION);
+                if (allocation != null && !(allocation.getScore() <= worst)) {
+                    worst = allocation.getScore();
+                    worstFork = fork;
+                }
+            }
+            if (Double.isNaN(worst)) {
+                unmeasured.add(label);
+            } else if (Math.round(worst) > budget) {
+                violations.add(new Violation(label, budget, worst, worstFork));
+            }
+        }
+        return violations;
+    }
+
+    /**
+     * Gets the benchmarks with a budget but without an allocation result in the last check.
+     *
+     * @return the unmeasured
+     */
+    public List<String> getUnmeasured() {
+        return unmeasured;
+    }
+
+    /**
+     * Format violations as a table.
+     *
+     * @param violations the violations
+     * @return the table
+     */
+    public static String table(List<Violation> violations) {
+        int width = "Benchmark".length();
+        for (Violation v : violations) {
+            width = Math.max(width, v.label.length());
+        }
+        StringBuilder sb = new StringBuilder();
+        String row = "%-" + width + "s %14s %14s %6s%n";
+        sb.append(String.format(row, "Benchmark", "Budget B/op", "Alloc B/op", "Fork"));
+        for (Violation v : violations) {
+            sb.append(String.format(row, v.label, v.budget, String.format("%.1f", v.allocated), v.fork));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A benchmark that allocated more than its budget.
+     */
+    public static class Violation {
+
+        /** The label. */
+        private final String label;
+
+        /** The budget in bytes per operation. */
+        private final long budget;
+
+        /** The allocation of the worst fork in bytes per operation. */
+        private final double allocated;
+
+        /** The worst fork, from 1. */
+        private final int fork;
+
+        /**
+         * Instantiates a new violation.
+         *
+         * @param label the label
+         * @param budget the budget
+         * @param allocated the allocated
+         * @param fork the fork
+         */
+        Violation(String label, long budget, double allocated, int fork) {
+            this.label = label;
+            this.budget = budget;
+            this.allocated = allocated;
+            this.fork = fork;
+        }
+
+        /**
+         * Gets the label.
+         *
+         * @return the label
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Gets the budget.
+         *
+         * @return the budget in bytes per operation
+         */
+        public long getBudget() {
+            return budget;
+        }
+
+        /**
+         * Gets the allocation of the worst fork.
+         *
+         * @return the bytes per operation
+         */
+        public double getAllocated() {
+            return allocated;
+        }
+
+        /**
+         * Gets the worst fork.
+         *
+         * @return the fork, from 1
+         */
+        public int getFork() {
+            return fork;
+        }
+    }
+}
@@ -0,0 +1,463 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.math3.exception.MathIllegalArgumentException;
+import org.apache.commons.math3.stat.inference.MannWhitneyUTest;
+import org.apache.commons.math3.stat.inference.TTest;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.results.BenchmarkResult;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.ExBenchmarkParams;
+
+/**
+ * Compares the results of a run with an earlier JMH JSON result. The raw iteration scores of each benchmark are tested
+ * for a significant difference (Welch's t-test or Mann-Whitney U), and a significant change for the worse that is
+ * larger than the minimum effect size counts as a regression.
+ */
+public class BaselineGate {
+
+    /** The Constant WELCH. */
+    public static final String WELCH = "welch";
+
+    /** The Constant MANN_WHITNEY. */
+    public static final String MANN_WHITNEY = "mannwhitney";
+
+    /** The baseline samples by benchmark label. */
+    private final Map<String, Samples> baseline = new HashMap<String, Samples>();
+
+    /** The test. */
+    private final String test;
+
+    /** The significance level, e.g. 0.01. */
+    private final double alpha;
+
+    /** The minimum relative change, e.g. 0.05. */
+    private final double minEffect;
+
+    /** The benchmarks without a baseline in the last comparison. */
+    private final List<String> unmatched = new ArrayList<String>();
+
+    /** The significant improvements in the last comparison. */
+    private final List<Change> improvements = new ArrayList<Change>();
+
+    /** All benchmarks with a baseline in the last comparison, significant or not. */
+    private final List<Change> compared = new ArrayList<Change>();
+
+    /**
+     * Instantiates a new baseline gate.
+     *
+     * @param baselineFile the JMH JSON result to compare with
+     * @param test {@link #WELCH} or {@link #MANN_WHITNEY}
+     * @param alpha the significance level, e.g. 0.01
+     * @param minEffect the minimum relative change that counts, e.g. 0.05
+     * @throws IOException if the baseline can not be read
+     */
+    public BaselineGate(File baselineFile, String test, double alpha, double minEffect) throws IOException {
+        if (!WELCH.equalsIgnoreCase(test) && !MANN_WHITNEY.equalsIgnoreCase(test)) {
+            throw new IllegalArgumentException("Unknown test '" + test + "', use " + WELCH + " or " + MANN_WHITNEY);
+        }
+        this.test = test.toLowerCase();
+        this.alpha = alpha;
+        this.minEffect = minEffect;
+
+        Object root = JsonParser.parse(baselineFile);
+        if (!(root instanceof List)) {
+            throw new IOException(baselineFile + " is not a JMH JSON result");
+        }
+        for (Object o : (List<?>) root) {
+            if (o instanceof Map) {
+                Map<?, ?> entry = (Map<?, ?>) o;
+                Map<?, ?> metric = (Map<?, ?>) entry.get("primaryMetric");
+                if (metric != null) {
+                    baseline.put(label(entry), new Samples((String) metric.get("scoreUnit"), rawScores(metric)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Label of a JSON result entry, the same as {@link ExBenchmarkParams#label} of its params.
+     *
+     * @param entry the entry
+     * @return the label
+     */
+    public static String label(Map<?, ?> entry) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(entry.get("benchmark")).append(' ').append(entry.get("mode"));
+        Object params = entry.get("params");
+        if (params instanceof Map && !((Map<?, ?>) params).isEmpty()) {
+            sb.append(" {");
+            boolean first = true;
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) params).entrySet()) {
+                if (!first) {
+                    sb.append(", ");
+                }
+                sb.append(e.getKey()).append('=').append(e.getValue());
+                first = false;
+            }
+            sb.append('}');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Iteration scores of a JSON metric. Sample time results carry a histogram per iteration, those are reduced to
+     * the iteration mean like the iteration score of the run.
+     *
+     * @param metric the metric
+     * @return the scores
+     */
+    static double[] rawScores(Map<?, ?> metric) {
+        List<Double> scores = new ArrayList<Double>();
+        Object raw = metric.get("rawData");
+        if (raw instanceof List) {
+            for (Object fork : (List<?>) raw) {
+                for (Object score : (List<?>) fork) {
+                    scores.add(JsonParser.toDouble(score));
+                }
+            }
+        }
+        Object histograms = metric.get("rawDataHistogram");
+        if (histograms instanceof List) {
+            for (Object fork : (List<?>) histograms) {
+                for (Object iteration : (List<?>) fork) {
+                    double sum = 0;
+                    double count = 0;
+                    for (Object bin : (List<?>) iteration) {
+                        double value = JsonParser.toDouble(((List<?>) bin).get(0));
+                        double n = JsonParser.toDouble(((List<?>) bin).get(1));
+                        sum += value * n;
+                        count += n;
+                    }
+                    if (count > 0) {
+                        scores.add(sum / count);
+                    }
+                }
+            }
+        }
+        double[] result = new double[scores.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = scores.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Compare the run with the baseline.
+     *
+     * @param results the results of the run
+     * @return the regressions, largest first
+     */
+    public List<Change> compare(Collection<RunResult> results) {
+        unmatched.clear();
+        improvements.clear();
+        compared.clear();
+        List<Change> regressions = new ArrayList<Change>();
+        for (RunResult result : results) {
+            String label = ExBenchmarkParams.label(result.getParams());
+            Samples base = baseline.get(label);
+            if (base == null) {
+                unmatched.add(label);
+                continue;
+            }
+
+            String unit = result.getPrimaryResult().getScoreUnit();
+            double factor = ScoreUnit.factor(base.unit, unit);
+            double[] current = iterationScores(result);
+            if (Double.isNaN(factor) || current.length < 2 || base.scores.length < 2) {
+                unmatched.add(label);
+                continue;
+            }
+            double[] previous = new double[base.scores.length];
+            for (int i = 0; i < previous.length; i++) {
+                previous[i] = base.scores[i] * factor;
+            }
+
+            double before = mean(previous);
+            double after = mean(current);
+            if (before == 0) {
+                unmatched.add(label);
+                continue;
+            }
+            // positive is worse: lower throughput, or longer time per operation
+            boolean higherIsBetter = result.getParams().getMode() == Mode.Throughput;
+            double change = (after - before) / before * (higherIsBetter ? -1 : 1);
+            double p = pValue(previous, current);
+
+            Change c = new Change(label, unit, before, after, change, p);
+            compared.add(c);
+            if (p < alpha && Math.abs(change) >= minEffect) {
+                if (change > 0) {
+                    regressions.add(c);
+                } else {
+                    improvements.add(c);
+                }
+            }
+        }
+        sort(regressions);
+        sort(improvements);
+        return regressions;
+    }
+
+    /**
+     * Gets the benchmarks the last comparison had no usable baseline for.
+     *
+     * @return the labels
+     */
+    public List<String> getUnmatched() {
+        return unmatched;
+    }
+
+    /**
+     * Gets the significant improvements of the last comparison.
+     *
+     * @return the improvements, largest first
+     */
+    public List<Change> getImprovements() {
+        return improvements;
+    }
+
+    /**
+     * Gets all benchmarks of the last comparison that had a baseline, significant or not.
+     *
+     * @return the changes, in the order of the results
+     */
+    public List<Change> getCompared() {
+        return compared;
+    }
+
+    /**
+     * Checks if a change is significant and large enough to count.
+     *
+     * @param change the change
+     * @return true, if is significant
+     */
+    public boolean isSignificant(Change change) {
+        return change.p < alpha && Math.abs(change.change) >= minEffect;
+    }
+
+    /**
+     * Format changes as a table.
+     *
+     * @param changes the changes
+     * @return the table
+     */
+    public static String table(List<Change> changes) {
+        int width = "Benchmark".length();
+        for (Change c : changes) {
+            width = Math.max(width, c.label.length());
+        }
+        StringBuilder sb = new StringBuilder();
+        String row = "%-4s %-" + width + "s %12s %16s %16s %9s %10s%n";
+        sb.append(String.format(row, "Rank", "Benchmark", "Unit", "Baseline", "Current", "Change", "p-value"));
+        int rank = 1;
+        for (Change c : changes) {
+            sb.append(String.format(row, rank++, c.label, c.unit, String.format("%.3f", c.baseline),
+                    String.format("%.3f", c.current), String.format("%+.2f%%", (c.current - c.baseline) / c.baseline * 100),
+                    String.format("%.2e", c.p)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Two-sided p-value of the configured test.
+     *
+     * @param previous the baseline scores
+     * @param current the current scores
+     * @return the p-value, 1 if the test can not be done
+     */
+    private double pValue(double[] previous, double[] current) {
+        try {
+            double p;
+            if (MANN_WHITNEY.equals(test)) {
+                p = new MannWhitneyUTest().mannWhitneyUTest(previous, current);
+            } else {
+                p = new TTest().tTest(previous, current);
+            }
+            return Double.isNaN(p) ? 1 : p;
+        } catch (MathIllegalArgumentException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * Measured iteration scores of a run result.
+     *
+     * @param result the result
+     * @return the scores
+     */
+    static double[] iterationScores(RunResult result) {
+        List<Double> scores = new ArrayList<Double>();
+        for (BenchmarkResult br : result.getBenchmarkResults()) {
+            for (IterationResult ir : br.getIterationResults()) {
+                scores.add(ir.getPrimaryResult().getScore());
+            }
+        }
+        double[] values = new double[scores.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = scores.get(i);
+        }
+        return values;
+    }
+
+    /**
+     * Mean.
+     *
+     * @param values the values
+     * @return the double
+     */
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double v : values) {
+            sum += v;
+        }
+        return sum / values.length;
+    }
+
+    /**
+     * Sort by magnitude of the change, largest first.
+     *
+     * @param changes the changes
+     */
+    private static void sort(List<Change> changes) {
+        Collections.sort(changes, new Comparator<Change>() {
+            @Override
+            public int compare(Change o1, Change o2) {
+                return Double.compare(Math.abs(o2.change), Math.abs(o1.change));
+            }
+        });
+    }
+
+    /**
+     * Baseline scores of one benchmark.
+     */
+    private static class Samples {
+
+        /** The unit. */
+        private final String unit;
+
+        /** The scores. */
+        private final double[] scores;
+
+        /**
+         * Instantiates a new samples.
+         *
+         * @param unit the unit
+         * @param scores the scores
+         */
+        Samples(String unit, double[] scores) {
+            this.unit = unit;
+            this.scores = scores;
+        }
+    }
+
+    /**
+     * A significant change of one benchmark.
+     */
+    public static class Change {
+
+        /** The label. */
+        private final String label;
+
+        /** The unit. */
+        private final String unit;
+
+        /** The baseline mean, in the unit of the run. */
+        private final double baseline;
+
+        /** The current mean. */
+        private final double current;
+
+        /** The relative change, positive for worse. */
+        private final double change;
+
+        /** The p-value. */
+        private final double p;
+
+        /**
+         * Instantiates a new change.
+         *
+         * @param label the label
+         * @param unit the unit
+         * @param baseline the baseline
+         * @param current the current
+         * @param change the change
+         * @param p the p
+         */
+        Change(String label, String unit, double baseline, double current, double change, double p) {
+            this.label = label;
+            this.unit = unit;
+            this.baseline = baseline;
+            this.current = current;
+            this.change = change;
+            this.p = p;
+        }
+
+        /**
+         * Gets the label.
+         *
+         * @return the label
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Gets the unit.
+         *
+         * @return the unit
+         */
+        public String getUnit() {
+            return unit;
+        }
+
+        /**
+         * Gets the baseline mean, in the unit of the run.
+         *
+         * @return the baseline
+         */
+        public double getBaseline() {
+            return baseline;
+        }
+
+        /**
+         * Gets the current mean.
+         *
+         * @return the current
+         */
+        public double getCurrent() {
+            return current;
+        }
+
+        /**
+         * Gets the relative change, positive for worse.
+         *
+         * @return the change
+         */
+        public double getChange() {
+            return change;
+        }
+
+        /**
+         * Gets the p-value.
+         *
+         * @return the p
+         */
+        public double getP() {
+            return p;
+        }
+    }
+}
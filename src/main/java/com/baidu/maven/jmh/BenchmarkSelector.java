@@ -0,0 +1,356 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Selects benchmarks by the include and exclude regular expressions of JMH, found anywhere in the benchmark name.
+ * <p>
+ * Instead of running every pattern against every name, the required literal of each pattern, e.g. "Codec" of
+ * "Codec.*encode", goes into one Aho-Corasick automaton per side. A single pass over a name yields the patterns whose
+ * literal occurs in it, and only those are run; patterns without a usable literal, like ".*", are always run. Given
+ * an index of all names, the selected names are kept sorted, so {@link #couldHoldSelected(String)} answers for a
+ * class or package prefix without scanning.
+ */
+public class BenchmarkSelector implements Selector {
+
+    /** The includes. */
+    private final PatternSet includes;
+
+    /** The excludes. */
+    private final PatternSet excludes;
+
+    /** The selected names of the index, null without index. */
+    private NavigableSet<String> selected;
+
+    /**
+     * Instantiates a new benchmark selector.
+     *
+     * @param includes the include regular expressions, all benchmarks if empty
+     * @param excludes the exclude regular expressions, they override the includes
+     */
+    public BenchmarkSelector(Collection<String> includes, Collection<String> excludes) {
+        this.includes = new PatternSet(includes.isEmpty() ? Collections.singletonList(".*") : includes);
+        this.excludes = new PatternSet(excludes);
+    }
+
+    /**
+     * Select from all benchmark names once, for {@link #couldHoldSelected(String)}.
+     *
+     * @param names all names
+     * @return this
+     */
+    public BenchmarkSelector index(Collection<String> names) {
+        NavigableSet<String> set = new TreeSet<String>();
+        for (String name : names) {
+            if (isSelected(name)) {
+                set.add(name);
+            }
+        }
+        selected = set;
+        return this;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.baidu.maven.jmh.Selector#isSelected(java.lang.String)
+     */
+    @Override
+    public boolean isSelected(String name) {
+        return includes.matches(name) && !excludes.matches(name);
+    }
+
+    /**
+     * If a class or package could hold selected benchmarks. Without index every prefix could.
+     *
+     * @param prefix the class or package name, e.g. "com.foo.CodecBenchmark"
+     * @return true, if a selected benchmark name starts with it
+     */
+    @Override
+    public boolean couldHoldSelected(String prefix) {
+        if (selected == null) {
+            return true;
+        }
+        String next = selected.ceiling(prefix);
+        return next != null && next.startsWith(prefix);
+    }
+
+    /**
+     * The longest literal every match of a regular expression contains, or null if there is none that is safe to
+     * tell. Alternations, flags, quoting and escapes of code points make a pattern opaque; groups, classes and the
+     * bounds of quantifiers only end a literal.
+     *
+     * @param regex the regex
+     * @return the literal, null if unknown
+     */
+    static String requiredLiteral(String regex) {
+        if (regex.indexOf('|') >= 0 || regex.contains("(?") || regex.contains("\\Q")) {
+            return null;
+        }
+        String best = "";
+        StringBuilder run = new StringBuilder();
+        int i = 0;
+        int depth = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length()) {
+                char e = regex.charAt(i + 1);
+                i += 2;
+                if (Character.isLetterOrDigit(e) && "dDsSwWbBAGZz".indexOf(e) < 0) {
+                    // code point escapes, properties, back references and the like
+                    return null;
+                }
+                if (depth == 0 && !Character.isLetterOrDigit(e)) {
+                    // an escaped literal, e.g. \.
+                    run.append(e);
+                    i = quantified(regex, i, run);
+                } else {
+                    best = longer(best, run);
+                }
+                continue;
+            }
+            if (c == '[') {
+                best = longer(best, run);
+                i = skipClass(regex, i);
+                continue;
+            }
+            if (c == '{') {
+                // the bounds of a quantifier, e.g. {1,2}, are no literal
+                best = longer(best, run);
+                int end = regex.indexOf('}', i);
+                i = end < 0 ? regex.length() : end + 1;
+                continue;
+            }
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            }
+            i++;
+            if (depth == 0 && c != ')' && ".^$*+?}".indexOf(c) < 0) {
+                run.append(c);
+                i = quantified(regex, i, run);
+            } else {
+                best = longer(best, run);
+            }
+        }
+        best = longer(best, run);
+        return best.isEmpty() ? null : best;
+    }
+
+    /**
+     * Handle a quantifier after the last literal char of a run: an optional char leaves the run, any quantifier ends
+     * it.
+     *
+     * @param regex the regex
+     * @param i the index after the char
+     * @param run the run, the char last
+     * @return the index, unchanged
+     */
+    private static int quantified(String regex, int i, StringBuilder run) {
+        if (i < regex.length()) {
+            char q = regex.charAt(i);
+            if (q == '?' || q == '*' || q == '{') {
+                run.setLength(run.length() - 1);
+                run.append('\0');
+            } else if (q == '+') {
+                run.append('\0');
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Skip a character class.
+     *
+     * @param regex the regex
+     * @param i the index of its [
+     * @return the index after its ]
+     */
+    private static int skipClass(String regex, int i) {
+        int j = i + 1;
+        if (j < regex.length() && regex.charAt(j) == '^') {
+            j++;
+        }
+        if (j < regex.length() && regex.charAt(j) == ']') {
+            j++;
+        }
+        int nested = 0;
+        while (j < regex.length()) {
+            char c = regex.charAt(j);
+            if (c == '\\') {
+                j += 2;
+                continue;
+            }
+            if (c == '[') {
+                nested++;
+            } else if (c == ']') {
+                if (nested == 0) {
+                    return j + 1;
+                }
+                nested--;
+            }
+            j++;
+        }
+        return j;
+    }
+
+    /**
+     * The longer of the best literal and the pieces of a run, which is cleared. A \0 in the run marks where a
+     * quantifier cut it.
+     *
+     * @param best the best
+     * @param run the run
+     * @return the longer
+     */
+    private static String longer(String best, StringBuilder run) {
+        for (String piece : run.toString().split("\0")) {
+            if (piece.length() > best.length()) {
+                best = piece;
+            }
+        }
+        run.setLength(0);
+        return best;
+    }
+
+    /**
+     * Patterns of one side, with an automaton of their literals.
+     */
+    private static class PatternSet {
+
+        /** The patterns. */
+        private final List<Pattern> patterns = new ArrayList<Pattern>();
+
+        /** The patterns without literal, always run. */
+        private final List<Pattern> always = new ArrayList<Pattern>();
+
+        /** The transitions of the automaton by state. */
+        private final List<Map<Character, Integer>> next = new ArrayList<Map<Character, Integer>>();
+
+        /** The patterns whose literal ends in a state, including through failure links. */
+        private final List<int[]> output = new ArrayList<int[]>();
+
+        /** The failure link by state. */
+        private int[] fail;
+
+        /**
+         * Instantiates a new pattern set.
+         *
+         * @param regexes the regexes
+         */
+        PatternSet(Collection<String> regexes) {
+            List<List<Integer>> outputs = new ArrayList<List<Integer>>();
+            addState(outputs);
+            for (String regex : regexes) {
+                Pattern pattern = Pattern.compile(regex);
+                String literal = requiredLiteral(regex);
+                if (literal == null) {
+                    always.add(pattern);
+                    continue;
+                }
+                int id = patterns.size();
+                patterns.add(pattern);
+                int state = 0;
+                for (int i = 0; i < literal.length(); i++) {
+                    Integer to = next.get(state).get(literal.charAt(i));
+                    if (to == null) {
+                        to = addState(outputs);
+                        next.get(state).put(literal.charAt(i), to);
+                    }
+                    state = to;
+                }
+                outputs.get(state).add(id);
+            }
+
+            // failure links, breadth first
+            fail = new int[next.size()];
+            Deque<Integer> queue = new ArrayDeque<Integer>(next.get(0).values());
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                for (Map.Entry<Character, Integer> e : next.get(state).entrySet()) {
+                    int child = e.getValue();
+                    int f = fail[state];
+                    while (f != 0 && !next.get(f).containsKey(e.getKey())) {
+                        f = fail[f];
+                    }
+                    Integer to = next.get(f).get(e.getKey());
+                    fail[child] = to != null && to != child ? to : 0;
+                    outputs.get(child).addAll(outputs.get(fail[child]));
+                    queue.add(child);
+                }
+            }
+            for (List<Integer> ids : outputs) {
+                int[] array = new int[ids.size()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = ids.get(i);
+                }
+                output.add(array);
+            }
+        }
+
+        /**
+         * Adds a state.
+         *
+         * @param outputs the outputs under construction
+         * @return the state
+         */
+        private int addState(List<List<Integer>> outputs) {
+            next.add(new HashMap<Character, Integer>(4));
+            outputs.add(new ArrayList<Integer>(1));
+            return next.size() - 1;
+        }
+
+        /**
+         * If any pattern is found in a name.
+         *
+         * @param name the name
+         * @return true, if one matches
+         */
+        boolean matches(String name) {
+            for (Pattern pattern : always) {
+                if (pattern.matcher(name).find()) {
+                    return true;
+                }
+            }
+            if (patterns.isEmpty()) {
+                return false;
+            }
+            boolean[] tried = null;
+            int state = 0;
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                Integer to = next.get(state).get(c);
+                while (to == null && state != 0) {
+                    state = fail[state];
+                    to = next.get(state).get(c);
+                }
+                state = to == null ? 0 : to;
+                for (int id : output.get(state)) {
+                    if (tried == null) {
+                        tried = new boolean[patterns.size()];
+                    }
+                    if (!tried[id]) {
+                        tried[id] = true;
+                        if (patterns.get(id).matcher(name).find()) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+    }
+}
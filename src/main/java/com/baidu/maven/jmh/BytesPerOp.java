@@ -0,0 +1,31 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The allocation budget of a benchmark method, or of all benchmarks of a class, in bytes per operation. 0 means the
+ * benchmark must not allocate at all.
+ * <p>
+ * The plugin looks the annotation up by its simple name, so a project that does not want to depend on the plugin can
+ * declare an annotation of the same name with a long value() and runtime retention. A budget in the POM wins over the
+ * annotation.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface BytesPerOp {
+
+    /**
+     * The budget.
+     *
+     * @return the bytes per operation
+     */
+    long value();
+}
@@ -0,0 +1,603 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.runner.BenchmarkList;
+import org.openjdk.jmh.runner.BenchmarkListEntry;
+import org.openjdk.jmh.runner.CompilerHints;
+import org.openjdk.jmh.runner.JvmPropertiesCache;
+
+/**
+ * Selects the benchmarks that changed sources can affect. The class files of the class directories are read once
+ * into a dependency graph: a class depends on every class of its constant pool, the CONSTANT_Class entries and the
+ * types in descriptors and signatures, so fields, methods, casts, lambdas and generics all count. A changed source
+ * file maps to the classes compiled from it by their SourceFile attribute and package, nested and anonymous classes
+ * included. A benchmark is affected when its generated benchmark class reaches a changed class in the graph; the
+ * path it takes is the reason given in the report.
+ * <p>
+ * The graph only holds the class directories, classes of jars are not followed. A changed file that is neither a
+ * source file nor ignored, e.g. the POM or a resource, can affect anything and selects all benchmarks; so does a
+ * changed source file none of the classes is compiled from, e.g. of a sibling module or dependency the benchmarks
+ * measure through a jar.
+ * <p>
+ * Compile-time constants, static final primitives and strings with a constant value, are inlined by javac and leave
+ * no edge in the constant pool: a benchmark that only reads such a constant of a changed class is not selected.
+ * <p>
+ * The same graph gives the code fingerprint of a benchmark for the result cache: the hash of the bytecode of every
+ * class its generated class reaches, and of the resources of the class directories but the benchmark lists of JMH.
+ */
+public class ChangeImpact {
+
+    /** The Constant CLASS_SUFFIX. */
+    private static final String CLASS_SUFFIX = ".class";
+
+    /** The Constant MAGIC, of a class file. */
+    private static final int MAGIC = 0xCAFEBABE;
+
+    /** The Constant TYPE, a class type in a descriptor or signature. */
+    private static final Pattern TYPE = Pattern.compile("L([\\w/$]+)[;<]");
+
+    /**
+     * The Constant JMH_LISTS, the resources of all benchmarks. They are not part of a fingerprint, since a benchmark
+     * added elsewhere, or just another compile order, changes them.
+     */
+    private static final Set<String> JMH_LISTS = new HashSet<String>(Arrays.asList(BenchmarkList.BENCHMARK_LIST
+            .substring(1), CompilerHints.LIST.substring(1)));
+
+    /** The Constant SOURCE, the files compiled to classes. */
+    private static final Pattern SOURCE = Pattern.compile("(?i).*\\.(java|kt|groovy|scala)$");
+
+    /** The referenced class names by class name, in internal form, e.g. "com/foo/Codec". */
+    private final Map<String, Set<String>> references = new HashMap<String, Set<String>>();
+
+    /** The class names by source path, e.g. "com/foo/Codec.java". */
+    private final Map<String, List<String>> sources = new HashMap<String, List<String>>();
+
+    /** The hash of the class file by class name. */
+    private final Map<String, String> hashes = new HashMap<String, String>();
+
+    /** The hash of every resource by its path in the class directory, sorted. */
+    private final Map<String, String> resources = new TreeMap<String, String>();
+
+    /**
+     * Read the class files of the class directories. Anything else, e.g. a jar, is skipped.
+     *
+     * @param roots the class directories
+     * @return the change impact
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public static ChangeImpact read(Collection<File> roots) throws IOException {
+        ChangeImpact impact = new ChangeImpact();
+        for (File root : roots) {
+            if (root.isDirectory()) {
+                impact.readDirectory(root, "");
+            }
+        }
+        return impact;
+    }
+
+    /**
+     * Read the class files and resources of a directory and its sub directories.
+     *
+     * @param dir the dir
+     * @param path the path of the dir in the class directory, e.g. "com/foo/"
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private void readDirectory(File dir, String path) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                readDirectory(file, path + file.getName() + "/");
+                continue;
+            }
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            String hash = sha1(bytes);
+            if (file.getName().endsWith(CLASS_SUFFIX)) {
+                String name = addClass(new ByteArrayInputStream(bytes));
+                if (!hashes.containsKey(name)) {
+                    hashes.put(name, hash);
+                }
+            } else if (!JMH_LISTS.contains(path + file.getName()) && !resources.containsKey(path + file.getName())) {
+                resources.put(path + file.getName(), hash);
+            }
+        }
+    }
+
+    /**
+     * Add a class file to the graph. A class seen before, e.g. in the classes and the test classes, keeps its first
+     * version like on the class path.
+     *
+     * @param in the class file
+     * @return the class name, in internal form
+     * @throws IOException if it is not a class file
+     */
+    String addClass(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("not a class file");
+        }
+        data.readUnsignedShort();
+        data.readUnsignedShort();
+
+        // the constant pool
+        int count = data.readUnsignedShort();
+        String[] utf8 = new String[count];
+        int[] classIndex = new int[count];
+        List<Integer> classes = new ArrayList<Integer>();
+        for (int i = 1; i < count; i++) {
+            int tag = data.readUnsignedByte();
+            switch (tag) {
+                case 1:
+                    utf8[i] = data.readUTF();
+                    break;
+                case 7:
+                    classIndex[i] = data.readUnsignedShort();
+                    classes.add(i);
+                    break;
+                case 8:
+                case 16:
+                case 19:
+                case 20:
+                    data.readUnsignedShort();
+                    break;
+                case 15:
+                    data.readUnsignedByte();
+                    data.readUnsignedShort();
+                    break;
+                case 3:
+                case 4:
+                case 9:
+                case 10:
+                case 11:
+                case 12:
+                case 17:
+                case 18:
+                    data.readInt();
+                    break;
+                case 5:
+                case 6:
+                    data.readLong();
+                    // takes two entries
+                    i++;
+                    break;
+                default:
+                    throw new IOException("unknown constant pool tag " + tag);
+            }
+        }
+
+        data.readUnsignedShort();
+        String name = utf8[classIndex[data.readUnsignedShort()]];
+        if (references.containsKey(name)) {
+            return name;
+        }
+        Set<String> refs = new HashSet<String>();
+        for (int i : classes) {
+            String ref = utf8[classIndex[i]];
+            if (ref.startsWith("[")) {
+                addTypes(ref, refs);
+            } else {
+                refs.add(ref);
+            }
+        }
+        for (String s : utf8) {
+            if (s != null && s.indexOf(';') > 0) {
+                addTypes(s, refs);
+            }
+        }
+        refs.remove(name);
+        references.put(name, refs);
+
+        // skip super class, interfaces, fields and methods to the SourceFile attribute
+        data.readUnsignedShort();
+        skip(data, data.readUnsignedShort() * 2);
+        for (int members = 0; members < 2; members++) {
+            int n = data.readUnsignedShort();
+            for (int i = 0; i < n; i++) {
+                skip(data, 6);
+                int attributes = data.readUnsignedShort();
+                for (int a = 0; a < attributes; a++) {
+                    data.readUnsignedShort();
+                    skip(data, data.readInt() & 0xFFFFFFFFL);
+                }
+            }
+        }
+        int attributes = data.readUnsignedShort();
+        for (int a = 0; a < attributes; a++) {
+            String attribute = utf8[data.readUnsignedShort()];
+            long length = data.readInt() & 0xFFFFFFFFL;
+            if ("SourceFile".equals(attribute)) {
+                String sourceFile = utf8[data.readUnsignedShort()];
+                int slash = name.lastIndexOf('/');
+                String path = slash < 0 ? sourceFile : name.substring(0, slash + 1) + sourceFile;
+                List<String> list = sources.get(path);
+                if (list == null) {
+                    list = new ArrayList<String>(1);
+                    sources.put(path, list);
+                }
+                list.add(name);
+                return name;
+            }
+            skip(data, length);
+        }
+        return name;
+    }
+
+    /**
+     * Add the class types of a descriptor or signature.
+     *
+     * @param s the descriptor or signature
+     * @param refs the references to add to
+     */
+    private static void addTypes(String s, Set<String> refs) {
+        Matcher m = TYPE.matcher(s);
+        while (m.find()) {
+            refs.add(m.group(1));
+        }
+    }
+
+    /**
+     * Skip bytes.
+     *
+     * @param data the data
+     * @param n the number of bytes
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static void skip(DataInputStream data, long n) throws IOException {
+        while (n > 0) {
+            long skipped = data.skip(n);
+            if (skipped <= 0) {
+                data.readByte();
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    /**
+     * Hex encoded SHA-1 of bytes.
+     *
+     * @param bytes the bytes
+     * @return the hash
+     */
+    static String sha1(byte[] bytes) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(bytes)) {
+                sb.append(String.format("%02x", b & 0xFF));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Gets the number of classes in the graph.
+     *
+     * @return the class count
+     */
+    public int getClassCount() {
+        return references.size();
+    }
+
+    /**
+     * The code fingerprint of a benchmark: the hash of the classes its generated class reaches and of the resources.
+     *
+     * @param entry the benchmark
+     * @return the fingerprint, null if its classes are not in the class directories
+     */
+    public String fingerprint(BenchmarkListEntry entry) {
+        String start = startOf(entry);
+        if (start == null) {
+            return null;
+        }
+        Set<String> reached = new TreeSet<String>();
+        Deque<String> queue = new ArrayDeque<String>();
+        reached.add(start);
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            for (String ref : references.get(queue.poll())) {
+                if (references.containsKey(ref) && reached.add(ref)) {
+                    queue.add(ref);
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String name : reached) {
+            sb.append(name).append(' ').append(hashes.get(name)).append('\n');
+        }
+        for (Map.Entry<String, String> e : resources.entrySet()) {
+            sb.append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+        }
+        return JvmPropertiesCache.sha1(sb.toString());
+    }
+
+    /**
+     * The class a benchmark starts from in the graph: its generated class, else its own class.
+     *
+     * @param entry the benchmark
+     * @return the class name in internal form, null if neither is in the class directories
+     */
+    private String startOf(BenchmarkListEntry entry) {
+        String target = entry.generatedTarget();
+        String start = target.substring(0, target.lastIndexOf('.')).replace('.', '/');
+        if (!references.containsKey(start)) {
+            start = entry.getUserClassQName().replace('.', '/');
+        }
+        return references.containsKey(start) ? start : null;
+    }
+
+    /**
+     * Select the benchmarks the changed files can affect.
+     *
+     * @param entries the benchmarks
+     * @param changedFiles the changed files, relative to the root of the repository
+     * @param ignore the changed files that affect no benchmark, e.g. documentation, may be null
+     * @return the selection
+     */
+    public Selection select(Collection<BenchmarkListEntry> entries, Collection<String> changedFiles,
+            Pattern ignore) {
+        Selection selection = new Selection();
+
+        // the changed classes, by the file they are compiled from
+        Map<String, String> changed = new HashMap<String, String>();
+        for (String file : changedFiles) {
+            if (ignore != null && ignore.matcher(file).find()) {
+                selection.files.put(file, "ignored");
+            } else if (!SOURCE.matcher(file).matches()) {
+                selection.files.put(file, "not a source file, affects all benchmarks");
+                if (selection.all == null) {
+                    selection.all = file;
+                }
+            } else {
+                List<String> classes = classesOf(file);
+                for (String name : classes) {
+                    changed.put(name, file);
+                }
+                if (classes.isEmpty()) {
+                    // compiled elsewhere, e.g. into a jar of the class path the graph does not follow
+                    selection.files.put(file, "no class in the class directories, affects all benchmarks");
+                    if (selection.all == null) {
+                        selection.all = file;
+                    }
+                } else {
+                    selection.files.put(file, toNames(classes));
+                }
+            }
+        }
+
+        // walk the graph backwards from the changed classes, every class learns its next step towards one
+        Map<String, String> next = new HashMap<String, String>();
+        if (selection.all == null) {
+            Map<String, List<String>> dependents = dependents();
+            Deque<String> queue = new ArrayDeque<String>();
+            for (String name : changed.keySet()) {
+                next.put(name, null);
+                queue.add(name);
+            }
+            while (!queue.isEmpty()) {
+                String name = queue.poll();
+                List<String> list = dependents.get(name);
+                if (list == null) {
+                    continue;
+                }
+                for (String dependent : list) {
+                    if (!next.containsKey(dependent)) {
+                        next.put(dependent, name);
+                        queue.add(dependent);
+                    }
+                }
+            }
+        }
+
+        for (BenchmarkListEntry entry : entries) {
+            String benchmark = entry.getUsername();
+            if (selection.selected.containsKey(benchmark)) {
+                continue;
+            }
+            if (selection.all != null) {
+                selection.selected.put(benchmark, "changed " + selection.all);
+                continue;
+            }
+            String start = startOf(entry);
+            if (start == null) {
+                selection.selected.put(benchmark, "classes not found in the class directories");
+            } else if (next.containsKey(start)) {
+                StringBuilder path = new StringBuilder();
+                String name = start;
+                String last = name;
+                while (name != null) {
+                    if (path.length() > 0) {
+                        path.append(" -> ");
+                    }
+                    path.append(name.replace('/', '.'));
+                    last = name;
+                    name = next.get(name);
+                }
+                selection.selected.put(benchmark, path.append(" (changed ").append(changed.get(last)).append(')')
+                        .toString());
+            } else {
+                selection.unaffected.add(benchmark);
+            }
+        }
+        selection.unaffected.removeAll(selection.selected.keySet());
+        selection.changedClasses = changed.size();
+        return selection;
+    }
+
+    /**
+     * The classes compiled from a changed file, found by the longest tail of its path that is a package path.
+     *
+     * @param file the file
+     * @return the class names
+     */
+    private List<String> classesOf(String file) {
+        String path = file.replace('\\', '/');
+        while (true) {
+            List<String> classes = sources.get(path);
+            if (classes != null) {
+                return classes;
+            }
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                return new ArrayList<String>();
+            }
+            path = path.substring(slash + 1);
+        }
+    }
+
+    /**
+     * The reverse graph: the classes that reference a class, by class name.
+     *
+     * @return the dependents
+     */
+    private Map<String, List<String>> dependents() {
+        Map<String, List<String>> ret = new HashMap<String, List<String>>();
+        for (Map.Entry<String, Set<String>> e : references.entrySet()) {
+            for (String ref : e.getValue()) {
+                if (!references.containsKey(ref)) {
+                    continue;
+                }
+                List<String> list = ret.get(ref);
+                if (list == null) {
+                    list = new ArrayList<String>();
+                    ret.put(ref, list);
+                }
+                list.add(e.getKey());
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Class names in binary form, sorted and comma separated.
+     *
+     * @param classes the internal names
+     * @return the names
+     */
+    private static String toNames(List<String> classes) {
+        StringBuilder sb = new StringBuilder();
+        for (String name : new TreeSet<String>(classes)) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(name.replace('/', '.'));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The benchmarks selected by the changes, with the reason of each.
+     */
+    public static class Selection {
+
+        /** The reason of each selected benchmark, by benchmark name. */
+        private final Map<String, String> selected = new TreeMap<String, String>();
+
+        /** The benchmarks no change reaches. */
+        private final Set<String> unaffected = new TreeSet<String>();
+
+        /** What became of each changed file. */
+        private final Map<String, String> files = new LinkedHashMap<String, String>();
+
+        /** The first changed file that affects all benchmarks, null if none. */
+        private String all;
+
+        /** The number of changed classes. */
+        private int changedClasses;
+
+        /**
+         * Gets the selected benchmarks with the reason of each.
+         *
+         * @return the reasons by benchmark name
+         */
+        public Map<String, String> getSelected() {
+            return selected;
+        }
+
+        /**
+         * Gets the benchmarks no change reaches.
+         *
+         * @return the unaffected benchmark names
+         */
+        public Set<String> getUnaffected() {
+            return unaffected;
+        }
+
+        /**
+         * If a changed file selects all benchmarks.
+         *
+         * @return true, if all are selected
+         */
+        public boolean isAll() {
+            return all != null;
+        }
+
+        /**
+         * Gets the number of changed classes.
+         *
+         * @return the changed classes
+         */
+        public int getChangedClasses() {
+            return changedClasses;
+        }
+
+        /**
+         * Write the why selected report: every selected benchmark with the path to a changed class, the unaffected
+         * benchmarks and what became of every changed file.
+         *
+         * @param file the file
+         * @param title the first line, e.g. the git range
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        public void write(File file, String title) throws IOException {
+            try (Writer w = new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8)) {
+                w.write(title + "\n\n");
+                w.write("Selected " + selected.size() + " of " + (selected.size() + unaffected.size())
+                        + " benchmarks:\n");
+                for (Map.Entry<String, String> e : selected.entrySet()) {
+                    w.write("  " + e.getKey() + "\n      " + e.getValue() + "\n");
+                }
+                w.write("\nNot affected:\n");
+                for (String benchmark : unaffected) {
+                    w.write("  " + benchmark + "\n");
+                }
+                w.write("\nChanged files:\n");
+                for (Map.Entry<String, String> e : files.entrySet()) {
+                    w.write("  " + e.getKey() + ": " + e.getValue() + "\n");
+                }
+            }
+        }
+    }
+}
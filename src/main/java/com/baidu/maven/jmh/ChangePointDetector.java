@@ -0,0 +1,276 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * E-divisive change-point detection on a series of scores (Matteson and James, 2014). The segment split with the
+ * largest energy distance between both sides is tested against random permutations of the segment, and when it is
+ * significant both sides are searched again. Unlike a comparison with a single baseline this finds slow drifts as a
+ * step somewhere in the past, and ignores one-off outliers.
+ */
+public class ChangePointDetector {
+
+    /** The significance level of the permutation test. */
+    private final double alpha;
+
+    /** The number of permutations. */
+    private final int permutations;
+
+    /** The minimum number of points on each side of a change. */
+    private final int minSegment;
+
+    /**
+     * Instantiates a new change point detector.
+     *
+     * @param alpha the significance level, e.g. 0.05
+     * @param permutations the number of permutations of the significance test, e.g. 199
+     * @param minSegment the minimum number of points on each side of a change, at least 2
+     */
+    public ChangePointDetector(double alpha, int permutations, int minSegment) {
+        this.alpha = alpha;
+        this.permutations = permutations;
+        this.minSegment = Math.max(2, minSegment);
+    }
+
+    /**
+     * Detect the change points of a series.
+     *
+     * @param values the series, oldest first
+     * @param seed the seed of the permutations, for repeatable results
+     * @return the change points ordered by index
+     */
+    public List<ChangePoint> detect(double[] values, long seed) {
+        List<ChangePoint> points = new ArrayList<ChangePoint>();
+        split(values, 0, values.length, new Random(seed), points);
+        Collections.sort(points);
+
+        // means of the final segments on both sides
+        List<ChangePoint> result = new ArrayList<ChangePoint>(points.size());
+        for (int i = 0; i < points.size(); i++) {
+            int from = i == 0 ? 0 : points.get(i - 1).index;
+            int index = points.get(i).index;
+            int to = i == points.size() - 1 ? values.length : points.get(i + 1).index;
+            result.add(new ChangePoint(index, mean(values, from, index), mean(values, index, to),
+                    points.get(i).confidence));
+        }
+        return result;
+    }
+
+    /**
+     * Search a segment and split it at a significant change.
+     *
+     * @param values the values
+     * @param from the first index of the segment
+     * @param to the index after the segment
+     * @param random the random
+     * @param points the change points found
+     */
+    private void split(double[] values, int from, int to, Random random, List<ChangePoint> points) {
+        int m = to - from;
+        if (m < 2 * minSegment) {
+            return;
+        }
+        double[] segment = new double[m];
+        System.arraycopy(values, from, segment, 0, m);
+
+        double[] best = bestSplit(segment);
+        if (best == null) {
+            return;
+        }
+        int tau = (int) best[0];
+        double q = best[1];
+
+        // share of random reorderings of the segment which split at least as well
+        int atLeast = 0;
+        double[] shuffled = segment.clone();
+        for (int r = 0; r < permutations; r++) {
+            shuffle(shuffled, random);
+            double[] s = bestSplit(shuffled);
+            if (s != null && s[1] >= q) {
+                atLeast++;
+            }
+        }
+        double p = (atLeast + 1d) / (permutations + 1d);
+        if (p >= alpha) {
+            return;
+        }
+
+        points.add(new ChangePoint(from + tau, Double.NaN, Double.NaN, 1 - p));
+        split(values, from, from + tau, random, points);
+        split(values, from + tau, to, random, points);
+    }
+
+    /**
+     * Split with the largest energy statistic. Moving the split by one point changes the within and between distance
+     * sums by one row of the distance matrix, so a whole scan is quadratic.
+     *
+     * @param x the segment
+     * @return the split index and its statistic, null if the segment is too short
+     */
+    private double[] bestSplit(double[] x) {
+        int m = x.length;
+        // all points on the right first
+        double within = 0;
+        for (int j = 0; j < m; j++) {
+            for (int k = j + 1; k < m; k++) {
+                within += Math.abs(x[j] - x[k]);
+            }
+        }
+        double left = 0;
+        double right = within;
+        double between = 0;
+
+        double[] best = null;
+        for (int t = 1; t <= m - minSegment; t++) {
+            // move point t - 1 from the right to the left
+            int p = t - 1;
+            double toLeft = 0;
+            for (int i = 0; i < p; i++) {
+                toLeft += Math.abs(x[p] - x[i]);
+            }
+            double toRight = 0;
+            for (int j = p + 1; j < m; j++) {
+                toRight += Math.abs(x[p] - x[j]);
+            }
+            left += toLeft;
+            right -= toRight;
+            between += toRight - toLeft;
+
+            if (t < minSegment) {
+                continue;
+            }
+            double s = m - t;
+            double q = t * s / m * (2 * between / (t * s) - left / (t * (t - 1) / 2d) - right / (s * (s - 1) / 2d));
+            if (best == null || q > best[1]) {
+                best = new double[] {t, q};
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Fisher-Yates shuffle.
+     *
+     * @param values the values
+     * @param random the random
+     */
+    private static void shuffle(double[] values, Random random) {
+        for (int i = values.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            double v = values[i];
+            values[i] = values[j];
+            values[j] = v;
+        }
+    }
+
+    /**
+     * Mean.
+     *
+     * @param values the values
+     * @param from the from
+     * @param to the to
+     * @return the double
+     */
+    private static double mean(double[] values, int from, int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += values[i];
+        }
+        return sum / (to - from);
+    }
+
+    /**
+     * A shift of the distribution of a series. The means are of the segments next to the change, up to the
+     * neighbouring change points.
+     */
+    public static class ChangePoint implements Comparable<ChangePoint> {
+
+        /** The index of the first point after the change. */
+        private final int index;
+
+        /** The mean before. */
+        private final double before;
+
+        /** The mean after. */
+        private final double after;
+
+        /** The confidence, 1 - p of the permutation test. */
+        private final double confidence;
+
+        /**
+         * Instantiates a new change point.
+         *
+         * @param index the index
+         * @param before the before
+         * @param after the after
+         * @param confidence the confidence
+         */
+        ChangePoint(int index, double before, double after, double confidence) {
+            this.index = index;
+            this.before = before;
+            this.after = after;
+            this.confidence = confidence;
+        }
+
+        /**
+         * Gets the index of the first point after the change.
+         *
+         * @return the index
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Gets the mean before the change.
+         *
+         * @return the before
+         */
+        public double getBefore() {
+            return before;
+        }
+
+        /**
+         * Gets the mean after the change.
+         *
+         * @return the after
+         */
+        public double getAfter() {
+            return after;
+        }
+
+        /**
+         * Gets the relative change of the mean.
+         *
+         * @return the change, e.g. -0.04 for 4% lower
+         */
+        public double getChange() {
+            return before == 0 ? 0 : (after - before) / before;
+        }
+
+        /**
+         * Gets the confidence.
+         *
+         * @return the confidence
+         */
+        public double getConfidence() {
+            return confidence;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Comparable#compareTo(java.lang.Object)
+         */
+        @Override
+        public int compareTo(ChangePoint o) {
+            return Integer.compare(index, o.index);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs git commands in the project directory. CI checkouts are often detached or shallow, so commit and branch fall
+ * back to the variables of the common CI servers.
+ */
+public final class Git {
+
+    /**
+     * Instantiates a new git.
+     */
+    private Git() {
+    }
+
+    /**
+     * Run a git command.
+     *
+     * @param dir the working directory
+     * @param args the git arguments
+     * @return the trimmed standard output, null if git is missing or failed
+     */
+    public static String run(File dir, String... args) {
+        List<String> command = new ArrayList<String>();
+        command.add("git");
+        command.addAll(Arrays.asList(args));
+        try {
+            Process p = new ProcessBuilder(command).directory(dir).redirectErrorStream(false).start();
+            p.getOutputStream().close();
+            // drain stderr aside, a full pipe would block git before it ends stdout
+            final InputStream err = p.getErrorStream();
+            Thread drainer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        read(err);
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }, "git-stderr");
+            drainer.setDaemon(true);
+            drainer.start();
+            String out = read(p.getInputStream());
+            drainer.join();
+            return p.waitFor() == 0 ? out.trim() : null;
+        } catch (IOException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * The commit checked out in the directory.
+     *
+     * @param dir the dir
+     * @return the commit id, null if unknown
+     */
+    public static String commit(File dir) {
+        String commit = run(dir, "rev-parse", "HEAD");
+        return commit != null ? commit : env("GIT_COMMIT", "GITHUB_SHA", "CI_COMMIT_SHA");
+    }
+
+    /**
+     * The branch checked out in the directory.
+     *
+     * @param dir the dir
+     * @return the branch name, null if unknown
+     */
+    public static String branch(File dir) {
+        String branch = run(dir, "rev-parse", "--abbrev-ref", "HEAD");
+        if (branch != null && !"HEAD".equals(branch)) {
+            return branch;
+        }
+        // detached checkout
+        return env("GIT_BRANCH", "GITHUB_HEAD_REF", "GITHUB_REF_NAME", "CI_COMMIT_REF_NAME");
+    }
+
+    /**
+     * First non-empty environment variable.
+     *
+     * @param names the names
+     * @return the value, null if none is set
+     */
+    private static String env(String... names) {
+        for (String name : names) {
+            String value = System.getenv(name);
+            if (!StringUtils.isEmpty(value)) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read a stream to its end.
+     *
+     * @param in the in
+     * @return the string
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            bos.write(buf, 0, n);
+        }
+        in.close();
+        return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,291 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.codehaus.plexus.util.Base64;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.results.BenchmarkResult;
+import org.openjdk.jmh.results.BenchmarkResultMetaData;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.ExBenchmarkParams;
+
+/**
+ * Writes the samples of sample time benchmarks as HdrHistogram interval logs (.hlog, format 1.3), readable by
+ * HistogramLogReader, HistogramLogProcessor and HistogramLogAnalyzer. Every measurement fork is one interval, so
+ * merging the intervals of a log gives the distribution of the whole run.
+ * <p>
+ * The histograms are encoded here in the V2 compressed format, without the HdrHistogram library: 3 significant
+ * digits, values in nanoseconds. JMH keeps its samples with about the same precision, so nothing is lost.
+ */
+public class HdrHistogramLog {
+
+    /** The Constant SIGNIFICANT_DIGITS. */
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    /** The Constant ENCODING_COOKIE, V2 with the word size nibble set for zero run-length encoding. */
+    private static final int ENCODING_COOKIE = 0x1c849303 | 0x10;
+
+    /** The Constant COMPRESSED_ENCODING_COOKIE. */
+    private static final int COMPRESSED_ENCODING_COOKIE = 0x1c849304 | 0x10;
+
+    /** The Constant MAX_VALUE_UNIT_RATIO, interval max in milliseconds like the HdrHistogram log writer. */
+    private static final double MAX_VALUE_UNIT_RATIO = 1e6;
+
+    /** The Constant SUB_BUCKET_COUNT_MAGNITUDE, for 3 digits: ceil(log2(2 * 10^3)). */
+    private static final int SUB_BUCKET_COUNT_MAGNITUDE = 32
+            - Integer.numberOfLeadingZeros((int) (2 * Math.pow(10, SIGNIFICANT_DIGITS)) - 1);
+
+    /** The Constant SUB_BUCKET_HALF_COUNT_MAGNITUDE. */
+    private static final int SUB_BUCKET_HALF_COUNT_MAGNITUDE = SUB_BUCKET_COUNT_MAGNITUDE - 1;
+
+    /** The Constant SUB_BUCKET_COUNT. */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_COUNT_MAGNITUDE;
+
+    /** The Constant SUB_BUCKET_HALF_COUNT. */
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+
+    /** The Constant SUB_BUCKET_MASK. */
+    private static final long SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+
+    /** The Constant LEADING_ZERO_COUNT_BASE. */
+    private static final int LEADING_ZERO_COUNT_BASE = 64 - SUB_BUCKET_COUNT_MAGNITUDE;
+
+    /**
+     * Instantiates a new hdr histogram log.
+     */
+    private HdrHistogramLog() {
+    }
+
+    /**
+     * Write a log for each sample time result.
+     *
+     * @param directory the directory
+     * @param results the results
+     * @return the number of logs written
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public static int write(File directory, Collection<RunResult> results) throws IOException {
+        int written = 0;
+        for (RunResult result : results) {
+            if (result.getParams().getMode() != Mode.SampleTime) {
+                continue;
+            }
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Can not create " + directory);
+            }
+            String label = ExBenchmarkParams.label(result.getParams());
+            String name = label.replaceAll("[^A-Za-z0-9._=-]+", "_") + ".hlog";
+            write(new File(directory, name), label, result);
+            written++;
+        }
+        return written;
+    }
+
+    /**
+     * Write the log of one benchmark, an interval per fork.
+     *
+     * @param file the file
+     * @param label the label
+     * @param result the result
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static void write(File file, String label, RunResult result) throws IOException {
+        long base = Long.MAX_VALUE;
+        for (BenchmarkResult br : result.getBenchmarkResults()) {
+            base = Math.min(base, measurementStart(br, Long.MAX_VALUE));
+        }
+        if (base == Long.MAX_VALUE) {
+            base = System.currentTimeMillis();
+        }
+
+        try (Writer w = new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8)) {
+            w.write("#[Benchmark: " + label + "]\n");
+            w.write("#[Histogram log format version 1.3]\n");
+            w.write(String.format(Locale.ROOT, "#[StartTime: %.3f (seconds since epoch), %s]\n", base / 1000d,
+                    new Date(base)));
+            w.write(String.format(Locale.ROOT, "#[BaseTime: %.3f (seconds since epoch)]\n", base / 1000d));
+            w.write("\"StartTimestamp\",\"Interval_Length\",\"Interval_Max\",\"Interval_Compressed_Histogram\"\n");
+
+            long offset = 0;
+            for (BenchmarkResult br : result.getBenchmarkResults()) {
+                Result primary = br.getPrimaryResult();
+                double nanosPerUnit = nanosPerUnit(primary.getScoreUnit());
+                long[] counts = new long[0];
+                long max = 0;
+                long total = 0;
+                Iterator<Map.Entry<Double, Long>> it = primary.getStatistics().getRawData();
+                while (it.hasNext()) {
+                    Map.Entry<Double, Long> e = it.next();
+                    long value = Math.max(0, Math.round(e.getKey() * nanosPerUnit));
+                    int index = countsIndex(value);
+                    if (index >= counts.length) {
+                        counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length * 2));
+                    }
+                    counts[index] += e.getValue();
+                    max = Math.max(max, value);
+                    total += e.getValue();
+                }
+                if (total == 0) {
+                    continue;
+                }
+
+                long start = measurementStart(br, base + offset);
+                long length = measurementLength(br);
+                offset = start - base + length;
+                String histogram = new String(Base64.encodeBase64(encode(counts, max)), StandardCharsets.US_ASCII);
+                w.write(String.format(Locale.ROOT, "%.3f,%.3f,%.3f,%s\n", (start - base) / 1000d, length / 1000d,
+                        max / MAX_VALUE_UNIT_RATIO, histogram));
+            }
+        }
+    }
+
+    /**
+     * Nanoseconds per score unit, e.g. 1000 for "us/op".
+     *
+     * @param unit the unit
+     * @return the factor
+     */
+    private static double nanosPerUnit(String unit) {
+        double factor = ScoreUnit.factor(unit, "ns/op");
+        return Double.isNaN(factor) ? 1 : factor;
+    }
+
+    /**
+     * Wall-clock start of the measurement of a fork.
+     *
+     * @param br the fork result
+     * @param fallback the fallback
+     * @return the time in ms
+     */
+    private static long measurementStart(BenchmarkResult br, long fallback) {
+        BenchmarkResultMetaData md = br.getMetadata();
+        return md != null && md.getMeasurementTime() > 0 ? md.getMeasurementTime() : fallback;
+    }
+
+    /**
+     * Measurement time of a fork.
+     *
+     * @param br the fork result
+     * @return the time in ms
+     */
+    private static long measurementLength(BenchmarkResult br) {
+        BenchmarkResultMetaData md = br.getMetadata();
+        if (md != null && md.getStopTime() > md.getMeasurementTime()) {
+            return md.getStopTime() - md.getMeasurementTime();
+        }
+        long ms = 0;
+        for (IterationResult ir : br.getIterationResults()) {
+            ms += ir.getParams().getTime().convertTo(TimeUnit.MILLISECONDS);
+        }
+        return ms;
+    }
+
+    /**
+     * Index of a value in the counts array of a histogram with lowest discernible value 1.
+     *
+     * @param value the value
+     * @return the index
+     */
+    static int countsIndex(long value) {
+        int bucketIndex = LEADING_ZERO_COUNT_BASE - Long.numberOfLeadingZeros(value | SUB_BUCKET_MASK);
+        int subBucketIndex = (int) (value >>> bucketIndex);
+        return ((bucketIndex + 1) << SUB_BUCKET_HALF_COUNT_MAGNITUDE) + (subBucketIndex - SUB_BUCKET_HALF_COUNT);
+    }
+
+    /**
+     * Encode a histogram in the V2 compressed format.
+     *
+     * @param counts the counts by index
+     * @param max the max value
+     * @return the compressed histogram
+     */
+    static byte[] encode(long[] counts, long max) {
+        int limit = countsIndex(max) + 1;
+        ByteBuffer payload = ByteBuffer.allocate(40 + limit * 9);
+        payload.putInt(ENCODING_COOKIE);
+        payload.putInt(0);
+        // normalizing index offset
+        payload.putInt(0);
+        payload.putInt(SIGNIFICANT_DIGITS);
+        // lowest discernible value
+        payload.putLong(1);
+        // highest trackable value
+        payload.putLong(Math.max(2, max));
+        // integer to double value conversion ratio
+        payload.putDouble(1.0);
+
+        int i = 0;
+        while (i < limit) {
+            long count = i < counts.length ? counts[i] : 0;
+            i++;
+            if (count == 0) {
+                int zeros = 1;
+                while (i < limit && (i >= counts.length || counts[i] == 0)) {
+                    zeros++;
+                    i++;
+                }
+                putZigZag(payload, zeros > 1 ? -zeros : 0);
+            } else {
+                putZigZag(payload, count);
+            }
+        }
+        int length = payload.position();
+        payload.putInt(4, length - 40);
+
+        Deflater deflater = new Deflater();
+        deflater.setInput(payload.array(), 0, length);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buf);
+            compressed.write(buf, 0, n);
+        }
+        deflater.end();
+
+        ByteBuffer out = ByteBuffer.allocate(8 + compressed.size());
+        out.putInt(COMPRESSED_ENCODING_COOKIE);
+        out.putInt(compressed.size());
+        out.put(compressed.toByteArray());
+        return out.array();
+    }
+
+    /**
+     * Put a ZigZag LEB128 value of up to 9 bytes, the ninth holding all 8 bits.
+     *
+     * @param buffer the buffer
+     * @param value the value
+     */
+    private static void putZigZag(ByteBuffer buffer, long value) {
+        long v = (value << 1) ^ (value >> 63);
+        for (int i = 0; i < 8; i++) {
+            if ((v >>> 7) == 0) {
+                buffer.put((byte) v);
+                return;
+            }
+            buffer.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+}
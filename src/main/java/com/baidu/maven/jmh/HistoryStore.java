@@ -0,0 +1,789 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.ExBenchmarkParams;
+import org.openjdk.jmh.runner.JvmPropertiesCache;
+import org.openjdk.jmh.util.Statistics;
+
+/**
+ * Append-only store of benchmark results across runs, kept outside target so it survives clean builds.
+ * <p>
+ * Layout of the store directory:
+ * <ul>
+ * <li>runs.dat, runs.idx: one record per run with commit, branch, time, host and JVM, and the offset of each record;
+ * the run id is the record number</li>
+ * <li>catalog.txt: one line per series, the series key and the benchmark label</li>
+ * <li>series/&lt;key&gt;.dat, .idx: the points of one benchmark (name, mode and params), and their offsets</li>
+ * </ul>
+ * Records are binary and written before their offset, so a crash can only leave an unindexed tail which readers never
+ * see. Reading the last N points of a series seeks through its index and touches nothing else.
+ */
+public class HistoryStore {
+
+    /** The Constant VERSION, of the record layout. */
+    private static final byte VERSION = 1;
+
+    /** The directory. */
+    private final File directory;
+
+    /** The series directory. */
+    private final File seriesDirectory;
+
+    /** The catalog, label by series key, loaded lazily. */
+    private Map<String, String> catalog;
+
+    /**
+     * Instantiates a new history store.
+     *
+     * @param directory the store directory, created on first append
+     */
+    public HistoryStore(File directory) {
+        this.directory = directory;
+        this.seriesDirectory = new File(directory, "series");
+    }
+
+    /**
+     * Gets the directory.
+     *
+     * @return the directory
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Key of the series of a benchmark label.
+     *
+     * @param label the label, as of {@link ExBenchmarkParams#label}
+     * @return the key
+     */
+    public static String key(String label) {
+        return JvmPropertiesCache.sha1(label);
+    }
+
+    /**
+     * Append the results of a run.
+     *
+     * @param run the run
+     * @param results the results
+     * @return the run id
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public int append(Run run, Collection<RunResult> results) throws IOException {
+        if (!seriesDirectory.isDirectory() && !seriesDirectory.mkdirs()) {
+            throw new IOException("Can not create the history directory " + seriesDirectory);
+        }
+        try (FileOutputStream lockFile = new FileOutputStream(new File(directory, "lock"), true)) {
+            // held until the file is closed
+            lockFile.getChannel().lock();
+            catalog = null;
+            Map<String, String> known = catalog();
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            run.write(out);
+            int runId = (int) append(new File(directory, "runs"), bytes.toByteArray());
+
+            for (RunResult result : results) {
+                String label = ExBenchmarkParams.label(result.getParams());
+                String key = key(label);
+                bytes.reset();
+                Point.write(out, runId, run.timestamp, result);
+                append(new File(seriesDirectory, key), bytes.toByteArray());
+
+                if (!known.containsKey(key)) {
+                    try (Writer w = new OutputStreamWriter(new FileOutputStream(new File(directory, "catalog.txt"),
+                            true), StandardCharsets.UTF_8)) {
+                        w.write(key + "\t" + label + "\n");
+                    }
+                    known.put(key, label);
+                }
+            }
+            return runId;
+        }
+    }
+
+    /**
+     * Labels of all benchmarks in the store.
+     *
+     * @return the labels by series key
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public Map<String, String> catalog() throws IOException {
+        if (catalog == null) {
+            Map<String, String> map = new LinkedHashMap<String, String>();
+            File file = new File(directory, "catalog.txt");
+            if (file.isFile()) {
+                try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                        StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = r.readLine()) != null) {
+                        int tab = line.indexOf('\t');
+                        if (tab > 0) {
+                            map.put(line.substring(0, tab), line.substring(tab + 1));
+                        }
+                    }
+                }
+            }
+            catalog = map;
+        }
+        return catalog;
+    }
+
+    /**
+     * Number of points of a series.
+     *
+     * @param label the benchmark label
+     * @return the count
+     */
+    public int count(String label) {
+        return (int) (new File(seriesDirectory, key(label) + ".idx").length() / 8);
+    }
+
+    /**
+     * The last points of a series, oldest first.
+     *
+     * @param label the benchmark label
+     * @param n the max number of points
+     * @return the points
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public List<Point> last(String label, int n) throws IOException {
+        File base = new File(seriesDirectory, key(label));
+        long[] offsets = lastOffsets(base, n);
+        if (offsets.length == 0) {
+            return Collections.emptyList();
+        }
+        List<Point> points = new ArrayList<Point>(offsets.length);
+        try (RandomAccessFile data = new RandomAccessFile(new File(base.getPath() + ".dat"), "r")) {
+            for (long offset : offsets) {
+                data.seek(offset);
+                points.add(Point.read(data, label));
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Read a run.
+     *
+     * @param runId the run id
+     * @return the run, null if there is none with that id
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public Run run(int runId) throws IOException {
+        File idx = new File(directory, "runs.idx");
+        if (runId < 0 || (runId + 1) * 8L > idx.length()) {
+            return null;
+        }
+        try (RandomAccessFile index = new RandomAccessFile(idx, "r");
+                RandomAccessFile data = new RandomAccessFile(new File(directory, "runs.dat"), "r")) {
+            index.seek(runId * 8L);
+            data.seek(index.readLong());
+            return Run.read(data);
+        }
+    }
+
+    /**
+     * Append a record and its offset.
+     *
+     * @param base the data and index file without extension
+     * @param record the record
+     * @return the record number
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static long append(File base, byte[] record) throws IOException {
+        File data = new File(base.getPath() + ".dat");
+        File index = new File(base.getPath() + ".idx");
+        long offset;
+        try (FileOutputStream fos = new FileOutputStream(data, true)) {
+            FileChannel channel = fos.getChannel();
+            offset = channel.size();
+            fos.write(record);
+            fos.flush();
+        }
+        long count;
+        try (RandomAccessFile idx = new RandomAccessFile(index, "rw")) {
+            // drop a torn offset of a crashed append
+            count = idx.length() / 8;
+            idx.setLength(count * 8);
+            idx.seek(count * 8);
+            idx.writeLong(offset);
+        }
+        return count;
+    }
+
+    /**
+     * Offsets of the last records.
+     *
+     * @param base the data and index file without extension
+     * @param n the max number of records
+     * @return the offsets, oldest first
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static long[] lastOffsets(File base, int n) throws IOException {
+        File index = new File(base.getPath() + ".idx");
+        if (!index.isFile()) {
+            return new long[0];
+        }
+        try (RandomAccessFile idx = new RandomAccessFile(index, "r")) {
+            long count = idx.length() / 8;
+            int take = (int) Math.min(count, n);
+            idx.seek((count - take) * 8);
+            long[] offsets = new long[take];
+            for (int i = 0; i < take; i++) {
+                offsets[i] = idx.readLong();
+            }
+            return offsets;
+        }
+    }
+
+    /**
+     * Where and on what a run was done.
+     */
+    public static class Run {
+
+        /** The timestamp. */
+        private final long timestamp;
+
+        /** The commit. */
+        private final String commit;
+
+        /** The branch. */
+        private final String branch;
+
+        /** The host. */
+        private final String host;
+
+        /** The host fingerprint, hash of OS, architecture, CPU model and count, and memory. */
+        private final String hostFingerprint;
+
+        /** The jvm. */
+        private final String jvm;
+
+        /** The jvm fingerprint, hash of JVM path, version and arguments. */
+        private final String jvmFingerprint;
+
+        /**
+         * Instantiates a new run.
+         *
+         * @param timestamp the timestamp
+         * @param commit the commit
+         * @param branch the branch
+         * @param host the host
+         * @param hostFingerprint the host fingerprint
+         * @param jvm the jvm
+         * @param jvmFingerprint the jvm fingerprint
+         */
+        Run(long timestamp, String commit, String branch, String host, String hostFingerprint, String jvm,
+                String jvmFingerprint) {
+            this.timestamp = timestamp;
+            this.commit = commit;
+            this.branch = branch;
+            this.host = host;
+            this.hostFingerprint = hostFingerprint;
+            this.jvm = jvm;
+            this.jvmFingerprint = jvmFingerprint;
+        }
+
+        /**
+         * Describe the current run.
+         *
+         * @param projectDir the project dir, for git
+         * @param results the results, for the JVM
+         * @return the run
+         */
+        public static Run current(File projectDir, Collection<RunResult> results) {
+            String jvm = "";
+            String jvmFingerprint = "";
+            for (RunResult result : results) {
+                BenchmarkParams params = result.getParams();
+                jvm = params.getVmName() + " " + params.getJdkVersion() + " (" + params.getVmVersion() + ")";
+                jvmFingerprint = JvmPropertiesCache.sha1(params.getJvm() + "\n" + params.getVmVersion() + "\n"
+                        + params.getJvmArgs());
+                break;
+            }
+
+            String host;
+            try {
+                host = InetAddress.getLocalHost().getHostName();
+            } catch (UnknownHostException e) {
+                host = "unknown";
+            }
+            return new Run(System.currentTimeMillis(), nonNull(Git.commit(projectDir)),
+                    nonNull(Git.branch(projectDir)), host, hostFingerprint(), jvm, jvmFingerprint);
+        }
+
+        /**
+         * The fingerprint of this host: hash of OS, architecture, CPU model and count, and memory.
+         *
+         * @return the fingerprint
+         */
+        public static String hostFingerprint() {
+            String hardware = System.getProperty("os.name") + "\n" + System.getProperty("os.version") + "\n"
+                    + System.getProperty("os.arch") + "\n" + Runtime.getRuntime().availableProcessors() + "\n"
+                    + cpuModel() + "\n" + memTotal();
+            return JvmPropertiesCache.sha1(hardware);
+        }
+
+        /**
+         * Gets the timestamp.
+         *
+         * @return the timestamp
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Gets the commit.
+         *
+         * @return the commit, empty if unknown
+         */
+        public String getCommit() {
+            return commit;
+        }
+
+        /**
+         * Gets the branch.
+         *
+         * @return the branch, empty if unknown
+         */
+        public String getBranch() {
+            return branch;
+        }
+
+        /**
+         * Gets the host.
+         *
+         * @return the host
+         */
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * Gets the host fingerprint.
+         *
+         * @return the host fingerprint
+         */
+        public String getHostFingerprint() {
+            return hostFingerprint;
+        }
+
+        /**
+         * Gets the jvm.
+         *
+         * @return the jvm
+         */
+        public String getJvm() {
+            return jvm;
+        }
+
+        /**
+         * Gets the jvm fingerprint.
+         *
+         * @return the jvm fingerprint
+         */
+        public String getJvmFingerprint() {
+            return jvmFingerprint;
+        }
+
+        /**
+         * Write.
+         *
+         * @param out the out
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(VERSION);
+            out.writeLong(timestamp);
+            out.writeUTF(commit);
+            out.writeUTF(branch);
+            out.writeUTF(host);
+            out.writeUTF(hostFingerprint);
+            out.writeUTF(jvm);
+            out.writeUTF(jvmFingerprint);
+            out.flush();
+        }
+
+        /**
+         * Read.
+         *
+         * @param in the in
+         * @return the run
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        static Run read(RandomAccessFile in) throws IOException {
+            checkVersion(in.readByte());
+            return new Run(in.readLong(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(),
+                    in.readUTF());
+        }
+
+        /**
+         * Cpu model.
+         *
+         * @return the CPU model from /proc/cpuinfo, empty if unknown
+         */
+        private static String cpuModel() {
+            return procField("/proc/cpuinfo", "model name");
+        }
+
+        /**
+         * Mem total.
+         *
+         * @return the memory size from /proc/meminfo, empty if unknown
+         */
+        private static String memTotal() {
+            return procField("/proc/meminfo", "MemTotal");
+        }
+
+        /**
+         * First value of a field in a /proc file.
+         *
+         * @param path the path
+         * @param field the field
+         * @return the value, empty if unknown
+         */
+        private static String procField(String path, String field) {
+            File file = new File(path);
+            if (!file.canRead()) {
+                return "";
+            }
+            try {
+                for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                    if (line.startsWith(field)) {
+                        return line.substring(line.indexOf(':') + 1).trim();
+                    }
+                }
+            } catch (IOException e) {
+                // unknown
+            }
+            return "";
+        }
+
+        /**
+         * Non null.
+         *
+         * @param s the s
+         * @return the string
+         */
+        private static String nonNull(String s) {
+            return s == null ? "" : s;
+        }
+    }
+
+    /**
+     * The statistics of one benchmark in one run.
+     */
+    public static class Point {
+
+        /** The label. */
+        private final String label;
+
+        /** The run id. */
+        private final int runId;
+
+        /** The timestamp. */
+        private final long timestamp;
+
+        /** The unit. */
+        private final String unit;
+
+        /** The sample count. */
+        private final long n;
+
+        /** The mean. */
+        private final double mean;
+
+        /** The error at 99.9%, as JMH reports it. */
+        private final double error;
+
+        /** The min. */
+        private final double min;
+
+        /** The max. */
+        private final double max;
+
+        /** The standard deviation. */
+        private final double stdev;
+
+        /** The percentiles 50, 90, 99, 99.9. */
+        private final double[] percentiles;
+
+        /** The measured iteration scores. */
+        private final double[] scores;
+
+        /** The secondary scores, by label. */
+        private final Map<String, Double> secondary;
+
+        /**
+         * Instantiates a new point.
+         *
+         * @param label the label
+         * @param runId the run id
+         * @param timestamp the timestamp
+         * @param unit the unit
+         * @param n the n
+         * @param mean the mean
+         * @param error the error
+         * @param min the min
+         * @param max the max
+         * @param stdev the stdev
+         * @param percentiles the percentiles
+         * @param scores the scores
+         * @param secondary the secondary
+         */
+        Point(String label, int runId, long timestamp, String unit, long n, double mean, double error, double min,
+                double max, double stdev, double[] percentiles, double[] scores, Map<String, Double> secondary) {
+            this.label = label;
+            this.runId = runId;
+            this.timestamp = timestamp;
+            this.unit = unit;
+            this.n = n;
+            this.mean = mean;
+            this.error = error;
+            this.min = min;
+            this.max = max;
+            this.stdev = stdev;
+            this.percentiles = percentiles;
+            this.scores = scores;
+            this.secondary = secondary;
+        }
+
+        /**
+         * Write the point of a result.
+         *
+         * @param out the out
+         * @param runId the run id
+         * @param timestamp the timestamp
+         * @param result the result
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        static void write(DataOutputStream out, int runId, long timestamp, RunResult result) throws IOException {
+            Result primary = result.getPrimaryResult();
+            Statistics stats = primary.getStatistics();
+            out.writeByte(VERSION);
+            out.writeInt(runId);
+            out.writeLong(timestamp);
+            out.writeUTF(primary.getScoreUnit());
+            out.writeLong(stats.getN());
+            out.writeDouble(primary.getScore());
+            out.writeDouble(primary.getScoreError());
+            out.writeDouble(stats.getMin());
+            out.writeDouble(stats.getMax());
+            out.writeDouble(stats.getStandardDeviation());
+            out.writeDouble(stats.getPercentile(50));
+            out.writeDouble(stats.getPercentile(90));
+            out.writeDouble(stats.getPercentile(99));
+            out.writeDouble(stats.getPercentile(99.9));
+
+            double[] scores = BaselineGate.iterationScores(result);
+            out.writeInt(scores.length);
+            for (double score : scores) {
+                out.writeDouble(score);
+            }
+
+            Map<String, Result> secondary = result.getSecondaryResults();
+            out.writeInt(secondary.size());
+            for (Map.Entry<String, Result> e : secondary.entrySet()) {
+                out.writeUTF(e.getKey() + " (" + e.getValue().getScoreUnit() + ")");
+                out.writeDouble(e.getValue().getScore());
+            }
+            out.flush();
+        }
+
+        /**
+         * Read.
+         *
+         * @param in the in
+         * @param label the label
+         * @return the point
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        static Point read(RandomAccessFile in, String label) throws IOException {
+            checkVersion(in.readByte());
+            int runId = in.readInt();
+            long timestamp = in.readLong();
+            String unit = in.readUTF();
+            long n = in.readLong();
+            double mean = in.readDouble();
+            double error = in.readDouble();
+            double min = in.readDouble();
+            double max = in.readDouble();
+            double stdev = in.readDouble();
+            double[] percentiles = new double[4];
+            for (int i = 0; i < percentiles.length; i++) {
+                percentiles[i] = in.readDouble();
+            }
+            double[] scores = new double[in.readInt()];
+            for (int i = 0; i < scores.length; i++) {
+                scores[i] = in.readDouble();
+            }
+            int count = in.readInt();
+            Map<String, Double> secondary = new LinkedHashMap<String, Double>();
+            for (int i = 0; i < count; i++) {
+                secondary.put(in.readUTF(), in.readDouble());
+            }
+            return new Point(label, runId, timestamp, unit, n, mean, error, min, max, stdev, percentiles, scores,
+                    secondary);
+        }
+
+        /**
+         * Gets the label.
+         *
+         * @return the label
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Gets the run id.
+         *
+         * @return the run id
+         */
+        public int getRunId() {
+            return runId;
+        }
+
+        /**
+         * Gets the timestamp.
+         *
+         * @return the timestamp
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Gets the unit.
+         *
+         * @return the unit
+         */
+        public String getUnit() {
+            return unit;
+        }
+
+        /**
+         * Gets the sample count.
+         *
+         * @return the n
+         */
+        public long getN() {
+            return n;
+        }
+
+        /**
+         * Gets the mean.
+         *
+         * @return the mean
+         */
+        public double getMean() {
+            return mean;
+        }
+
+        /**
+         * Gets the error.
+         *
+         * @return the error
+         */
+        public double getError() {
+            return error;
+        }
+
+        /**
+         * Gets the min.
+         *
+         * @return the min
+         */
+        public double getMin() {
+            return min;
+        }
+
+        /**
+         * Gets the max.
+         *
+         * @return the max
+         */
+        public double getMax() {
+            return max;
+        }
+
+        /**
+         * Gets the stdev.
+         *
+         * @return the stdev
+         */
+        public double getStdev() {
+            return stdev;
+        }
+
+        /**
+         * Gets the percentiles 50, 90, 99 and 99.9.
+         *
+         * @return the percentiles
+         */
+        public double[] getPercentiles() {
+            return percentiles;
+        }
+
+        /**
+         * Gets the measured iteration scores.
+         *
+         * @return the scores
+         */
+        public double[] getScores() {
+            return scores;
+        }
+
+        /**
+         * Gets the secondary scores.
+         *
+         * @return the secondary scores, by label and unit
+         */
+        public Map<String, Double> getSecondary() {
+            return secondary;
+        }
+    }
+
+    /**
+     * Check version.
+     *
+     * @param version the version
+     * @throws IOException if the record was written by a newer layout
+     */
+    private static void checkVersion(byte version) throws IOException {
+        if (version != VERSION) {
+            throw new IOException("Unknown history record version " + version);
+        }
+    }
+}
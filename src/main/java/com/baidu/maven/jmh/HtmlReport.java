@@ -0,0 +1,213 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.BenchmarkResult;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.ExBenchmarkParams;
+
+/**
+ * Writes the results of a run as a single HTML page without external assets: a table of scores with error bars,
+ * iteration scores per fork and secondary results of each benchmark, line charts of param sweeps, and the change
+ * against the baseline when there is one. The results are embedded as JSON and rendered by the page in chunks; charts
+ * are only drawn once they are opened or scrolled into view, so the page stays fast with thousands of benchmarks.
+ */
+public class HtmlReport {
+
+    /** The Constant TEMPLATE, the page with a placeholder for the data. */
+    private static final String TEMPLATE = "report.html";
+
+    /** The Constant DATA, the placeholder. */
+    private static final String DATA = "/*DATA*/null";
+
+    /** The title. */
+    private final String title;
+
+    /**
+     * Instantiates a new html report.
+     *
+     * @param title the title
+     */
+    public HtmlReport(String title) {
+        this.title = title;
+    }
+
+    /**
+     * Write the report.
+     *
+     * @param file the file
+     * @param results the results
+     * @param gate the baseline gate after its comparison with the results, null without baseline
+     * @param baselineName the name of the baseline, null without baseline
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void write(File file, Collection<RunResult> results, BaselineGate gate, String baselineName)
+            throws IOException {
+        String template = template();
+        int at = template.indexOf(DATA);
+        if (at < 0) {
+            throw new IOException("Broken report template");
+        }
+
+        Map<String, BaselineGate.Change> changes = new HashMap<String, BaselineGate.Change>();
+        if (gate != null) {
+            for (BaselineGate.Change change : gate.getCompared()) {
+                changes.put(change.getLabel(), change);
+            }
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer w = new OutputStreamWriter(Files.newOutputStream(tmp.toPath()), StandardCharsets.UTF_8)) {
+            w.write(template, 0, at);
+            w.write("{\"title\":");
+            w.write(JsonWriter.quote(title));
+            w.write(",\"generated\":");
+            w.write(JsonWriter.quote(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date())));
+            w.write(",\"jvm\":");
+            w.write(JsonWriter.quote(jvm(results)));
+            w.write(",\"baseline\":");
+            w.write(JsonWriter.quote(baselineName));
+            w.write(",\"benchmarks\":[");
+            boolean first = true;
+            for (RunResult result : results) {
+                if (!first) {
+                    w.write(",\n");
+                }
+                first = false;
+                BaselineGate.Change change = changes.get(ExBenchmarkParams.label(result.getParams()));
+                writeBenchmark(w, result, change, change != null && gate.isSignificant(change));
+            }
+            w.write("]}");
+            w.write(template, at + DATA.length(), template.length() - at - DATA.length());
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Write one benchmark as JSON: name, mode, params, unit, score, error, sample count, iteration scores by fork,
+     * secondary results and the baseline change.
+     *
+     * @param w the w
+     * @param result the result
+     * @param change the baseline change, may be null
+     * @param significant if the change counts
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static void writeBenchmark(Writer w, RunResult result, BaselineGate.Change change, boolean significant)
+            throws IOException {
+        BenchmarkParams params = result.getParams();
+        Result primary = result.getPrimaryResult();
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"b\":").append(JsonWriter.quote(params.getBenchmark()));
+        sb.append(",\"m\":").append(JsonWriter.quote(params.getMode().shortLabel()));
+        sb.append(",\"p\":{");
+        boolean first = true;
+        for (String key : params.getParamsKeys()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append(JsonWriter.quote(key)).append(':').append(JsonWriter.quote(params.getParam(key)));
+        }
+        sb.append("},\"u\":").append(JsonWriter.quote(primary.getScoreUnit()));
+        sb.append(",\"s\":").append(JsonWriter.number(primary.getScore()));
+        sb.append(",\"e\":").append(JsonWriter.number(primary.getScoreError()));
+        sb.append(",\"n\":").append(primary.getSampleCount());
+
+        sb.append(",\"f\":[");
+        first = true;
+        for (BenchmarkResult br : result.getBenchmarkResults()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append('[');
+            boolean firstIteration = true;
+            for (IterationResult ir : br.getIterationResults()) {
+                if (!firstIteration) {
+                    sb.append(',');
+                }
+                firstIteration = false;
+                sb.append(JsonWriter.number(ir.getPrimaryResult().getScore()));
+            }
+            sb.append(']');
+        }
+
+        sb.append("],\"x\":{");
+        first = true;
+        for (Map.Entry<String, Result> e : result.getSecondaryResults().entrySet()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            Result r = e.getValue();
+            sb.append(JsonWriter.quote(e.getKey())).append(":[").append(JsonWriter.number(r.getScore())).append(',')
+                    .append(JsonWriter.number(r.getScoreError())).append(',').append(JsonWriter.quote(r.getScoreUnit()))
+                    .append(']');
+        }
+        sb.append('}');
+
+        if (change != null) {
+            sb.append(",\"d\":[").append(JsonWriter.number(change.getBaseline())).append(',')
+                    .append(JsonWriter.number(change.getCurrent())).append(',')
+                    .append(JsonWriter.number(change.getChange())).append(',').append(JsonWriter.number(change.getP()))
+                    .append(',').append(significant ? 1 : 0).append(']');
+        }
+        sb.append('}');
+        w.write(sb.toString());
+    }
+
+    /**
+     * The JVM of the run.
+     *
+     * @param results the results
+     * @return the jvm
+     */
+    private static String jvm(Collection<RunResult> results) {
+        for (RunResult result : results) {
+            BenchmarkParams params = result.getParams();
+            return params.getVmName() + " " + params.getJdkVersion() + " (" + params.getVmVersion() + ")";
+        }
+        return "";
+    }
+
+    /**
+     * Load the template.
+     *
+     * @return the string
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static String template() throws IOException {
+        try (InputStream in = HtmlReport.class.getResourceAsStream(TEMPLATE)) {
+            if (in == null) {
+                throw new IOException("Missing report template " + TEMPLATE);
+            }
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                bos.write(buf, 0, n);
+            }
+            return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -20,14 +20,30 @@ package com.baidu.maven.jmh;
  */
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.zip.ZipFile;
 
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -37,20 +53,30 @@ import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.results.RunResult;
 import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.AdaptiveStopRule;
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.codehaus.plexus.util.FileUtils;
 import org.openjdk.jmh.runner.BenchmarkList;
+import org.openjdk.jmh.runner.BenchmarkListEntry;
+import org.openjdk.jmh.runner.BenchmarkShard;
+import org.openjdk.jmh.runner.CheckpointJournal;
 import org.openjdk.jmh.runner.CompilerHints;
 import org.openjdk.jmh.runner.ExBenchmarkList;
+import org.openjdk.jmh.runner.ExCompilerHints;
 import org.openjdk.jmh.runner.ExtendedRunner;
+import org.openjdk.jmh.runner.JvmPropertiesCache;
+import org.openjdk.jmh.runner.ResultCache;
 import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.SteadyStateWarmup;
+import org.openjdk.jmh.runner.TimeBudget;
 import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
 import org.openjdk.jmh.runner.options.Options;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
 import org.openjdk.jmh.runner.options.TimeValue;
 import org.openjdk.jmh.runner.options.WarmupMode;
 
-import edu.emory.mathcs.backport.java.util.Collections;
-
 /**
  * Executes {@link JprotobufPreCompileMain} main method to invoke JProtobuf pre comple action.
  *
@@ -66,6 +92,9 @@ public class JMHBeachmarkMojo extends AbstractExecMojo {
     /** The Constant SKIP_BENCHMARK. -DskipBenchmark */
     private static final String SKIP_BENCHMARK = "skipBenchmark";
 
+    /** The Constant GC_PROFILER, which measures the allocation per operation. */
+    private static final String GC_PROFILER = "gc";
+
     /** The Constant timeUnitMap. */
     private static final Map<String, TimeUnit> timeUnitMap;
 
@@ -188,6 +217,258 @@ public class JMHBeachmarkMojo extends AbstractExecMojo {
     @Parameter(property = "jmh.warmUpBenchmarkIncludes")
     private String warmUpBenchmarkIncludes;
 
+    /** How many forked benchmarks may run at once, each pinned to its own share of the CPUs. */
+    @Parameter(property = "jmh.parallelForks", defaultValue = "1")
+    private int parallelForks = 1;
+
+    /** Start forked VMs from a class data sharing archive trained once per classpath (JDK 11+). */
+    @Parameter(property = "jmh.sharedArchive", defaultValue = "false")
+    private boolean sharedArchive;
+
+    /** Boot the next fork while the previous one tears down and its profiler results are processed. */
+    @Parameter(property = "jmh.pipelinedForks", defaultValue = "false")
+    private boolean pipelinedForks;
+
+    /**
+     * Adaptive mode target, the relative half-width of the 99% confidence interval in percent. Forks are added to a
+     * benchmark until its interval is that narrow. 0 disables adaptive mode.
+     */
+    @Parameter(property = "jmh.adaptiveTarget", defaultValue = "0")
+    private double adaptiveTarget;
+
+    /** Adaptive mode, minimum measurement iterations over all forks of a benchmark. */
+    @Parameter(property = "jmh.adaptiveMinIterations", defaultValue = "0")
+    private int adaptiveMinIterations;
+
+    /** Adaptive mode, maximum measurement iterations over all forks of a benchmark. */
+    @Parameter(property = "jmh.adaptiveMaxIterations", defaultValue = "100")
+    private int adaptiveMaxIterations = 100;
+
+    /**
+     * Detect steady state in warmup scores and size each benchmark's warmup from what it needed before. warmupIterations
+     * becomes the maximum.
+     */
+    @Parameter(property = "jmh.steadyStateWarmup", defaultValue = "false")
+    private boolean steadyStateWarmup;
+
+    /** Steady state warmup, number of trailing iterations tested for a trend. */
+    @Parameter(property = "jmh.steadyStateWindow", defaultValue = "5")
+    private int steadyStateWindow = 5;
+
+    /** Steady state warmup, max score drift across the window in percent. */
+    @Parameter(property = "jmh.steadyStateThreshold", defaultValue = "2")
+    private double steadyStateThreshold = 2;
+
+    /**
+     * Wall-clock budget for the whole run, e.g. 45min. Warmup time, measurement time and forks are cut down as far as
+     * needed to finish in time. Empty runs as configured.
+     */
+    @Parameter(property = "jmh.timeBudget")
+    private String timeBudget;
+
+    /** Time budget, regex of benchmarks which get a larger share of the budget. */
+    @Parameter(property = "jmh.timeBudgetPriority")
+    private String timeBudgetPriority;
+
+    /** Skip the benchmarks an interrupted earlier run has completed and merge their results into the result file. */
+    @Parameter(property = "jmh.resume", defaultValue = "false")
+    private boolean resume;
+
+    /**
+     * Run forks inside the Maven VM, each in a fresh class loader on its own thread. Much faster than forking and more
+     * trustworthy than forks=0, for quick local iteration.
+     */
+    @Parameter(property = "jmh.isolated", defaultValue = "false")
+    private boolean isolated;
+
+    /** An earlier JMH JSON result to compare with, the build fails on significant regressions. */
+    @Parameter(property = "jmh.baseline")
+    private File baseline;
+
+    /** Baseline comparison, test on the raw iteration scores: welch or mannwhitney. */
+    @Parameter(property = "jmh.baselineTest", defaultValue = "welch")
+    private String baselineTest = BaselineGate.WELCH;
+
+    /** Baseline comparison, significance level of the test. */
+    @Parameter(property = "jmh.baselineSignificance", defaultValue = "0.01")
+    private double baselineSignificance = 0.01;
+
+    /** Baseline comparison, minimum change of the mean score in percent that counts as a regression. */
+    @Parameter(property = "jmh.baselineMinEffect", defaultValue = "5")
+    private double baselineMinEffect = 5;
+
+    /** Index of the shard this machine runs, from 0 to shardCount - 1. */
+    @Parameter(property = "jmh.shardIndex", defaultValue = "0")
+    private int shardIndex;
+
+    /**
+     * Number of machines the suite is split across. Each writes a partial to target/benchmark/shards, combine them with
+     * the merge goal. 1 runs the whole suite.
+     */
+    @Parameter(property = "jmh.shardCount", defaultValue = "1")
+    private int shardCount = 1;
+
+    /** Append the results to the benchmark history, with the git commit and branch, host and JVM. */
+    @Parameter(property = "jmh.history", defaultValue = "false")
+    private boolean history;
+
+    /** Write target/benchmark/index.html, a report of the results that needs nothing but a browser. */
+    @Parameter(property = "jmh.htmlReport", defaultValue = "true")
+    private boolean htmlReport = true;
+
+    /**
+     * Write Surefire XML reports with a test case per benchmark, failed when it violates a budget or regressed against
+     * the baseline, so CI shows them next to the unit tests.
+     */
+    @Parameter(property = "jmh.junitReport", defaultValue = "false")
+    private boolean junitReport;
+
+    /** The directory of the Surefire XML reports. */
+    @Parameter(property = "jmh.junitReportDirectory", defaultValue = "${project.build.directory}/surefire-reports")
+    private File junitReportDirectory;
+
+    /**
+     * Append a JSON line per finished iteration, fork and benchmark to target/benchmark/&lt;result&gt;.jsonl while the
+     * run goes, to follow long runs live.
+     */
+    @Parameter(property = "jmh.streamResults", defaultValue = "false")
+    private boolean streamResults;
+
+    /**
+     * Percentiles reported for sample time benchmarks, comma separated, in addition to the ones JMH reports itself.
+     * They are computed from the samples of all forks, e.g. 99.999 for the tail of long runs.
+     */
+    @Parameter(property = "jmh.percentiles", defaultValue = "50,90,99,99.9,99.99,99.999")
+    private String percentiles;
+
+    /**
+     * JMH profilers to run with every benchmark, comma separated, e.g. "gc,stack". The gc profiler is added when there
+     * are allocation budgets.
+     */
+    @Parameter(property = "jmh.profilers")
+    private String profilers;
+
+    /**
+     * Allocation budgets in bytes per operation, for the benchmarks whose label matches a regular expression. The
+     * build fails when a benchmark allocates more, as measured by the gc profiler. Budgets can also be set with the
+     * {@link BytesPerOp} annotation on a benchmark method or class; the first matching budget of the POM wins.
+     */
+    @Parameter
+    private List<AllocationBudget> allocationBudgets;
+
+    /**
+     * Absolute service levels: minimum score, maximum score or maximum percentile of the benchmarks whose name matches
+     * a regular expression, optionally only with given params. Limits are in the unit of each level, whatever time
+     * unit the run uses. The build fails when a benchmark violates one.
+     */
+    @Parameter
+    private List<Sla> slas;
+
+    /** The profilers of each run, with the ones the gates need. */
+    private Set<String> profilerNames = new LinkedHashSet<String>();
+
+    /**
+     * More class directories and jars whose benchmarks run in the same session and result file, e.g. the modules of
+     * the reactor: a file set with includes adds the directories and jars under its directory that match them, one
+     * without includes adds its directory. Their BenchmarkList and CompilerHints are merged with the ones of this
+     * project; a benchmark found in several places runs once.
+     */
+    @Parameter
+    private List<Fileset> benchmarkSources;
+
+    /** Also run the benchmarks in the dependency jars of the project, in the same session. */
+    @Parameter(property = "jmh.dependencyBenchmarks", defaultValue = "false")
+    private boolean dependencyBenchmarks;
+
+    /**
+     * Only run the benchmarks the changes since this git ref can affect, e.g. origin/master on a merge request: the
+     * files changed since the merge base, committed or not, are mapped to classes, and a benchmark runs when its
+     * generated class reaches one of them in the constant pool references of the class directories. The reason for
+     * every selected benchmark is written to target/benchmark/impact.txt.
+     */
+    @Parameter(property = "jmh.changedSince")
+    private String changedSince;
+
+    /** The changed files that affect no benchmark, a regex found in the path, e.g. documentation. */
+    @Parameter(property = "jmh.changedIgnore", defaultValue = "(?i)\\.(md|adoc|rst)$")
+    private String changedIgnore;
+
+    /**
+     * Reuse earlier results of benchmarks whose inputs did not change instead of forking. Every measurement is
+     * stored under a fingerprint of the bytecode its benchmark reaches, the resources of the class directories, the
+     * jars of the class path, its params, JVM, JVM version and arguments, the profilers and the host. Reused results
+     * carry a "·cached" secondary result with their age in days.
+     */
+    @Parameter(property = "jmh.cache", defaultValue = "false")
+    private boolean cache;
+
+    /** The result cache directory, shared by all projects and checkouts since the entries are content-addressed. */
+    @Parameter(property = "jmh.cacheDirectory", defaultValue = "${user.home}/.jmh-cache")
+    private File cacheDirectory;
+
+    /** The code fingerprints of the benchmarks by name, null without cache. */
+    private Map<String, String> codeFingerprints;
+
+    /** The class graph of the class directories, read once. */
+    private ChangeImpact classGraph;
+
+    /**
+     * Only run the benchmarks whose {@link Tag}s match this expression, e.g. "hot-path &amp; !slow": tags joined by
+     * "&amp;", "|" and "!", with parentheses.
+     */
+    @Parameter(property = "jmh.tags")
+    private String tags;
+
+    /**
+     * Run settings by tag, e.g. short ones for the hot-path tier of a merge request build: forks, warmupForks,
+     * warmupIterations, measurementIterations, warmupTime, measurementTime and mode. The first policy whose tag a
+     * benchmark has replaces the settings it gives for that benchmark.
+     */
+    @Parameter
+    private List<TagPolicy> tagPolicies;
+
+    /** The tag groups, null without tags and policies. */
+    private TagGroups tagGroups;
+
+    /** The excludes of the benchmarks the change impact or the tag expression leave out. */
+    private List<String> selectionExcludes = new ArrayList<String>();
+
+    /** The benchmark list, parsed once for all runs. */
+    private ExBenchmarkList benchmarks;
+
+    /** The parsed percentiles. */
+    private double[] percentileValues = new double[0];
+
+    /**
+     * Write the samples of each sample time benchmark as an HdrHistogram log, one interval per fork, to
+     * target/benchmark/&lt;result&gt;_hlog, for HistogramLogAnalyzer and the other HdrHistogram tools.
+     */
+    @Parameter(property = "jmh.histogramLog", defaultValue = "false")
+    private boolean histogramLog;
+
+    /**
+     * Write target/benchmark/metrics.txt in the OpenMetrics text format: score, error, percentiles and secondary
+     * results of every benchmark, labelled with benchmark, params, mode, JVM and commit.
+     */
+    @Parameter(property = "jmh.openMetrics", defaultValue = "false")
+    private boolean openMetrics;
+
+    /**
+     * POST the OpenMetrics file to this Pushgateway compatible URL, e.g. http://pushgateway:9091/metrics/job/jmh. A
+     * push that fails is logged, it never fails the run.
+     */
+    @Parameter(property = "jmh.pushGateway")
+    private String pushGateway;
+
+    /** Connect and read timeout of the push in ms. */
+    @Parameter(property = "jmh.pushTimeout", defaultValue = "5000")
+    private int pushTimeout = 5000;
+
+    /** The benchmark history directory, outside of target and of the working tree. */
+    @Parameter(property = "jmh.historyDirectory",
+            defaultValue = "${user.home}/.jmh-history/${project.groupId}/${project.artifactId}")
+    private File historyDirectory;
+
     /**
      * To time unit.
      *
@@ -315,23 +596,772 @@ public class JMHBeachmarkMojo extends AbstractExecMojo {
             classPaths.add(artifact.getFile().getAbsolutePath());
         }
 
+        if ((benchmarkSources != null && !benchmarkSources.isEmpty()) || dependencyBenchmarks) {
+            hintPath = aggregateBenchmarks(theClasspathFiles, artifacts, classPaths, benchMarkResultPath);
+        }
+
+        if (!StringUtils.isEmpty(timeBudget)) {
+            try {
+                TimeValue.valueOf(timeBudget);
+            } catch (IllegalArgumentException e) {
+                throw new MojoExecutionException("error parameter value of 'timeBudget': " + timeBudget, e);
+            }
+        }
+
+        percentileValues = parsePercentiles(percentiles);
+
+        if (adaptiveTarget > 0) {
+            // fail before anything runs, not with the first of several runs
+            adaptiveStopRule();
+        }
+
+        if (shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount) {
+            throw new MojoExecutionException("error parameter value of 'shardIndex': " + shardIndex
+                    + ", must be between 0 and shardCount - 1 (" + (shardCount - 1) + ")");
+        }
+
+        AllocationGate allocationGate;
+        try {
+            allocationGate = new AllocationGate(allocationBudgets,
+                    annotatedBudgets(benchmarks(benchmarkList), classPaths));
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+        if (!StringUtils.isEmpty(profilers)) {
+            for (String name : StringUtils.split(profilers, ",")) {
+                profilerNames.add(name.trim());
+            }
+        }
+        if (allocationGate.hasBudgets()) {
+            profilerNames.add(GC_PROFILER);
+        }
+
+        SlaGate slaGate;
+        try {
+            slaGate = new SlaGate(slas);
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+
+        BaselineGate baselineGate = null;
+        if (baseline != null) {
+            try {
+                baselineGate = new BaselineGate(baseline, baselineTest, baselineSignificance, baselineMinEffect / 100);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Can not read the baseline " + baseline + ": " + e.getMessage(), e);
+            } catch (IllegalArgumentException e) {
+                throw new MojoExecutionException(e.getMessage(), e);
+            }
+        }
+
+        if (cache) {
+            codeFingerprints = codeFingerprints(benchmarks(benchmarkList), theClasspathFiles, classPaths);
+        }
+
+        if (!StringUtils.isEmpty(changedSince)
+                && !selectChanged(benchmarks(benchmarkList), theClasspathFiles, classPaths, benchMarkResultPath)) {
+            return;
+        }
+
+        if ((!StringUtils.isEmpty(tags) || (tagPolicies != null && !tagPolicies.isEmpty()))
+                && !selectTags(benchmarks(benchmarkList), classPaths)) {
+            return;
+        }
+
+        List<RunResult> results = new ArrayList<RunResult>();
         Set<String> benchmarkIncludeSet = parseBenchmarkIncludes(benchmarkIncludes);
         String[] includes = null;
         if (!benchmarkIncludeSet.isEmpty()) {
             includes = benchmarkIncludeSet.toArray(new String[benchmarkIncludeSet.size()]);
-            
-            if (multiResultFileOutput) {
-                for (String include : includes) {
-                    String resultFilePath = benchMarkResultPath + resultFile + "_" + include;
-                    String[] eachInclude = new String[] {include};
-                    doBenchmarkRun(benchmarkList, hintPath, resultFilePath, classPaths, eachInclude);
+        }
+
+        if (includes != null && multiResultFileOutput) {
+            if (!StringUtils.isEmpty(timeBudget)) {
+                // every result file is a run of its own, give each an equal part of the budget
+                long ms = TimeValue.valueOf(timeBudget).convertTo(TimeUnit.MILLISECONDS) / includes.length;
+                timeBudget = ms + "ms";
+            }
+            for (String include : includes) {
+                String resultFilePath = benchMarkResultPath + resultFile + "_" + include;
+                String[] eachInclude = new String[] {include};
+                results.addAll(doBenchmarkRun(benchmarkList, hintPath, benchMarkResultPath, resultFilePath,
+                        classPaths, eachInclude));
+            }
+        } else {
+            String resultFilePath = benchMarkResultPath + resultFile;
+            results.addAll(
+                    doBenchmarkRun(benchmarkList, hintPath, benchMarkResultPath, resultFilePath, classPaths, includes));
+        }
+
+        if (codeFingerprints != null) {
+            int cached = 0;
+            for (RunResult result : results) {
+                if (ResultCache.isCached(result)) {
+                    cached++;
+                }
+            }
+            getLog().info(cached + " of " + results.size() + " benchmark results reused from the result cache");
+        }
+
+        if (history && !results.isEmpty()) {
+            appendHistory(results);
+        }
+
+        List<BaselineGate.Change> regressions = null;
+        if (baselineGate != null) {
+            regressions = baselineGate.compare(results);
+        }
+
+        if (htmlReport && !results.isEmpty()) {
+            File report = new File(benchMarkResultPath, "index.html");
+            try {
+                new HtmlReport("JMH report of " + project.getArtifactId()).write(report, results, baselineGate,
+                        baseline != null ? baseline.getName() : null);
+                getLog().info("Benchmark report: " + report);
+            } catch (IOException e) {
+                getLog().warn("Can not write the benchmark report " + report + ": " + e.getMessage(), e);
+            }
+        }
+
+        if ((openMetrics || !StringUtils.isEmpty(pushGateway)) && !results.isEmpty()) {
+            exportMetrics(new File(benchMarkResultPath, "metrics.txt"), results);
+        }
+
+        List<AllocationGate.Violation> allocations = allocationGate.check(results);
+        List<SlaGate.Violation> slaViolations = slaGate.check(results);
+
+        if (junitReport && !results.isEmpty()) {
+            JUnitReport report = new JUnitReport(junitReportDirectory);
+            for (AllocationGate.Violation v : allocations) {
+                report.addViolation(v.getLabel(), String.format("Allocated %.1f B/op in fork %d, budget %d B/op",
+                        v.getAllocated(), v.getFork(), v.getBudget()));
+            }
+            for (SlaGate.Violation v : slaViolations) {
+                report.addViolation(v.getLabel(), v.getMessage());
+            }
+            if (regressions != null) {
+                for (BaselineGate.Change change : regressions) {
+                    report.addViolation(change.getLabel(), String.format("Regressed %.2f%% against the baseline %s "
+                            + "(%.3f -> %.3f %s, p=%.2e)", change.getChange() * 100, baseline.getName(),
+                            change.getBaseline(), change.getCurrent(), change.getUnit(), change.getP()));
+                }
+            }
+            try {
+                int failed = report.write(results);
+                getLog().info("Surefire reports of " + results.size() + " benchmarks, " + failed + " failed: "
+                        + junitReportDirectory);
+            } catch (IOException e) {
+                getLog().warn("Can not write the Surefire reports to " + junitReportDirectory + ": " + e.getMessage(),
+                        e);
+            }
+        }
+
+        if (results.isEmpty() && shardCount == 1
+                && (slaGate.hasSlas() || allocationGate.hasBudgets() || baselineGate != null)) {
+            // a gate over no results would pass, though nothing was checked
+            throw new MojoFailureException("No benchmark results to check against the configured SLAs, allocation "
+                    + "budgets or baseline");
+        }
+        if (slaGate.hasSlas()) {
+            checkSlas(slaGate, slaViolations);
+        }
+        if (allocationGate.hasBudgets()) {
+            checkAllocations(allocationGate, allocations);
+        }
+        if (baselineGate != null) {
+            checkBaseline(baselineGate, regressions);
+        }
+    }
+
+    /**
+     * Select the benchmarks the changes since {@link #changedSince} can affect, and exclude the others from the run.
+     *
+     * @param list the benchmark list
+     * @param projectClasspath the class directories of the project
+     * @param classPaths the class paths of the benchmarks
+     * @param benchMarkResultPath the benchmark output directory
+     * @return false, if no benchmark is affected and nothing has to run
+     * @throws MojoExecutionException if the ref is unknown or the classes can not be read
+     */
+    private boolean selectChanged(ExBenchmarkList list, List<File> projectClasspath, Set<String> classPaths,
+            String benchMarkResultPath) throws MojoExecutionException {
+        Pattern ignore;
+        try {
+            ignore = StringUtils.isEmpty(changedIgnore) ? null : Pattern.compile(changedIgnore);
+        } catch (PatternSyntaxException e) {
+            throw new MojoExecutionException("error parameter value of 'changedIgnore': " + changedIgnore, e);
+        }
+        File dir = project.getBasedir();
+        String base = Git.run(dir, "merge-base", changedSince, "HEAD");
+        String diff = base != null ? Git.run(dir, "diff", "--name-only", base) : null;
+        String untracked = Git.run(dir, "ls-files", "--others", "--exclude-standard", "--full-name");
+        if (diff == null || untracked == null) {
+            throw new MojoExecutionException("error parameter value of 'changedSince': " + changedSince
+                    + ", not a git ref of " + dir);
+        }
+        Set<String> changed = new TreeSet<String>();
+        for (String file : StringUtils.split(diff + "\n" + untracked, "\n")) {
+            if (!StringUtils.isEmpty(file.trim())) {
+                changed.add(file.trim());
+            }
+        }
+
+        ChangeImpact impact = classGraph(projectClasspath, classPaths);
+        ChangeImpact.Selection selection = impact.select(list.entries(), changed, ignore);
+
+        File report = new File(benchMarkResultPath, "impact.txt");
+        String title = "Changes since " + changedSince + " (merge base " + base + "): " + changed.size()
+                + " files, " + selection.getChangedClasses() + " of " + impact.getClassCount() + " classes";
+        try {
+            selection.write(report, title);
+        } catch (IOException e) {
+            getLog().warn("Can not write the change impact report " + report + ": " + e.getMessage(), e);
+        }
+        getLog().info(title + ", " + selection.getSelected().size() + " of "
+                + (selection.getSelected().size() + selection.getUnaffected().size())
+                + " benchmarks affected" + (selection.isAll() ? " (all)" : "") + ", see " + report);
+        if (selection.getSelected().isEmpty()) {
+            getLog().info("No benchmark is affected by the changes since " + changedSince + ", nothing to run");
+            return false;
+        }
+        for (String benchmark : selection.getUnaffected()) {
+            selectionExcludes.add(exactly(benchmark));
+        }
+        return true;
+    }
+
+    /**
+     * Read the tags of the benchmarks, exclude the ones the tag expression does not select from the run and check
+     * the tag policies.
+     *
+     * @param list the benchmark list
+     * @param classPaths the class paths of the benchmarks
+     * @return false, if no benchmark is selected and nothing has to run
+     * @throws MojoExecutionException if the expression or a policy is invalid
+     */
+    private boolean selectTags(ExBenchmarkList list, Set<String> classPaths) throws MojoExecutionException {
+        List<BenchmarkListEntry> entries = list.entries();
+        Map<String, Set<String>> annotated;
+        try (URLClassLoader loader = new URLClassLoader(toUrls(classPaths), getClass().getClassLoader())) {
+            annotated = TagGroups.annotatedTags(entries, loader);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Can not read the tags of the benchmarks: " + e.getMessage(), e);
+        }
+        try {
+            tagGroups = new TagGroups(tags, tagPolicies, annotated);
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException("error parameter value of 'tags': " + e.getMessage(), e);
+        }
+        if (tagPolicies != null) {
+            for (TagPolicy policy : tagPolicies) {
+                try {
+                    if (!StringUtils.isEmpty(policy.getMode())) {
+                        Mode.deepValueOf(policy.getMode());
+                    }
+                    if (!StringUtils.isEmpty(policy.getWarmupTime())) {
+                        TimeValue.valueOf(policy.getWarmupTime());
+                    }
+                    if (!StringUtils.isEmpty(policy.getMeasurementTime())) {
+                        TimeValue.valueOf(policy.getMeasurementTime());
+                    }
+                } catch (RuntimeException e) {
+                    // an unknown mode or a malformed time
+                    throw new MojoExecutionException("error parameter value of 'tagPolicies': tag " + policy.getTag()
+                            + ", " + e.getMessage(), e);
                 }
-                return;
             }
         }
 
-        String resultFilePath = benchMarkResultPath + resultFile;
-        doBenchmarkRun(benchmarkList, hintPath, resultFilePath, classPaths, includes);
+        Set<String> names = new TreeSet<String>();
+        for (BenchmarkListEntry entry : entries) {
+            names.add(entry.getUsername());
+        }
+        int selected = 0;
+        Map<TagPolicy, Integer> counts = new LinkedHashMap<TagPolicy, Integer>();
+        for (String name : names) {
+            if (!tagGroups.isSelected(name)) {
+                selectionExcludes.add(exactly(name));
+                continue;
+            }
+            selected++;
+            TagPolicy policy = tagGroups.policy(name);
+            if (policy != null) {
+                counts.put(policy, counts.containsKey(policy) ? counts.get(policy) + 1 : 1);
+            }
+        }
+        if (!StringUtils.isEmpty(tags)) {
+            getLog().info("Tags '" + tags + "': " + selected + " of " + names.size() + " benchmarks selected, "
+                    + annotated.size() + " tagged");
+        }
+        for (Map.Entry<TagPolicy, Integer> e : counts.entrySet()) {
+            getLog().info("Tag policy " + e.getKey() + ": " + e.getValue() + " benchmarks");
+        }
+        if (selected == 0) {
+            getLog().info("No benchmark has tags matching '" + tags + "', nothing to run");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The options of the benchmarks with a tag policy: the settings of the policy, the ones of the run as parent.
+     *
+     * @param parent the options of the run
+     * @param names the benchmark names
+     * @return the options by benchmark name
+     */
+    private Map<String, Options> policyOptions(Options parent, Collection<String> names) {
+        Map<String, Options> ret = new HashMap<String, Options>();
+        if (tagGroups == null || !tagGroups.hasPolicies()) {
+            return ret;
+        }
+        Map<TagPolicy, Options> byPolicy = new HashMap<TagPolicy, Options>();
+        for (String name : names) {
+            TagPolicy policy = tagGroups.policy(name);
+            if (policy == null) {
+                continue;
+            }
+            Options options = byPolicy.get(policy);
+            if (options == null) {
+                ChainedOptionsBuilder builder = new OptionsBuilder().parent(parent);
+                if (policy.getForks() != null) {
+                    builder.forks(policy.getForks());
+                }
+                if (policy.getWarmupForks() != null) {
+                    builder.warmupForks(policy.getWarmupForks());
+                }
+                if (policy.getWarmupIterations() != null) {
+                    builder.warmupIterations(policy.getWarmupIterations());
+                }
+                if (policy.getMeasurementIterations() != null) {
+                    builder.measurementIterations(policy.getMeasurementIterations());
+                }
+                if (!StringUtils.isEmpty(policy.getWarmupTime())) {
+                    builder.warmupTime(toTimeValue(policy.getWarmupTime()));
+                }
+                if (!StringUtils.isEmpty(policy.getMeasurementTime())) {
+                    builder.measurementTime(toTimeValue(policy.getMeasurementTime()));
+                }
+                if (!StringUtils.isEmpty(policy.getMode())) {
+                    builder.mode(toMode(policy.getMode()));
+                }
+                options = builder.build();
+                byPolicy.put(policy, options);
+            }
+            ret.put(name, options);
+        }
+        return ret;
+    }
+
+    /**
+     * The class graph of the class directories of the project and the benchmark sources.
+     *
+     * @param projectClasspath the class directories of the project
+     * @param classPaths the class paths of the benchmarks
+     * @return the graph
+     * @throws MojoExecutionException if the classes can not be read
+     */
+    private ChangeImpact classGraph(List<File> projectClasspath, Set<String> classPaths)
+            throws MojoExecutionException {
+        if (classGraph == null) {
+            Set<File> roots = new LinkedHashSet<File>(projectClasspath);
+            for (String path : classPaths) {
+                roots.add(new File(path));
+            }
+            try {
+                classGraph = ChangeImpact.read(roots);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Can not read the classes of " + roots + ": " + e.getMessage(), e);
+            }
+        }
+        return classGraph;
+    }
+
+    /**
+     * The code fingerprints of the benchmarks for the result cache: the fingerprint of the classes each reaches,
+     * combined with the hash of all jars of the class path.
+     *
+     * @param list the benchmark list
+     * @param projectClasspath the class directories of the project
+     * @param classPaths the class paths of the benchmarks
+     * @return the fingerprints by benchmark name
+     * @throws MojoExecutionException if the classes or jars can not be read
+     */
+    private Map<String, String> codeFingerprints(ExBenchmarkList list, List<File> projectClasspath,
+            Set<String> classPaths) throws MojoExecutionException {
+        StringBuilder jars = new StringBuilder();
+        for (String path : new TreeSet<String>(classPaths)) {
+            File file = new File(path);
+            if (!file.isFile()) {
+                continue;
+            }
+            try {
+                jars.append(file.getName()).append(' ').append(sha1(file)).append('\n');
+            } catch (IOException e) {
+                throw new MojoExecutionException("Can not read " + file + " for the result cache: " + e.getMessage(),
+                        e);
+            }
+        }
+        String jarHash = JvmPropertiesCache.sha1(jars.toString());
+
+        ChangeImpact graph = classGraph(projectClasspath, classPaths);
+        Map<String, String> ret = new HashMap<String, String>();
+        for (BenchmarkListEntry entry : list.entries()) {
+            String code = graph.fingerprint(entry);
+            if (code != null) {
+                ret.put(entry.getUsername(), JvmPropertiesCache.sha1(code + "\n" + jarHash));
+            }
+        }
+        getLog().info("Result cache " + cacheDirectory + ": fingerprinted " + ret.size() + " benchmarks, "
+                + graph.getClassCount() + " classes");
+        return ret;
+    }
+
+    /**
+     * Hex encoded SHA-1 of a file.
+     *
+     * @param file the file
+     * @return the hash
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static String sha1(File file) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buf = new byte[65536];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                md.update(buf, 0, n);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest()) {
+            sb.append(String.format("%02x", b & 0xFF));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A regex that only matches the whole benchmark name. Every char is escaped one by one rather than quoted, so
+     * the selector can index the name as literal.
+     *
+     * @param benchmark the benchmark name
+     * @return the regex
+     */
+    private static String exactly(String benchmark) {
+        StringBuilder sb = new StringBuilder("^");
+        for (int i = 0; i < benchmark.length(); i++) {
+            char c = benchmark.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.append('$').toString();
+    }
+
+    /**
+     * Read the {@link BytesPerOp} budgets of the benchmarks in the benchmark list.
+     *
+     * @param benchmarkList the benchmark list
+     * @param classPaths the class paths of the benchmarks
+     * @return the budgets by benchmark name, empty if the list can not be read
+     */
+    private Map<String, Long> annotatedBudgets(ExBenchmarkList list, Set<String> classPaths) {
+        List<BenchmarkListEntry> entries;
+        try {
+            entries = list.entries();
+        } catch (RuntimeException e) {
+            getLog().debug("No benchmark list to read allocation budget annotations from: " + e.getMessage());
+            return new HashMap<String, Long>();
+        }
+        try (URLClassLoader loader = new URLClassLoader(toUrls(classPaths), getClass().getClassLoader())) {
+            return AllocationGate.annotatedBudgets(entries, loader);
+        } catch (IOException e) {
+            getLog().warn("Can not read allocation budget annotations: " + e.getMessage());
+            return new HashMap<String, Long>();
+        }
+    }
+
+    /**
+     * Collect the benchmarks of this project, the benchmark sources and, if enabled, the dependency jars into one
+     * benchmark list, read in resource mode from a class loader over all of them. The compiler hints are merged into
+     * target/benchmark/CompilerHints.
+     *
+     * @param projectClasspath the class directories of this project
+     * @param artifacts the dependencies
+     * @param classPaths the class path of the forks, the benchmark sources are added
+     * @param benchMarkResultPath the benchmark output directory
+     * @return the merged hint file
+     * @throws MojoExecutionException if the benchmarks can not be read
+     */
+    private String aggregateBenchmarks(List<File> projectClasspath, List<Artifact> artifacts, Set<String> classPaths,
+            String benchMarkResultPath) throws MojoExecutionException {
+        Set<File> roots = new LinkedHashSet<File>();
+        for (File dir : projectClasspath) {
+            roots.add(dir.getAbsoluteFile());
+        }
+        if (benchmarkSources != null) {
+            for (Fileset fileset : benchmarkSources) {
+                roots.addAll(scan(fileset));
+            }
+        }
+        if (dependencyBenchmarks) {
+            for (Artifact artifact : artifacts) {
+                roots.add(artifact.getFile().getAbsoluteFile());
+            }
+        }
+
+        List<String> withBenchmarks = new ArrayList<String>();
+        String resource = BenchmarkList.BENCHMARK_LIST.substring(1);
+        Set<String> rootPaths = new LinkedHashSet<String>();
+        for (File root : roots) {
+            rootPaths.add(root.getPath());
+            classPaths.add(root.getPath());
+            if (hasResource(root, resource)) {
+                withBenchmarks.add(root.getPath());
+            }
+        }
+
+        // no parent, so only the roots are searched
+        try (URLClassLoader loader = new URLClassLoader(toUrls(rootPaths), null)) {
+            benchmarks = ExBenchmarkList.fromResource(BenchmarkList.BENCHMARK_LIST, loader);
+            int count = benchmarks.entries().size();
+            Set<String> hints;
+            try {
+                hints = ExCompilerHints.fromResource(CompilerHints.LIST, loader).get();
+            } catch (RuntimeException e) {
+                hints = Collections.<String> emptySet();
+            }
+            File hintFile = new File(benchMarkResultPath, "CompilerHints");
+            StringBuilder sb = new StringBuilder();
+            for (String hint : hints) {
+                sb.append(hint).append('\n');
+            }
+            FileUtils.fileWrite(hintFile.getPath(), "UTF-8", sb.toString());
+
+            getLog().info(count + " benchmarks of " + withBenchmarks.size() + " class directories and jars: "
+                    + withBenchmarks);
+            if (!benchmarks.getCollisions().isEmpty()) {
+                getLog().warn("Benchmarks listed with different settings in several places, the first one runs: "
+                        + benchmarks.getCollisions());
+            }
+            return hintFile.getPath();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Can not collect the benchmarks: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            throw new MojoExecutionException("Can not read the benchmark lists of " + withBenchmarks + ": "
+                    + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * The class directories and jars of a file set.
+     *
+     * @param fileset the file set
+     * @return the directories and jars
+     */
+    private List<File> scan(Fileset fileset) {
+        List<File> ret = new ArrayList<File>();
+        File dir = fileset.getDirectory();
+        if (dir == null || !dir.exists()) {
+            getLog().warn("No benchmark source " + fileset);
+            return ret;
+        }
+        if (fileset.getIncludes().length == 0) {
+            ret.add(dir.getAbsoluteFile());
+            return ret;
+        }
+        DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir(dir);
+        scanner.setIncludes(fileset.getIncludes());
+        scanner.setExcludes(fileset.getExcludes());
+        scanner.setFollowSymlinks(fileset.isFollowSymlinks());
+        if (fileset.isUseDefaultExcludes()) {
+            scanner.addDefaultExcludes();
+        }
+        scanner.scan();
+        for (String path : scanner.getIncludedDirectories()) {
+            ret.add(new File(dir, path).getAbsoluteFile());
+        }
+        for (String path : scanner.getIncludedFiles()) {
+            if (path.endsWith(".jar")) {
+                ret.add(new File(dir, path).getAbsoluteFile());
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * If a class directory or jar has a resource.
+     *
+     * @param root the root
+     * @param resource the resource, without leading /
+     * @return true, if it has
+     */
+    private static boolean hasResource(File root, String resource) {
+        if (root.isDirectory()) {
+            return new File(root, resource).isFile();
+        }
+        if (!root.isFile()) {
+            return false;
+        }
+        try (ZipFile zip = new ZipFile(root)) {
+            return zip.getEntry(resource) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The urls of class path entries.
+     *
+     * @param paths the paths
+     * @return the urls
+     * @throws MalformedURLException if a path is no url
+     */
+    private static URL[] toUrls(Collection<String> paths) throws MalformedURLException {
+        List<URL> urls = new ArrayList<URL>();
+        for (String path : paths) {
+            urls.add(new File(path).toURI().toURL());
+        }
+        return urls.toArray(new URL[urls.size()]);
+    }
+
+    /**
+     * Write the OpenMetrics file and push it. Neither must fail the benchmark run.
+     *
+     * @param file the file
+     * @param results the results of all runs
+     */
+    private void exportMetrics(File file, List<RunResult> results) {
+        try {
+            new OpenMetricsExport(percentileValues, Git.commit(project.getBasedir())).write(file, results);
+            getLog().info("Benchmark metrics: " + file);
+        } catch (IOException e) {
+            getLog().warn("Can not write the benchmark metrics " + file + ": " + e.getMessage(), e);
+            return;
+        }
+        if (StringUtils.isEmpty(pushGateway)) {
+            return;
+        }
+        try {
+            int status = OpenMetricsExport.push(file, new URL(pushGateway), pushTimeout);
+            getLog().info("Pushed the benchmark metrics to " + pushGateway + ": HTTP " + status);
+        } catch (IOException e) {
+            getLog().warn("Can not push the benchmark metrics to " + pushGateway + ": " + e);
+        } catch (RuntimeException e) {
+            getLog().warn("Can not push the benchmark metrics to " + pushGateway + ": " + e);
+        }
+    }
+
+    /**
+     * Report the service level checks and fail on violations.
+     *
+     * @param gate the gate, after its check of the results of all runs
+     * @param violations the violations of the check
+     * @throws MojoFailureException if a benchmark violated a service level
+     */
+    private void checkSlas(SlaGate gate, List<SlaGate.Violation> violations) throws MojoFailureException {
+        if (!gate.getUnmatched().isEmpty()) {
+            getLog().warn("No benchmark for " + gate.getUnmatched().size() + " SLAs: " + gate.getUnmatched());
+        }
+        if (!violations.isEmpty()) {
+            throw new MojoFailureException(violations.size() + " SLA violations in " + gate.getChecked()
+                    + " checks:\n" + SlaGate.table(violations));
+        }
+        getLog().info("All " + gate.getChecked() + " SLA checks passed");
+    }
+
+    /**
+     * Report the allocations of the benchmarks with budgets and fail on violations.
+     *
+     * @param gate the gate, after its check of the results of all runs
+     * @param violations the violations of the check
+     * @throws MojoFailureException if a benchmark allocated more than its budget
+     */
+    private void checkAllocations(AllocationGate gate, List<AllocationGate.Violation> violations)
+            throws MojoFailureException {
+        if (!gate.getUnmeasured().isEmpty()) {
+            getLog().warn("No " + AllocationGate.ALLOCATION.substring(1) + " of the gc profiler for "
+                    + gate.getUnmeasured().size() + " benchmarks with allocation budgets: " + gate.getUnmeasured());
+        }
+        if (!violations.isEmpty()) {
+            throw new MojoFailureException(violations.size() + " benchmarks allocated more than their budget:\n"
+                    + AllocationGate.table(violations));
+        }
+        getLog().info("All benchmarks with allocation budgets are within them");
+    }
+
+    /**
+     * Append the results to the benchmark history. Results reused from the result cache are left out, they were
+     * measured at an earlier commit. A broken store must not fail the benchmark run.
+     *
+     * @param all the results of all runs
+     */
+    private void appendHistory(List<RunResult> all) {
+        List<RunResult> results = new ArrayList<RunResult>();
+        for (RunResult result : all) {
+            if (!ResultCache.isCached(result)) {
+                results.add(result);
+            }
+        }
+        if (results.isEmpty()) {
+            getLog().info("Benchmark history: all results are reused from the result cache, nothing to append");
+            return;
+        }
+        HistoryStore store = new HistoryStore(historyDirectory);
+        HistoryStore.Run run = HistoryStore.Run.current(project.getBasedir(), results);
+        try {
+            int runId = store.append(run, results);
+            getLog().info("Benchmark history: run " + runId + " of " + results.size() + " benchmarks at commit "
+                    + (StringUtils.isEmpty(run.getCommit()) ? "unknown" : run.getCommit()) + " appended to "
+                    + historyDirectory);
+        } catch (IOException e) {
+            getLog().warn("Can not append to the benchmark history " + historyDirectory + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Report the comparison with the baseline and fail on regressions.
+     *
+     * @param gate the gate, after its comparison with the results of all runs
+     * @param regressions the regressions of the comparison
+     * @throws MojoFailureException if a benchmark regressed
+     */
+    private void checkBaseline(BaselineGate gate, List<BaselineGate.Change> regressions)
+            throws MojoFailureException {
+        if (!gate.getUnmatched().isEmpty()) {
+            getLog().warn("No comparable baseline for " + gate.getUnmatched().size() + " benchmarks: "
+                    + gate.getUnmatched());
+        }
+        if (!gate.getImprovements().isEmpty()) {
+            getLog().info("Significant improvements over the baseline:\n" + BaselineGate.table(gate.getImprovements()));
+        }
+        if (!regressions.isEmpty()) {
+            throw new MojoFailureException(regressions.size() + " benchmarks regressed against the baseline "
+                    + baseline + ":\n" + BaselineGate.table(regressions));
+        }
+        getLog().info("No significant regressions against the baseline " + baseline);
+    }
+
+    /**
+     * The adaptive stop rule of the parameters.
+     *
+     * @return the rule
+     * @throws MojoExecutionException if the iteration limits are invalid
+     */
+    private AdaptiveStopRule adaptiveStopRule() throws MojoExecutionException {
+        try {
+            return new AdaptiveStopRule(adaptiveTarget / 100, adaptiveMinIterations, adaptiveMaxIterations);
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException("error parameter value of 'adaptiveMinIterations' or "
+                    + "'adaptiveMaxIterations': " + e.getMessage(), e);
+        }
     }
 
     /**
@@ -339,12 +1369,22 @@ public class JMHBeachmarkMojo extends AbstractExecMojo {
      *
      * @param benchmarkList the benchmark list
      * @param hintPath the hint path
+     * @param benchMarkResultPath the benchmark output directory
      * @param resultFile the result file
      * @param classPaths the class paths
      * @param includes the includes
+     * @return the results
+     * @throws MojoExecutionException if the run failed
      */
-    protected void doBenchmarkRun(String benchmarkList, String hintPath, String resultFile, Set<String> classPaths,
-            String...includes) {
+    protected Collection<RunResult> doBenchmarkRun(String benchmarkList, String hintPath, String benchMarkResultPath, String resultFile,
+            Set<String> classPaths, String...includes) throws MojoExecutionException {
+
+        BenchmarkShard shard = null;
+        if (shardCount > 1) {
+            shard = new BenchmarkShard(shardIndex, shardCount,
+                    new File(benchMarkResultPath, "shards/" + new File(resultFile).getName()));
+            resultFile = resultFile + "_shard" + shardIndex;
+        }
 
         ChainedOptionsBuilder options = new OptionsBuilder().forks(forks) // 压测整体重复次数
                 .warmupForks(warmupForks) // 预热整体重复次数
@@ -365,6 +1405,14 @@ public class JMHBeachmarkMojo extends AbstractExecMojo {
             }
         }
 
+        for (String exclude : selectionExcludes) {
+            options.exclude(exclude);
+        }
+
+        for (String profiler : profilerNames) {
+            options.addProfiler(profiler);
+        }
+
         if (!StringUtils.isEmpty(warmUpBenchmarkIncludes)) {
             String[] strings = StringUtils.split(warmUpBenchmarkIncludes, ";");
             for (String string : strings) {
@@ -374,13 +1422,124 @@ public class JMHBeachmarkMojo extends AbstractExecMojo {
 
         Options opt = options.build();
 
+        JsonLinesSink sink = null;
         try {
-            ExtendedRunner extendedRunner = new ExtendedRunner(opt, ExBenchmarkList.fromFile(benchmarkList), hintPath);
+            ExtendedRunner extendedRunner = new ExtendedRunner(opt, benchmarks(benchmarkList), hintPath);
             extendedRunner.setClassPaths(classPaths);
-            extendedRunner.run();
+            extendedRunner.setParallelForks(parallelForks);
+            extendedRunner.setBenchmarkDirectory(benchMarkResultPath);
+            extendedRunner.setSharedArchive(sharedArchive);
+            extendedRunner.setPipelinedForks(pipelinedForks);
+            extendedRunner.setPercentiles(percentileValues);
+            if (tagGroups != null && tagGroups.hasPolicies()) {
+                List<String> names = new ArrayList<String>();
+                for (BenchmarkListEntry entry : benchmarks(benchmarkList).entries()) {
+                    names.add(entry.getUsername());
+                }
+                extendedRunner.setBenchmarkOptions(policyOptions(opt, names));
+            }
+            if (adaptiveTarget > 0) {
+                extendedRunner.setAdaptiveStopRule(adaptiveStopRule());
+            }
+            if (steadyStateWarmup) {
+                extendedRunner.setSteadyStateWarmup(new SteadyStateWarmup(steadyStateWindow,
+                        steadyStateThreshold / 100, new File(benchMarkResultPath, "warmup_profile.properties")));
+            }
+            if (!StringUtils.isEmpty(timeBudget)) {
+                extendedRunner.setTimeBudget(new TimeBudget(TimeValue.valueOf(timeBudget), timeBudgetPriority,
+                        new File(benchMarkResultPath, "time_budget_history.properties")));
+            }
+            extendedRunner.setIsolated(isolated);
+            extendedRunner.setShard(shard);
+            if (codeFingerprints != null) {
+                try {
+                    extendedRunner.setResultCache(new ResultCache(cacheDirectory, codeFingerprints,
+                            HistoryStore.Run.hostFingerprint() + "\n" + profilerNames));
+                } catch (IOException e) {
+                    getLog().warn("Running without result cache: " + e.getMessage());
+                }
+            }
+            extendedRunner.setCheckpointJournal(new CheckpointJournal(
+                    new File(benchMarkResultPath, "checkpoint/" + new File(resultFile).getName()), resume));
+            if (streamResults) {
+                sink = new JsonLinesSink(new File(resultFile + ".jsonl"));
+                extendedRunner.addListener(sink);
+                getLog().info("Streaming results to " + sink.getFile());
+            }
+            Collection<RunResult> results = extendedRunner.run();
+            if (histogramLog) {
+                writeHistogramLogs(new File(resultFile + "_hlog"), results);
+            }
+            return results;
         } catch (RunnerException e) {
-            e.printStackTrace();
+            throw new MojoExecutionException("Benchmark run failed: " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Benchmark run failed: " + e.getMessage(), e);
+        } finally {
+            if (sink != null) {
+                sink.close();
+                if (sink.getError() != null) {
+                    getLog().warn("Result stream " + sink.getFile() + " is incomplete: " + sink.getError().getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the HdrHistogram logs of the sample time benchmarks. A failure must not fail the benchmark run.
+     *
+     * @param directory the directory
+     * @param results the results of the run
+     */
+    private void writeHistogramLogs(File directory, Collection<RunResult> results) {
+        try {
+            int written = HdrHistogramLog.write(directory, results);
+            if (written > 0) {
+                getLog().info("Histogram logs of " + written + " sample time benchmarks: " + directory);
+            }
+        } catch (IOException e) {
+            getLog().warn("Can not write the histogram logs to " + directory + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parses the percentiles.
+     *
+     * @param percentiles the comma separated percentiles
+     * @return the percentiles
+     * @throws MojoExecutionException if one is not a number between 0 and 100
+     */
+    private double[] parsePercentiles(String percentiles) throws MojoExecutionException {
+        if (StringUtils.isEmpty(percentiles)) {
+            return new double[0];
+        }
+        String[] strings = StringUtils.split(percentiles, ",");
+        double[] ret = new double[strings.length];
+        for (int i = 0; i < strings.length; i++) {
+            try {
+                ret[i] = Double.parseDouble(strings[i].trim());
+            } catch (NumberFormatException e) {
+                ret[i] = Double.NaN;
+            }
+            if (!(ret[i] > 0 && ret[i] <= 100)) {
+                throw new MojoExecutionException("error parameter value of 'percentiles': " + percentiles
+                        + ", must be numbers between 0 and 100");
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * The benchmark list, shared by all runs of the execution so that it is read and indexed once.
+     *
+     * @param benchmarkList the benchmark list file
+     * @return the list
+     */
+    private ExBenchmarkList benchmarks(String benchmarkList) {
+        if (benchmarks == null) {
+            benchmarks = ExBenchmarkList.fromFile(benchmarkList);
         }
+        return benchmarks;
     }
 
     /**
@@ -391,7 +1550,7 @@ public class JMHBeachmarkMojo extends AbstractExecMojo {
      */
     private Set<String> parseBenchmarkIncludes(String benchmarkIncludes) {
         if (StringUtils.isEmpty(benchmarkIncludes)) {
-            return Collections.emptySet();
+            return Collections.<String> emptySet();
         }
         Set<String> ret = new HashSet<String>();
         String[] strings = StringUtils.split(benchmarkIncludes, ";");
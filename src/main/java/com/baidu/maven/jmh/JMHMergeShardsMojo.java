@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.SortedSet;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.BenchmarkShard;
+
+/**
+ * Combines the partials of a suite run with jmh.shardIndex/jmh.shardCount on several machines into one result file.
+ * Copy the shard partials of all machines into the shard directory first.
+ */
+@Mojo(name = "merge", threadSafe = true)
+public class JMHMergeShardsMojo extends AbstractMojo {
+
+    /** The output directory, target. */
+    @Parameter(defaultValue = "${project.build.directory}")
+    protected File outputParentDirectory;
+
+    /** The directory holding the shard partials, target/benchmark/shards/${jmh.result} by default. */
+    @Parameter(property = "jmh.shardDirectory")
+    private File shardDirectory;
+
+    /** The result format. */
+    @Parameter(property = "jmh.resultFormat", defaultValue = "JSON")
+    private String resultFormat;
+
+    /** The result file, written to target/benchmark. */
+    @Parameter(property = "jmh.result", defaultValue = "jmh_benchmark_result")
+    private String resultFile;
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.maven.plugin.Mojo#execute()
+     */
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        File benchmarkDirectory = new File(outputParentDirectory, "benchmark");
+        File directory = shardDirectory != null ? shardDirectory : new File(benchmarkDirectory, "shards/" + resultFile);
+
+        ResultFormatType format;
+        try {
+            format = ResultFormatType.valueOf(resultFormat.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException("error parameter value of 'resultFormat': " + resultFormat, e);
+        }
+
+        SortedSet<RunResult> results;
+        try {
+            results = BenchmarkShard.merge(directory);
+        } catch (IOException e) {
+            throw new MojoFailureException(e.getMessage(), e);
+        }
+
+        benchmarkDirectory.mkdirs();
+        File file = new File(benchmarkDirectory, resultFile);
+        ResultFormatFactory.getInstance(format, file.getAbsolutePath()).writeOut(results);
+        getLog().info("Merged " + results.size() + " benchmark results from " + directory + " into " + file);
+    }
+}
@@ -0,0 +1,339 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.openjdk.jmh.annotations.Mode;
+
+/**
+ * Searches the benchmark history written with jmh.history for the commits where the score of a benchmark shifted,
+ * using E-divisive change-point detection on the run means. Only runs on the host and JVM of the latest run of a
+ * benchmark are compared, unless trendAllEnvironments is set.
+ */
+@Mojo(name = "trend", threadSafe = true)
+public class JMHTrendMojo extends AbstractMojo {
+
+    /** The project directory, for git. */
+    @Parameter(defaultValue = "${project.basedir}", readonly = true)
+    private File basedir;
+
+    /** The output directory, target. */
+    @Parameter(defaultValue = "${project.build.directory}")
+    protected File outputParentDirectory;
+
+    /** The benchmark history directory. */
+    @Parameter(property = "jmh.historyDirectory",
+            defaultValue = "${user.home}/.jmh-history/${project.groupId}/${project.artifactId}")
+    private File historyDirectory;
+
+    /** Regex of the benchmark labels to analyse, all by default. */
+    @Parameter(property = "jmh.trendFilter")
+    private String trendFilter;
+
+    /** The number of latest runs of each benchmark to analyse. */
+    @Parameter(property = "jmh.trendWindow", defaultValue = "100")
+    private int trendWindow = 100;
+
+    /** Significance level of the permutation test of a change. */
+    @Parameter(property = "jmh.trendSignificance", defaultValue = "0.05")
+    private double trendSignificance = 0.05;
+
+    /** Number of permutations of the significance test. */
+    @Parameter(property = "jmh.trendPermutations", defaultValue = "199")
+    private int trendPermutations = 199;
+
+    /** Minimum number of runs on each side of a change. */
+    @Parameter(property = "jmh.trendMinSegment", defaultValue = "3")
+    private int trendMinSegment = 3;
+
+    /** Minimum change of the mean score in percent to report. */
+    @Parameter(property = "jmh.trendMinEffect", defaultValue = "1")
+    private double trendMinEffect = 1;
+
+    /** Compare runs of all hosts and JVMs. */
+    @Parameter(property = "jmh.trendAllEnvironments", defaultValue = "false")
+    private boolean trendAllEnvironments;
+
+    /** Fail the build if the latest change of a benchmark is for the worse. */
+    @Parameter(property = "jmh.trendFailOnRegression", defaultValue = "false")
+    private boolean trendFailOnRegression;
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.maven.plugin.Mojo#execute()
+     */
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        Pattern filter = null;
+        if (!StringUtils.isEmpty(trendFilter)) {
+            try {
+                filter = Pattern.compile(trendFilter);
+            } catch (PatternSyntaxException e) {
+                throw new MojoExecutionException("error parameter value of 'trendFilter': " + trendFilter, e);
+            }
+        }
+
+        HistoryStore store = new HistoryStore(historyDirectory);
+        ChangePointDetector detector = new ChangePointDetector(trendSignificance, trendPermutations, trendMinSegment);
+        Map<Integer, HistoryStore.Run> runs = new HashMap<Integer, HistoryStore.Run>();
+        List<Shift> shifts = new ArrayList<Shift>();
+        int analysed = 0;
+        try {
+            if (store.catalog().isEmpty()) {
+                getLog().warn("No benchmark history in " + historyDirectory + ", run the benchmarks with -Djmh.history");
+                return;
+            }
+            for (String label : store.catalog().values()) {
+                if (filter != null && !filter.matcher(label).find()) {
+                    continue;
+                }
+                List<HistoryStore.Point> points = environmentSeries(store, label, runs);
+                if (points.size() < 2 * trendMinSegment) {
+                    getLog().debug("Too few runs of " + label + " for a trend: " + points.size());
+                    continue;
+                }
+                analysed++;
+
+                String unit = points.get(points.size() - 1).getUnit();
+                double[] values = new double[points.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = points.get(i).getMean() * ScoreUnit.factor(points.get(i).getUnit(), unit);
+                }
+                for (ChangePointDetector.ChangePoint cp : detector.detect(values, label.hashCode())) {
+                    if (Math.abs(cp.getChange()) * 100 < trendMinEffect) {
+                        continue;
+                    }
+                    shifts.add(new Shift(label, unit, cp, run(store, runs, points.get(cp.getIndex() - 1)),
+                            run(store, runs, points.get(cp.getIndex())), cp.getIndex() == values.length
+                                    - trendMinSegment));
+                }
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Can not read the benchmark history " + historyDirectory, e);
+        }
+
+        if (shifts.isEmpty()) {
+            getLog().info("No significant shifts in " + analysed + " benchmarks of " + historyDirectory);
+            return;
+        }
+        Collections.sort(shifts, new Comparator<Shift>() {
+            @Override
+            public int compare(Shift o1, Shift o2) {
+                return Double.compare(Math.abs(o2.point.getChange()), Math.abs(o1.point.getChange()));
+            }
+        });
+        String table = table(shifts);
+        getLog().info(shifts.size() + " significant shifts in " + analysed + " benchmarks:\n" + table);
+
+        File report = new File(outputParentDirectory, "benchmark/trend.txt");
+        report.getParentFile().mkdirs();
+        try {
+            Files.write(report.toPath(), table.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            getLog().warn("Can not write " + report + ": " + e.getMessage());
+        }
+
+        if (trendFailOnRegression) {
+            List<Shift> regressions = latestRegressions(shifts);
+            if (!regressions.isEmpty()) {
+                throw new MojoFailureException(regressions.size() + " benchmarks got worse at their latest shift:\n"
+                        + table(regressions));
+            }
+        }
+    }
+
+    /**
+     * The latest points of a benchmark measured in the environment of its latest run.
+     *
+     * @param store the store
+     * @param label the label
+     * @param runs the runs read so far, by id
+     * @return the points, oldest first
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private List<HistoryStore.Point> environmentSeries(HistoryStore store, String label,
+            Map<Integer, HistoryStore.Run> runs) throws IOException {
+        List<HistoryStore.Point> all = store.last(label, trendAllEnvironments ? trendWindow : Integer.MAX_VALUE);
+        if (all.isEmpty()) {
+            return all;
+        }
+        HistoryStore.Run latest = run(store, runs, all.get(all.size() - 1));
+        String unit = all.get(all.size() - 1).getUnit();
+        List<HistoryStore.Point> points = new ArrayList<HistoryStore.Point>();
+        for (int i = all.size() - 1; i >= 0 && points.size() < trendWindow; i--) {
+            HistoryStore.Point point = all.get(i);
+            if (Double.isNaN(ScoreUnit.factor(point.getUnit(), unit))) {
+                continue;
+            }
+            HistoryStore.Run run = run(store, runs, point);
+            if (trendAllEnvironments || run != null && latest != null
+                    && run.getHostFingerprint().equals(latest.getHostFingerprint())
+                    && run.getJvmFingerprint().equals(latest.getJvmFingerprint())) {
+                points.add(point);
+            }
+        }
+        Collections.reverse(points);
+        return points;
+    }
+
+    /**
+     * The run of a point.
+     *
+     * @param store the store
+     * @param runs the runs read so far, by id
+     * @param point the point
+     * @return the run, null if it is missing
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static HistoryStore.Run run(HistoryStore store, Map<Integer, HistoryStore.Run> runs,
+            HistoryStore.Point point) throws IOException {
+        Integer id = point.getRunId();
+        if (!runs.containsKey(id)) {
+            runs.put(id, store.run(id));
+        }
+        return runs.get(id);
+    }
+
+    /**
+     * The shifts for the worse that are the latest of their benchmark.
+     *
+     * @param shifts the shifts
+     * @return the regressions
+     */
+    private static List<Shift> latestRegressions(List<Shift> shifts) {
+        Map<String, Shift> latest = new HashMap<String, Shift>();
+        for (Shift shift : shifts) {
+            Shift other = latest.get(shift.label);
+            if (other == null || shift.point.getIndex() > other.point.getIndex()) {
+                latest.put(shift.label, shift);
+            }
+        }
+        List<Shift> regressions = new ArrayList<Shift>();
+        for (Shift shift : shifts) {
+            if (latest.get(shift.label) == shift && shift.isWorse()) {
+                regressions.add(shift);
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * Format shifts as a table.
+     *
+     * @param shifts the shifts
+     * @return the table
+     */
+    private String table(List<Shift> shifts) {
+        int width = "Benchmark".length();
+        for (Shift s : shifts) {
+            width = Math.max(width, s.label.length());
+        }
+        SimpleDateFormat date = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        StringBuilder sb = new StringBuilder();
+        String row = "%-" + width + "s %-10s %-16s %12s %14s %14s %9s %10s  %s%n";
+        sb.append(String.format(row, "Benchmark", "Commit", "Date", "Unit", "Before", "After", "Change",
+                "Confidence", "Range"));
+        for (Shift s : shifts) {
+            String commit = s.after != null ? s.after.getCommit() : "";
+            String since = s.before != null ? shortCommit(s.before.getCommit()) : "";
+            String subject = StringUtils.isEmpty(commit) ? null
+                    : Git.run(basedir, "log", "-1", "--format=%s", commit);
+            sb.append(String.format(row, s.label, shortCommit(commit),
+                    s.after != null ? date.format(new Date(s.after.getTimestamp())) : "", s.unit,
+                    String.format("%.3f", s.point.getBefore()), String.format("%.3f", s.point.getAfter()),
+                    String.format("%+.2f%%", s.point.getChange() * 100),
+                    String.format("%.1f%%", s.point.getConfidence() * 100),
+                    (since.isEmpty() ? "" : since + "..") + shortCommit(commit) + (subject != null ? " " + subject : "")
+                            + (s.tentative ? " (tentative, few runs after)" : "")));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Short commit.
+     *
+     * @param commit the commit
+     * @return the string
+     */
+    private static String shortCommit(String commit) {
+        if (StringUtils.isEmpty(commit)) {
+            return "unknown";
+        }
+        return commit.length() > 10 ? commit.substring(0, 10) : commit;
+    }
+
+    /**
+     * A change point of one benchmark with the runs next to it.
+     */
+    private static class Shift {
+
+        /** The label. */
+        private final String label;
+
+        /** The unit. */
+        private final String unit;
+
+        /** The point. */
+        private final ChangePointDetector.ChangePoint point;
+
+        /** The last run before the change. */
+        private final HistoryStore.Run before;
+
+        /** The first run after the change. */
+        private final HistoryStore.Run after;
+
+        /** Only the minimum number of runs follow the change. */
+        private final boolean tentative;
+
+        /**
+         * Instantiates a new shift.
+         *
+         * @param label the label
+         * @param unit the unit
+         * @param point the point
+         * @param before the before
+         * @param after the after
+         * @param tentative the tentative
+         */
+        Shift(String label, String unit, ChangePointDetector.ChangePoint point, HistoryStore.Run before,
+                HistoryStore.Run after, boolean tentative) {
+            this.label = label;
+            this.unit = unit;
+            this.point = point;
+            this.before = before;
+            this.after = after;
+            this.tentative = tentative;
+        }
+
+        /**
+         * Checks if the score got worse: lower throughput, or more time per operation.
+         *
+         * @return true, if is worse
+         */
+        boolean isWorse() {
+            boolean higherIsBetter = label.contains(" " + Mode.Throughput.shortLabel());
+            return higherIsBetter ? point.getChange() < 0 : point.getChange() > 0;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.maven.plugin.surefire.report.FileReporterUtils;
+import org.apache.maven.plugin.surefire.report.ReportEntryType;
+import org.apache.maven.surefire.shade.org.apache.maven.shared.utils.xml.PrettyPrintXMLWriter;
+import org.apache.maven.surefire.shade.org.apache.maven.shared.utils.xml.XMLWriter;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.ExBenchmarkParams;
+import org.openjdk.jmh.runner.TimeBudget;
+
+/**
+ * Writes the results of a run as Surefire XML reports, so CI servers show benchmarks next to the unit tests. Every
+ * benchmark class becomes a test suite in TEST-&lt;class&gt;-jmh.xml and every result a test case, with score, error
+ * and units as test case properties. A benchmark with violations, e.g. a regression against the baseline, is a
+ * failure.
+ */
+public class JUnitReport {
+
+    /** The Constant SUFFIX, of the report names, to keep them apart from the unit test reports. */
+    private static final String SUFFIX = "jmh";
+
+    /** The directory. */
+    private final File directory;
+
+    /** The violations by benchmark label. */
+    private final Map<String, List<String>> violations = new LinkedHashMap<String, List<String>>();
+
+    /**
+     * Instantiates a new junit report.
+     *
+     * @param directory the report directory, usually target/surefire-reports
+     */
+    public JUnitReport(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Mark a benchmark as failed.
+     *
+     * @param label the benchmark label, as of {@link ExBenchmarkParams#label}
+     * @param message what it violated
+     */
+    public void addViolation(String label, String message) {
+        List<String> list = violations.get(label);
+        if (list == null) {
+            list = new ArrayList<String>();
+            violations.put(label, list);
+        }
+        list.add(message);
+    }
+
+    /**
+     * Write a report per benchmark class.
+     *
+     * @param results the results
+     * @return the number of failed benchmarks
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public int write(Collection<RunResult> results) throws IOException {
+        Map<String, List<RunResult>> suites = new LinkedHashMap<String, List<RunResult>>();
+        for (RunResult result : results) {
+            String benchmark = result.getParams().getBenchmark();
+            int dot = benchmark.lastIndexOf('.');
+            String className = dot > 0 ? benchmark.substring(0, dot) : benchmark;
+            List<RunResult> list = suites.get(className);
+            if (list == null) {
+                list = new ArrayList<RunResult>();
+                suites.put(className, list);
+            }
+            list.add(result);
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can not create " + directory);
+        }
+        int failed = 0;
+        for (Map.Entry<String, List<RunResult>> e : suites.entrySet()) {
+            failed += writeSuite(e.getKey(), e.getValue());
+        }
+        return failed;
+    }
+
+    /**
+     * Write the report of one benchmark class.
+     *
+     * @param className the class name
+     * @param results the results of its benchmarks
+     * @return the number of failed benchmarks
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private int writeSuite(String className, List<RunResult> results) throws IOException {
+        int failures = 0;
+        long totalMs = 0;
+        for (RunResult result : results) {
+            if (violations.containsKey(ExBenchmarkParams.label(result.getParams()))) {
+                failures++;
+            }
+            totalMs += TimeBudget.configuredCost(result.getParams());
+        }
+
+        File file = new File(directory,
+                "TEST-" + FileReporterUtils.stripIllegalFilenameChars(className) + "-" + SUFFIX + ".xml");
+        try (Writer w = new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8)) {
+            XMLWriter xml = new PrettyPrintXMLWriter(w, "  ", "UTF-8", null);
+            xml.startElement("testsuite");
+            xml.addAttribute("name", className);
+            xml.addAttribute("time", seconds(totalMs));
+            xml.addAttribute("tests", String.valueOf(results.size()));
+            xml.addAttribute("errors", "0");
+            xml.addAttribute("skipped", "0");
+            xml.addAttribute("failures", String.valueOf(failures));
+            xml.addAttribute("timestamp", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date()));
+
+            BenchmarkParams first = results.get(0).getParams();
+            Map<String, String> suiteProperties = new LinkedHashMap<String, String>();
+            suiteProperties.put("jmh.version", first.getJmhVersion());
+            suiteProperties.put("jvm", first.getJvm());
+            suiteProperties.put("jdk.version", first.getJdkVersion());
+            suiteProperties.put("vm.name", first.getVmName());
+            suiteProperties.put("vm.version", first.getVmVersion());
+            suiteProperties.put("jvm.args", String.valueOf(first.getJvmArgs()));
+            properties(xml, suiteProperties);
+
+            for (RunResult result : results) {
+                testCase(xml, className, result);
+            }
+            xml.endElement();
+        }
+        return failures;
+    }
+
+    /**
+     * Write the test case of a result.
+     *
+     * @param xml the xml
+     * @param className the class name
+     * @param result the result
+     */
+    private void testCase(XMLWriter xml, String className, RunResult result) {
+        BenchmarkParams params = result.getParams();
+        Result primary = result.getPrimaryResult();
+        String label = ExBenchmarkParams.label(params);
+
+        xml.startElement("testcase");
+        // the label without the class: method, mode and params
+        xml.addAttribute("name", label.substring(className.length() + 1));
+        xml.addAttribute("classname", className);
+        xml.addAttribute("time", seconds(TimeBudget.configuredCost(params)));
+
+        Map<String, String> properties = new LinkedHashMap<String, String>();
+        properties.put("score", number(primary.getScore()));
+        properties.put("scoreError", number(primary.getScoreError()));
+        properties.put("scoreUnit", primary.getScoreUnit());
+        properties.put("mode", params.getMode().shortLabel());
+        properties.put("samples", String.valueOf(primary.getSampleCount()));
+        for (String key : params.getParamsKeys()) {
+            properties.put("param." + key, params.getParam(key));
+        }
+        for (Map.Entry<String, Result> e : result.getSecondaryResults().entrySet()) {
+            properties.put("secondary." + e.getKey(), number(e.getValue().getScore()) + " "
+                    + e.getValue().getScoreUnit());
+        }
+        properties(xml, properties);
+
+        String summary = String.format(Locale.ROOT, "%s  %s ± %s %s", label, number(primary.getScore()),
+                number(primary.getScoreError()), primary.getScoreUnit());
+        List<String> list = violations.containsKey(label) ? violations.get(label) : Collections.<String> emptyList();
+        if (!list.isEmpty()) {
+            StringBuilder detail = new StringBuilder(summary);
+            for (String violation : list) {
+                detail.append('\n').append(violation);
+            }
+            xml.startElement(ReportEntryType.failure.name());
+            xml.addAttribute("message", list.size() == 1 ? list.get(0) : list.size() + " violations: " + list);
+            xml.addAttribute("type", "jmh.BenchmarkViolation");
+            xml.writeText(detail.toString());
+            xml.endElement();
+        }
+
+        xml.startElement("system-out");
+        xml.writeText(summary);
+        xml.endElement();
+        xml.endElement();
+    }
+
+    /**
+     * Write a properties element.
+     *
+     * @param xml the xml
+     * @param properties the properties
+     */
+    private static void properties(XMLWriter xml, Map<String, String> properties) {
+        xml.startElement("properties");
+        for (Map.Entry<String, String> e : properties.entrySet()) {
+            xml.startElement("property");
+            xml.addAttribute("name", e.getKey());
+            xml.addAttribute("value", e.getValue() == null ? "" : e.getValue());
+            xml.endElement();
+        }
+        xml.endElement();
+    }
+
+    /**
+     * Seconds, as Surefire writes them.
+     *
+     * @param ms the ms
+     * @return the string
+     */
+    private static String seconds(long ms) {
+        return String.format(Locale.ROOT, "%.3f", ms / 1000d);
+    }
+
+    /**
+     * Number.
+     *
+     * @param d the d
+     * @return the string
+     */
+    private static String number(double d) {
+        return Double.isNaN(d) ? "NaN" : String.format(Locale.ROOT, "%.6g", d);
+    }
+}
@@ -0,0 +1,263 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.results.BenchmarkResult;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.runner.ListeningOutputFormat;
+
+/**
+ * Streams results to a JSON lines file while the run goes: one line per finished iteration, measurement fork and
+ * benchmark. The callbacks only format a line and queue it; a background thread appends the lines and flushes
+ * whenever the queue runs empty, so the measurement path never waits for the disk and a crash loses at most the
+ * lines of the last moment.
+ */
+public class JsonLinesSink extends ListeningOutputFormat.Adapter implements Closeable {
+
+    /** The Constant END, queued to stop the writer. */
+    private static final String END = new String("end");
+
+    /** The file. */
+    private final File file;
+
+    /** The lines to write. */
+    private final BlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+
+    /** The writer thread. */
+    private final Thread thread;
+
+    /** The first write error. */
+    private volatile IOException error;
+
+    /**
+     * Opens the sink, appending to the file. Every run starts with a run line.
+     *
+     * @param file the file
+     * @throws IOException if the file can not be opened
+     */
+    public JsonLinesSink(File file) throws IOException {
+        this.file = file;
+        file.getParentFile().mkdirs();
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true),
+                StandardCharsets.UTF_8));
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain(writer);
+            }
+        }, "jmh-result-stream");
+        thread.setDaemon(true);
+        thread.start();
+        queue.add("{\"event\":\"run\",\"time\":" + System.currentTimeMillis() + "}");
+    }
+
+    /**
+     * Gets the file.
+     *
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Gets the first write error.
+     *
+     * @return the error, null if all lines were written
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.openjdk.jmh.runner.ListeningOutputFormat.Adapter#iterationResult(org.openjdk.jmh.infra.
+     * BenchmarkParams, org.openjdk.jmh.infra.IterationParams, int, org.openjdk.jmh.results.IterationResult)
+     */
+    @Override
+    public void iterationResult(BenchmarkParams benchParams, IterationParams params, int iteration,
+            IterationResult data) {
+        StringBuilder sb = head("iteration", benchParams);
+        sb.append(",\"type\":").append(JsonWriter.quote(params.getType().name().toLowerCase()));
+        sb.append(",\"iteration\":").append(iteration);
+        result(sb, data.getPrimaryResult());
+        secondary(sb, data.getSecondaryResults());
+        queue.add(sb.append('}').toString());
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.openjdk.jmh.runner.ListeningOutputFormat.Adapter#endFork(org.openjdk.jmh.results.BenchmarkResult, int)
+     */
+    @Override
+    public void endFork(BenchmarkResult result, int fork) {
+        StringBuilder sb = head("fork", result.getParams());
+        sb.append(",\"fork\":").append(fork);
+        result(sb, result.getPrimaryResult());
+        sb.append(",\"iterations\":[");
+        boolean first = true;
+        for (IterationResult ir : result.getIterationResults()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append(JsonWriter.number(ir.getPrimaryResult().getScore()));
+        }
+        sb.append(']');
+        secondary(sb, result.getSecondaryResults());
+        queue.add(sb.append('}').toString());
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.openjdk.jmh.runner.ListeningOutputFormat.Adapter#endBenchmark(org.openjdk.jmh.results.BenchmarkResult)
+     */
+    @Override
+    public void endBenchmark(BenchmarkResult result) {
+        if (result == null) {
+            return;
+        }
+        StringBuilder sb = head("benchmark", result.getParams());
+        result(sb, result.getPrimaryResult());
+        secondary(sb, result.getSecondaryResults());
+        queue.add(sb.append('}').toString());
+    }
+
+    /**
+     * Write the queued lines and stop.
+     */
+    @Override
+    public void close() {
+        queue.add(END);
+        try {
+            thread.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Write lines until the end, flushing when the queue runs empty.
+     *
+     * @param writer the writer
+     */
+    private void drain(Writer writer) {
+        try {
+            while (true) {
+                String line = queue.take();
+                while (line != null && line != END) {
+                    if (error == null) {
+                        try {
+                            writer.write(line);
+                            writer.write('\n');
+                        } catch (IOException e) {
+                            error = e;
+                        }
+                    }
+                    line = queue.poll();
+                }
+                if (error == null) {
+                    try {
+                        writer.flush();
+                    } catch (IOException e) {
+                        error = e;
+                    }
+                }
+                if (line == END) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Start a line with the event, time and benchmark.
+     *
+     * @param event the event
+     * @param params the params
+     * @return the string builder
+     */
+    private static StringBuilder head(String event, BenchmarkParams params) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"event\":\"").append(event).append('"');
+        sb.append(",\"time\":").append(System.currentTimeMillis());
+        sb.append(",\"benchmark\":").append(JsonWriter.quote(params.getBenchmark()));
+        sb.append(",\"mode\":").append(JsonWriter.quote(params.getMode().shortLabel()));
+        sb.append(",\"params\":{");
+        boolean first = true;
+        for (String key : params.getParamsKeys()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append(JsonWriter.quote(key)).append(':').append(JsonWriter.quote(params.getParam(key)));
+        }
+        return sb.append('}');
+    }
+
+    /**
+     * Append score, error, unit and sample count of a result.
+     *
+     * @param sb the sb
+     * @param result the result
+     */
+    private static void result(StringBuilder sb, Result result) {
+        sb.append(",\"score\":").append(JsonWriter.number(result.getScore()));
+        sb.append(",\"error\":").append(JsonWriter.number(result.getScoreError()));
+        sb.append(",\"unit\":").append(JsonWriter.quote(result.getScoreUnit()));
+        sb.append(",\"samples\":").append(result.getSampleCount());
+    }
+
+    /**
+     * Append the secondary results.
+     *
+     * @param sb the sb
+     * @param secondary the secondary results
+     */
+    private static void secondary(StringBuilder sb, Map<String, Result> secondary) {
+        if (secondary.isEmpty()) {
+            return;
+        }
+        sb.append(",\"secondary\":{");
+        boolean first = true;
+        for (Map.Entry<String, Result> e : secondary.entrySet()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append(JsonWriter.quote(e.getKey())).append(":{\"score\":")
+                    .append(JsonWriter.number(e.getValue().getScore())).append(",\"unit\":")
+                    .append(JsonWriter.quote(e.getValue().getScoreUnit())).append('}');
+        }
+        sb.append('}');
+    }
+}
@@ -0,0 +1,308 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON reader for JMH result files. Objects become {@link LinkedHashMap}s in document order, arrays
+ * {@link ArrayList}s, numbers {@link Double}s; strings, booleans and null map to themselves.
+ */
+public final class JsonParser {
+
+    /** The text. */
+    private final String text;
+
+    /** The position. */
+    private int pos;
+
+    /**
+     * Instantiates a new json parser.
+     *
+     * @param text the text
+     */
+    private JsonParser(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Parse a JSON file.
+     *
+     * @param file the file
+     * @return the value
+     * @throws IOException if the file can not be read or is not valid JSON
+     */
+    public static Object parse(File file) throws IOException {
+        String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        try {
+            return parse(text);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parse a JSON text.
+     *
+     * @param text the text
+     * @return the value
+     * @throws IllegalArgumentException if the text is not valid JSON
+     */
+    public static Object parse(String text) {
+        JsonParser parser = new JsonParser(text);
+        Object value = parser.value();
+        parser.skipWhitespace();
+        if (parser.pos != text.length()) {
+            throw parser.error("trailing characters");
+        }
+        return value;
+    }
+
+    /**
+     * Number of a JMH result field, which writes NaN and infinities as strings.
+     *
+     * @param value the value
+     * @return the number, NaN if it is none
+     */
+    public static double toDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Double.parseDouble((String) value);
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Value.
+     *
+     * @return the object
+     */
+    private Object value() {
+        skipWhitespace();
+        if (pos >= text.length()) {
+            throw error("unexpected end");
+        }
+        char c = text.charAt(pos);
+        switch (c) {
+            case '{':
+                return object();
+            case '[':
+                return array();
+            case '"':
+                return string();
+            case 't':
+                return literal("true", Boolean.TRUE);
+            case 'f':
+                return literal("false", Boolean.FALSE);
+            case 'n':
+                return literal("null", null);
+            default:
+                return number();
+        }
+    }
+
+    /**
+     * Object.
+     *
+     * @return the map
+     */
+    private Map<String, Object> object() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        pos++;
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return map;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("expected a member name");
+            }
+            String key = string();
+            skipWhitespace();
+            expect(':');
+            map.put(key, value());
+            skipWhitespace();
+            char c = next();
+            if (c == '}') {
+                return map;
+            } else if (c != ',') {
+                throw error("expected , or }");
+            }
+        }
+    }
+
+    /**
+     * Array.
+     *
+     * @return the list
+     */
+    private List<Object> array() {
+        List<Object> list = new ArrayList<>();
+        pos++;
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return list;
+        }
+        while (true) {
+            list.add(value());
+            skipWhitespace();
+            char c = next();
+            if (c == ']') {
+                return list;
+            } else if (c != ',') {
+                throw error("expected , or ]");
+            }
+        }
+    }
+
+    /**
+     * String.
+     *
+     * @return the string
+     */
+    private String string() {
+        pos++;
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            char c = next();
+            if (c == '"') {
+                return sb.toString();
+            } else if (c == '\\') {
+                char e = next();
+                switch (e) {
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw error("bad unicode escape");
+                        }
+                        sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default:
+                        sb.append(e);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+
+    /**
+     * Number.
+     *
+     * @return the double
+     */
+    private Double number() {
+        int start = pos;
+        while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+            pos++;
+        }
+        if (start == pos) {
+            throw error("unexpected character '" + text.charAt(pos) + "'");
+        }
+        try {
+            return Double.valueOf(text.substring(start, pos));
+        } catch (NumberFormatException e) {
+            throw error("bad number " + text.substring(start, pos));
+        }
+    }
+
+    /**
+     * Literal.
+     *
+     * @param word the word
+     * @param value the value
+     * @return the object
+     */
+    private Object literal(String word, Object value) {
+        if (!text.startsWith(word, pos)) {
+            throw error("unexpected character '" + text.charAt(pos) + "'");
+        }
+        pos += word.length();
+        return value;
+    }
+
+    /**
+     * Skip whitespace.
+     */
+    private void skipWhitespace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    /**
+     * Peek.
+     *
+     * @return the char
+     */
+    private char peek() {
+        if (pos >= text.length()) {
+            throw error("unexpected end");
+        }
+        return text.charAt(pos);
+    }
+
+    /**
+     * Next.
+     *
+     * @return the char
+     */
+    private char next() {
+        char c = peek();
+        pos++;
+        return c;
+    }
+
+    /**
+     * Expect.
+     *
+     * @param c the c
+     */
+    private void expect(char c) {
+        if (next() != c) {
+            throw error("expected " + c);
+        }
+    }
+
+    /**
+     * Error.
+     *
+     * @param message the message
+     * @return the illegal argument exception
+     */
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Invalid JSON at offset " + pos + ": " + message);
+    }
+}
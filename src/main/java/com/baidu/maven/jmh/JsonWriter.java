@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+/**
+ * Minimal JSON value formatting for the reports and sinks of the plugin, the counterpart of {@link JsonParser}.
+ */
+public final class JsonWriter {
+
+    /**
+     * Instantiates a new json writer.
+     */
+    private JsonWriter() {
+    }
+
+    /**
+     * Quote a string. A "&lt;/" is escaped as well, so the text can be embedded in an HTML script element.
+     *
+     * @param s the string, may be null
+     * @return the JSON string, or null
+     */
+    public static String quote(String s) {
+        if (s == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '/':
+                    sb.append(i > 0 && s.charAt(i - 1) == '<' ? "\\/" : "/");
+                    break;
+                default:
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Format a number. JSON has no NaN and infinities, they become null.
+     *
+     * @param d the number
+     * @return the JSON number, or null
+     */
+    public static String number(double d) {
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            return "null";
+        }
+        if (d == Math.rint(d) && Math.abs(d) < 1e15) {
+            return Long.toString((long) d);
+        }
+        return Double.toString(d);
+    }
+}
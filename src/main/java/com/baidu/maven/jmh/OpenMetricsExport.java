@@ -0,0 +1,262 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+
+/**
+ * Writes the results of a run in the OpenMetrics text format, for the monitoring stack of the production metrics:
+ * score, score error, percentiles and secondary results of every benchmark as gauges, labelled with benchmark, mode,
+ * unit, params, JVM and commit. The file only uses gauges, HELP and TYPE lines, so it is valid Prometheus text format
+ * 0.0.4 as well and can be pushed to a Pushgateway as is.
+ */
+public class OpenMetricsExport {
+
+    /** The Constant CONTENT_TYPE, of a push. */
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /** The Constant JMH_PERCENTILES, which JMH reports for every benchmark. */
+    private static final double[] JMH_PERCENTILES = {0, 50, 90, 95, 99, 99.9, 99.99, 100};
+
+    /** The percentiles to export. */
+    private final SortedSet<Double> percentiles = new TreeSet<Double>();
+
+    /** The commit, may be null. */
+    private final String commit;
+
+    /**
+     * Instantiates a new open metrics export.
+     *
+     * @param percentiles more percentiles to export next to the ones of JMH
+     * @param commit the git commit of the run, may be null
+     */
+    public OpenMetricsExport(double[] percentiles, String commit) {
+        for (double p : JMH_PERCENTILES) {
+            this.percentiles.add(p);
+        }
+        for (double p : percentiles) {
+            this.percentiles.add(p);
+        }
+        this.commit = commit;
+    }
+
+    /**
+     * Write the metrics of a run.
+     *
+     * @param file the file
+     * @param results the results
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void write(File file, Collection<RunResult> results) throws IOException {
+        List<String> score = new ArrayList<String>();
+        List<String> error = new ArrayList<String>();
+        List<String> samples = new ArrayList<String>();
+        List<String> percentile = new ArrayList<String>();
+        List<String> secondary = new ArrayList<String>();
+        List<String> secondaryError = new ArrayList<String>();
+
+        for (RunResult result : results) {
+            Result primary = result.getPrimaryResult();
+            Map<String, String> labels = labels(result.getParams(), primary.getScoreUnit());
+            score.add(sample("jmh_score", labels, primary.getScore()));
+            error.add(sample("jmh_score_error", labels, primary.getScoreError()));
+            samples.add(sample("jmh_score_samples", labels, primary.getSampleCount()));
+            for (double p : percentiles) {
+                Map<String, String> l = new LinkedHashMap<String, String>(labels);
+                l.put("percentile", new BigDecimal(String.valueOf(p)).stripTrailingZeros().toPlainString());
+                percentile.add(sample("jmh_score_percentile", l, primary.getStatistics().getPercentile(p)));
+            }
+
+            String percentilePrefix = primary.getLabel() + "·p";
+            for (Map.Entry<String, Result> e : result.getSecondaryResults().entrySet()) {
+                if (e.getKey().startsWith(percentilePrefix)) {
+                    // already a percentile of the primary score
+                    continue;
+                }
+                Result r = e.getValue();
+                Map<String, String> l = labels(result.getParams(), r.getScoreUnit());
+                l.put("metric", e.getKey().startsWith("·") ? e.getKey().substring(1) : e.getKey());
+                secondary.add(sample("jmh_secondary_score", l, r.getScore()));
+                secondaryError.add(sample("jmh_secondary_score_error", l, r.getScoreError()));
+            }
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer w = new OutputStreamWriter(Files.newOutputStream(tmp.toPath()), StandardCharsets.UTF_8)) {
+            family(w, "jmh_score", "Primary score of the benchmark, in the unit of the unit label.", score);
+            family(w, "jmh_score_error", "Error of the primary score at 99.9% confidence.", error);
+            family(w, "jmh_score_samples", "Number of samples of the primary score.", samples);
+            family(w, "jmh_score_percentile", "Percentile of the samples of the primary score.", percentile);
+            family(w, "jmh_secondary_score", "Secondary result of the benchmark, e.g. of a profiler.", secondary);
+            family(w, "jmh_secondary_score_error", "Error of the secondary result.", secondaryError);
+            w.write("# EOF\n");
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * POST a metrics file to a Pushgateway compatible endpoint, e.g. http://host:9091/metrics/job/jmh. A POST only
+     * replaces the metrics of the same names in the group.
+     *
+     * @param file the file
+     * @param url the url
+     * @param timeoutMs the connect and read timeout in ms
+     * @return the HTTP status
+     * @throws IOException if the endpoint can not be reached or does not answer with 2xx
+     */
+    public static int push(File file, URL url, int timeoutMs) throws IOException {
+        byte[] body = Files.readAllBytes(file.toPath());
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(timeoutMs);
+            connection.setReadTimeout(timeoutMs);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", CONTENT_TYPE);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            int status = connection.getResponseCode();
+            if (status / 100 != 2) {
+                throw new IOException("HTTP " + status + " " + connection.getResponseMessage() + ": "
+                        + message(connection.getErrorStream()));
+            }
+            return status;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * The labels of a benchmark.
+     *
+     * @param params the params
+     * @param unit the unit
+     * @return the labels
+     */
+    private Map<String, String> labels(BenchmarkParams params, String unit) {
+        Map<String, String> labels = new LinkedHashMap<String, String>();
+        labels.put("benchmark", params.getBenchmark());
+        labels.put("mode", params.getMode().shortLabel());
+        labels.put("unit", unit);
+        for (String key : params.getParamsKeys()) {
+            labels.put("param_" + key.replaceAll("[^A-Za-z0-9_]", "_"), params.getParam(key));
+        }
+        labels.put("jvm", params.getJdkVersion());
+        if (!StringUtils.isEmpty(commit)) {
+            labels.put("commit", commit);
+        }
+        return labels;
+    }
+
+    /**
+     * Write a metric family, nothing if it has no samples.
+     *
+     * @param w the w
+     * @param name the name
+     * @param help the help
+     * @param samples the samples
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static void family(Writer w, String name, String help, List<String> samples) throws IOException {
+        if (samples.isEmpty()) {
+            return;
+        }
+        w.write("# TYPE " + name + " gauge\n");
+        w.write("# HELP " + name + " " + help + "\n");
+        for (String sample : samples) {
+            w.write(sample);
+        }
+    }
+
+    /**
+     * Format a sample line.
+     *
+     * @param name the name
+     * @param labels the labels
+     * @param value the value
+     * @return the line
+     */
+    static String sample(String name, Map<String, String> labels, double value) {
+        StringBuilder sb = new StringBuilder(name).append('{');
+        boolean first = true;
+        for (Map.Entry<String, String> e : labels.entrySet()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append(e.getKey()).append("=\"").append(escape(e.getValue())).append('"');
+        }
+        sb.append("} ");
+        if (Double.isNaN(value)) {
+            sb.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            sb.append(value > 0 ? "+Inf" : "-Inf");
+        } else {
+            sb.append(value);
+        }
+        return sb.append('\n').toString();
+    }
+
+    /**
+     * Escape a label value.
+     *
+     * @param value the value
+     * @return the escaped value
+     */
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Read the message of an error response.
+     *
+     * @param in the error stream, may be null
+     * @return the message
+     */
+    private static String message(InputStream in) {
+        if (in == null) {
+            return "";
+        }
+        try {
+            byte[] buf = new byte[512];
+            int n = in.read(buf);
+            return n > 0 ? new String(buf, 0, n, StandardCharsets.UTF_8).trim() : "";
+        } catch (IOException e) {
+            return "";
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
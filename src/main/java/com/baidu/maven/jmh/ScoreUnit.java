@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Conversion between JMH score units like "ops/s" or "us/op", so results measured with different time units can be
+ * compared.
+ */
+public final class ScoreUnit {
+
+    /** Nanoseconds per time unit, by JMH unit label. */
+    private static final Map<String, Double> NANOS;
+
+    static {
+        NANOS = new HashMap<String, Double>();
+        NANOS.put("ns", 1d);
+        NANOS.put("us", 1e3);
+        NANOS.put("ms", 1e6);
+        NANOS.put("s", 1e9);
+        NANOS.put("min", 60e9);
+        NANOS.put("hr", 3600e9);
+        NANOS.put("day", 86400e9);
+    }
+
+    /**
+     * Instantiates a new score unit.
+     */
+    private ScoreUnit() {
+    }
+
+    /**
+     * Factor to multiply a score with to convert it from one unit to the other.
+     *
+     * @param from the unit of the score, e.g. "ops/ms"
+     * @param to the wanted unit, e.g. "ops/s"
+     * @return the factor, NaN if the units can not be converted
+     */
+    public static double factor(String from, String to) {
+        if (from.equals(to)) {
+            return 1;
+        }
+        String[] f = from.split("/", 2);
+        String[] t = to.split("/", 2);
+        if (f.length != 2 || t.length != 2) {
+            return Double.NaN;
+        }
+
+        // time per operation, e.g. us/op
+        if (f[1].equals(t[1]) && NANOS.containsKey(f[0]) && NANOS.containsKey(t[0])) {
+            return NANOS.get(f[0]) / NANOS.get(t[0]);
+        }
+        // operations per time, e.g. ops/s
+        if (f[0].equals(t[0]) && NANOS.containsKey(f[1]) && NANOS.containsKey(t[1])) {
+            return NANOS.get(t[1]) / NANOS.get(f[1]);
+        }
+        return Double.NaN;
+    }
+}
@@ -20,18 +20,19 @@ package com.baidu.maven.jmh;
  */
 
 /**
- * Determines whether a path is selected for deletion. The pathnames used for method parameters will be relative to some
- * base directory and use {@link java.io.File#separatorChar} as separator.
+ * Determines whether a path is selected. The pathnames used for method parameters will be relative to some base
+ * directory and use {@link java.io.File#separatorChar} as separator, or be benchmark names with their class and
+ * package as parents, see {@link BenchmarkSelector}.
  * 
  * @author Benjamin Bentmann
  */
-interface Selector {
+public interface Selector {
 
     /**
-     * Determines whether a path is selected for deletion.
+     * Determines whether a path is selected.
      * 
      * @param pathname The pathname to test, must not be <code>null</code>.
-     * @return <code>true</code> if the given path is selected for deletion, <code>false</code> otherwise.
+     * @return <code>true</code> if the given path is selected, <code>false</code> otherwise.
      */
     boolean isSelected(String pathname);
 
@@ -0,0 +1,272 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * An absolute service level of the POM: the benchmarks whose name matches the pattern, and whose params and mode have
+ * the given values, must reach a minimum score, stay under a maximum score or keep a percentile under a maximum. The
+ * limits are in the given unit, the results are converted to it whatever time unit the run uses.
+ *
+ * <pre>
+ * &lt;slas&gt;
+ *   &lt;sla&gt;
+ *     &lt;benchmark&gt;CodecBenchmark.encode&lt;/benchmark&gt;
+ *     &lt;minScore&gt;2000000&lt;/minScore&gt;
+ *     &lt;unit&gt;ops/s&lt;/unit&gt;
+ *   &lt;/sla&gt;
+ *   &lt;sla&gt;
+ *     &lt;benchmark&gt;MapBenchmark.lookup&lt;/benchmark&gt;
+ *     &lt;params&gt;&lt;size&gt;1000&lt;/size&gt;&lt;/params&gt;
+ *     &lt;mode&gt;sample&lt;/mode&gt;
+ *     &lt;percentile&gt;99&lt;/percentile&gt;
+ *     &lt;maxPercentile&gt;800&lt;/maxPercentile&gt;
+ *     &lt;unit&gt;ns/op&lt;/unit&gt;
+ *   &lt;/sla&gt;
+ * &lt;/slas&gt;
+ * </pre>
+ */
+public class Sla {
+
+    /** The regular expression, found in the benchmark name. */
+    private String benchmark;
+
+    /** The params a benchmark must have, all of them. */
+    private Map<String, String> params = new HashMap<String, String>();
+
+    /** The mode a benchmark must run in, e.g. "thrpt" or "sample", any if empty. */
+    private String mode;
+
+    /** The minimum score. */
+    private Double minScore;
+
+    /** The maximum score. */
+    private Double maxScore;
+
+    /** The percentile, e.g. 99. */
+    private Double percentile;
+
+    /** The maximum value of the percentile. */
+    private Double maxPercentile;
+
+    /** The unit of the limits, e.g. "ops/s" or "ns/op", the unit of the result if empty. */
+    private String unit;
+
+    /** The compiled pattern. */
+    private Pattern pattern;
+
+    /** The parsed mode, null for any. */
+    private Mode parsedMode;
+
+    /**
+     * Gets the benchmark pattern.
+     *
+     * @return the benchmark pattern
+     */
+    public String getBenchmark() {
+        return benchmark;
+    }
+
+    /**
+     * Sets the benchmark pattern.
+     *
+     * @param benchmark the new benchmark pattern
+     */
+    public void setBenchmark(String benchmark) {
+        this.benchmark = benchmark;
+        this.pattern = null;
+    }
+
+    /**
+     * Gets the mode.
+     *
+     * @return the mode, null for any
+     */
+    public String getMode() {
+        return mode;
+    }
+
+    /**
+     * Sets the mode.
+     *
+     * @param mode the new mode, e.g. "thrpt" or "sample"
+     */
+    public void setMode(String mode) {
+        this.mode = mode;
+        this.pattern = null;
+    }
+
+    /**
+     * Gets the params.
+     *
+     * @return the params
+     */
+    public Map<String, String> getParams() {
+        return params;
+    }
+
+    /**
+     * Sets the params.
+     *
+     * @param params the params
+     */
+    public void setParams(Map<String, String> params) {
+        this.params = params != null ? params : new HashMap<String, String>();
+    }
+
+    /**
+     * Gets the minimum score.
+     *
+     * @return the minimum score, null if none
+     */
+    public Double getMinScore() {
+        return minScore;
+    }
+
+    /**
+     * Sets the minimum score.
+     *
+     * @param minScore the new minimum score
+     */
+    public void setMinScore(Double minScore) {
+        this.minScore = minScore;
+    }
+
+    /**
+     * Gets the maximum score.
+     *
+     * @return the maximum score, null if none
+     */
+    public Double getMaxScore() {
+        return maxScore;
+    }
+
+    /**
+     * Sets the maximum score.
+     *
+     * @param maxScore the new maximum score
+     */
+    public void setMaxScore(Double maxScore) {
+        this.maxScore = maxScore;
+    }
+
+    /**
+     * Gets the percentile.
+     *
+     * @return the percentile, null if none
+     */
+    public Double getPercentile() {
+        return percentile;
+    }
+
+    /**
+     * Sets the percentile.
+     *
+     * @param percentile the new percentile, between 0 and 100
+     */
+    public void setPercentile(Double percentile) {
+        this.percentile = percentile;
+    }
+
+    /**
+     * Gets the maximum value of the percentile.
+     *
+     * @return the maximum, null if none
+     */
+    public Double getMaxPercentile() {
+        return maxPercentile;
+    }
+
+    /**
+     * Sets the maximum value of the percentile.
+     *
+     * @param maxPercentile the new maximum
+     */
+    public void setMaxPercentile(Double maxPercentile) {
+        this.maxPercentile = maxPercentile;
+    }
+
+    /**
+     * Gets the unit.
+     *
+     * @return the unit
+     */
+    public String getUnit() {
+        return unit;
+    }
+
+    /**
+     * Sets the unit.
+     *
+     * @param unit the new unit
+     */
+    public void setUnit(String unit) {
+        this.unit = unit;
+    }
+
+    /**
+     * Compile the pattern and parse the mode.
+     *
+     * @throws IllegalArgumentException if the pattern or the mode is invalid, or a percentile is given for a mode
+     *             other than sample time
+     */
+    void compile() {
+        try {
+            pattern = Pattern.compile(StringUtils.isEmpty(benchmark) ? ".*" : benchmark);
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException("SLA " + this + " has an invalid benchmark pattern: "
+                    + e.getDescription(), e);
+        }
+        try {
+            parsedMode = StringUtils.isEmpty(mode) ? null : Mode.deepValueOf(mode.trim());
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("SLA " + this + " has an unknown mode: " + mode, e);
+        }
+        if (percentile != null && parsedMode != null && parsedMode != Mode.SampleTime) {
+            throw new IllegalArgumentException("SLA " + this + " has a percentile, which needs the mode "
+                    + Mode.SampleTime.shortLabel() + ", not " + parsedMode.shortLabel());
+        }
+    }
+
+    /**
+     * If the level applies to a benchmark.
+     *
+     * @param benchmarkParams the benchmark params
+     * @return true, if name, mode and params match
+     */
+    public boolean matches(BenchmarkParams benchmarkParams) {
+        if (pattern == null) {
+            compile();
+        }
+        if (!pattern.matcher(benchmarkParams.getBenchmark()).find()) {
+            return false;
+        }
+        if (parsedMode != null && parsedMode != benchmarkParams.getMode()) {
+            return false;
+        }
+        for (Map.Entry<String, String> e : params.entrySet()) {
+            if (!e.getValue().equals(benchmarkParams.getParam(e.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return benchmark + (params.isEmpty() ? "" : " " + params) + (StringUtils.isEmpty(mode) ? "" : " " + mode);
+    }
+}
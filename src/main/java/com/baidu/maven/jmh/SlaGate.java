@@ -0,0 +1,279 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.ExBenchmarkParams;
+
+/**
+ * Checks the results of a run against absolute service levels: minimum and maximum scores and maximum percentiles,
+ * in the unit of each level. Unlike the baseline comparison, this needs no earlier run and no statistics: a level is
+ * violated when the mean score, or the percentile of the samples, is on the wrong side of the limit.
+ * <p>
+ * A level without mode that matches a benchmark run in several modes, e.g. throughput and sample time, applies to the
+ * modes whose score converts to its unit only.
+ * <p>
+ * Percentiles are only checked on sample time results: the statistics of the other modes are of iteration scores,
+ * not of single operations. A percentile level that matches no sample time result is a violation.
+ */
+public class SlaGate {
+
+    /** The levels. */
+    private final List<Sla> slas;
+
+    /** The levels that matched no benchmark in the last check. */
+    private final List<Sla> unmatched = new ArrayList<Sla>();
+
+    /** The number of checks in the last check. */
+    private int checked;
+
+    /**
+     * Instantiates a new sla gate.
+     *
+     * @param slas the levels, may be null
+     * @throws IllegalArgumentException if a level is invalid
+     */
+    public SlaGate(List<Sla> slas) {
+        this.slas = slas != null ? slas : new ArrayList<Sla>();
+        for (Sla sla : this.slas) {
+            sla.compile();
+            if (sla.getMinScore() == null && sla.getMaxScore() == null && sla.getMaxPercentile() == null) {
+                throw new IllegalArgumentException("SLA " + sla + " has no minScore, maxScore or maxPercentile");
+            }
+            if ((sla.getPercentile() == null) != (sla.getMaxPercentile() == null)) {
+                throw new IllegalArgumentException("SLA " + sla + " needs both percentile and maxPercentile");
+            }
+            if (sla.getPercentile() != null && !(sla.getPercentile() > 0 && sla.getPercentile() <= 100)) {
+                throw new IllegalArgumentException("SLA " + sla + " has a percentile out of (0, 100]: "
+                        + sla.getPercentile());
+            }
+        }
+    }
+
+    /**
+     * If there is any level.
+     *
+     * @return true, if there are levels
+     */
+    public boolean hasSlas() {
+        return !slas.isEmpty();
+    }
+
+    /**
+     * Check the results against all levels that apply to them.
+     *
+     * @param results the results
+     * @return the violations
+     */
+    public List<Violation> check(Collection<RunResult> results) {
+        unmatched.clear();
+        checked = 0;
+        List<Violation> violations = new ArrayList<Violation>();
+        for (Sla sla : slas) {
+            List<RunResult> matched = new ArrayList<RunResult>();
+            List<RunResult> convertible = new ArrayList<RunResult>();
+            for (RunResult result : results) {
+                if (sla.matches(result.getParams())) {
+                    matched.add(result);
+                    double factor = ScoreUnit.factor(result.getPrimaryResult().getScoreUnit(), unitOf(sla, result));
+                    if (!Double.isNaN(factor)) {
+                        convertible.add(result);
+                    }
+                }
+            }
+            if (matched.isEmpty()) {
+                unmatched.add(sla);
+            }
+            // other modes of the same benchmarks are not meant, unless no mode fits the unit at all
+            List<RunResult> applied = convertible.isEmpty() ? matched : convertible;
+            List<RunResult> sampled = new ArrayList<RunResult>();
+            for (RunResult result : applied) {
+                if (result.getParams().getMode() == Mode.SampleTime) {
+                    sampled.add(result);
+                }
+            }
+            if (sla.getMaxPercentile() != null && sla.getMinScore() == null && sla.getMaxScore() == null
+                    && !sampled.isEmpty()) {
+                applied = sampled;
+            }
+            for (RunResult result : applied) {
+                check(sla, result, sampled.isEmpty(), violations);
+            }
+        }
+        return violations;
+    }
+
+    /**
+     * The unit of a level for a result.
+     *
+     * @param sla the level
+     * @param result the result
+     * @return the unit of the level, or of the result if the level has none
+     */
+    private static String unitOf(Sla sla, RunResult result) {
+        return StringUtils.isEmpty(sla.getUnit()) ? result.getPrimaryResult().getScoreUnit() : sla.getUnit();
+    }
+
+    /**
+     * Check one result against one level.
+     *
+     * @param sla the level
+     * @param result the result
+     * @param unsampled true, if the level matches no sample time result
+     * @param violations the violations to add to
+     */
+    private void check(Sla sla, RunResult result, boolean unsampled, List<Violation> violations) {
+        String label = ExBenchmarkParams.label(result.getParams());
+        Result primary = result.getPrimaryResult();
+        String unit = unitOf(sla, result);
+        double factor = ScoreUnit.factor(primary.getScoreUnit(), unit);
+        checked++;
+        if (Double.isNaN(factor)) {
+            violations.add(new Violation(label, "unit " + primary.getScoreUnit(), Double.NaN, Double.NaN, unit));
+            return;
+        }
+
+        double score = primary.getScore() * factor;
+        if (sla.getMinScore() != null && !(score >= sla.getMinScore())) {
+            violations.add(new Violation(label, "min score", sla.getMinScore(), score, unit));
+        }
+        if (sla.getMaxScore() != null && !(score <= sla.getMaxScore())) {
+            violations.add(new Violation(label, "max score", sla.getMaxScore(), score, unit));
+        }
+        if (sla.getMaxPercentile() != null && unsampled) {
+            violations.add(new Violation(label, "max p" + number(sla.getPercentile()), sla.getMaxPercentile(),
+                    Double.NaN, unit));
+        } else if (sla.getMaxPercentile() != null && result.getParams().getMode() == Mode.SampleTime) {
+            double value = primary.getStatistics().getPercentile(sla.getPercentile()) * factor;
+            if (!(value <= sla.getMaxPercentile())) {
+                violations.add(new Violation(label, "max p" + number(sla.getPercentile()), sla.getMaxPercentile(),
+                        value, unit));
+            }
+        }
+    }
+
+    /**
+     * Gets the levels that matched no benchmark in the last check.
+     *
+     * @return the unmatched
+     */
+    public List<Sla> getUnmatched() {
+        return unmatched;
+    }
+
+    /**
+     * Gets the number of benchmark and level pairs of the last check.
+     *
+     * @return the checked
+     */
+    public int getChecked() {
+        return checked;
+    }
+
+    /**
+     * Format violations as a table.
+     *
+     * @param violations the violations
+     * @return the table
+     */
+    public static String table(List<Violation> violations) {
+        int width = "Benchmark".length();
+        for (Violation v : violations) {
+            width = Math.max(width, v.label.length());
+        }
+        StringBuilder sb = new StringBuilder();
+        String row = "%-" + width + "s %-14s %16s %16s %-8s%n";
+        sb.append(String.format(row, "Benchmark", "SLA", "Limit", "Actual", "Unit"));
+        for (Violation v : violations) {
+            sb.append(String.format(row, v.label, v.check, number(v.limit), number(v.actual), v.unit));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Format a number without needless digits.
+     *
+     * @param d the d
+     * @return the string
+     */
+    private static String number(double d) {
+        if (Double.isNaN(d)) {
+            return "-";
+        }
+        String s = String.format(Locale.ROOT, "%.3f", d);
+        s = s.replaceAll("0+$", "");
+        return s.endsWith(".") ? s.substring(0, s.length() - 1) : s;
+    }
+
+    /**
+     * A benchmark on the wrong side of a limit.
+     */
+    public static class Violation {
+
+        /** The label. */
+        private final String label;
+
+        /** The check, e.g. "min score" or "max p99". */
+        private final String check;
+
+        /** The limit. */
+        private final double limit;
+
+        /** The actual value, in the unit of the limit. */
+        private final double actual;
+
+        /** The unit. */
+        private final String unit;
+
+        /**
+         * Instantiates a new violation.
+         *
+         * @param label the label
+         * @param check the check
+         * @param limit the limit
+         * @param actual the actual
+         * @param unit the unit
+         */
+        Violation(String label, String check, double limit, double actual, String unit) {
+            this.label = label;
+            this.check = check;
+            this.limit = limit;
+            this.actual = actual;
+            this.unit = unit;
+        }
+
+        /**
+         * Gets the label.
+         *
+         * @return the label
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * A description of the violation.
+         *
+         * @return the message
+         */
+        public String getMessage() {
+            if (Double.isNaN(limit)) {
+                return "SLA in " + unit + " can not be checked against a score in " + check.substring(5);
+            }
+            if (Double.isNaN(actual)) {
+                return String.format(Locale.ROOT, "SLA %s %s %s needs a result in mode %s", check, number(limit), unit,
+                        Mode.SampleTime.shortLabel());
+            }
+            return String.format(Locale.ROOT, "SLA %s %s %s, actual %s %s", check, number(limit), unit,
+                    number(actual), unit);
+        }
+    }
+}
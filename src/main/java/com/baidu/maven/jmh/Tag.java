@@ -0,0 +1,31 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The tags of a benchmark method, or of all benchmarks of a class, e.g. {@code @Tag({"hot-path", "codec"})}. The
+ * tags of method and class add up. They select benchmarks by a tag expression and pick their tag policy.
+ * <p>
+ * The plugin looks the annotation up by its simple name, so a project that does not want to depend on the plugin can
+ * declare a Tag annotation with a String or String[] value() and runtime retention; a Tags annotation holding such
+ * tags, like the one of JUnit 5, works as well.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface Tag {
+
+    /**
+     * The tags.
+     *
+     * @return the tags
+     */
+    String[] value();
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+import java.util.Set;
+
+/**
+ * A boolean expression over the tags of a benchmark, e.g. "hot-path &amp; !slow" or "(codec | io) &amp; !flaky". A
+ * tag is a word of letters, digits and "-", "_", "." or ":"; "!" binds tighter than "&amp;", which binds tighter
+ * than "|".
+ */
+public class TagExpression {
+
+    /** The expression as given. */
+    private final String text;
+
+    /** The root node. */
+    private final Node root;
+
+    /** The parse position. */
+    private int pos;
+
+    /**
+     * Parse an expression.
+     *
+     * @param text the text
+     * @throws IllegalArgumentException if it is not a valid expression
+     */
+    public TagExpression(String text) {
+        this.text = text;
+        root = or();
+        skipSpace();
+        if (pos < text.length()) {
+            throw error("unexpected '" + text.charAt(pos) + "'");
+        }
+    }
+
+    /**
+     * If a benchmark with these tags is selected.
+     *
+     * @param tags the tags
+     * @return true, if the expression holds
+     */
+    public boolean matches(Set<String> tags) {
+        return root.matches(tags);
+    }
+
+    /**
+     * Parse alternatives.
+     *
+     * @return the node
+     */
+    private Node or() {
+        Node left = and();
+        while (accept('|')) {
+            final Node l = left;
+            final Node r = and();
+            left = new Node() {
+                @Override
+                public boolean matches(Set<String> tags) {
+                    return l.matches(tags) || r.matches(tags);
+                }
+            };
+        }
+        return left;
+    }
+
+    /**
+     * Parse conjunctions.
+     *
+     * @return the node
+     */
+    private Node and() {
+        Node left = not();
+        while (accept('&')) {
+            final Node l = left;
+            final Node r = not();
+            left = new Node() {
+                @Override
+                public boolean matches(Set<String> tags) {
+                    return l.matches(tags) && r.matches(tags);
+                }
+            };
+        }
+        return left;
+    }
+
+    /**
+     * Parse a negation, a group or a tag.
+     *
+     * @return the node
+     */
+    private Node not() {
+        if (accept('!')) {
+            final Node n = not();
+            return new Node() {
+                @Override
+                public boolean matches(Set<String> tags) {
+                    return !n.matches(tags);
+                }
+            };
+        }
+        if (accept('(')) {
+            Node n = or();
+            if (!accept(')')) {
+                throw error("missing ')'");
+            }
+            return n;
+        }
+        skipSpace();
+        int start = pos;
+        while (pos < text.length() && isTagChar(text.charAt(pos))) {
+            pos++;
+        }
+        if (start == pos) {
+            throw error(pos < text.length() ? "unexpected '" + text.charAt(pos) + "'" : "missing tag at the end");
+        }
+        final String tag = text.substring(start, pos);
+        return new Node() {
+            @Override
+            public boolean matches(Set<String> tags) {
+                return tags.contains(tag);
+            }
+        };
+    }
+
+    /**
+     * Consume a char after optional space.
+     *
+     * @param c the c
+     * @return true, if it was next
+     */
+    private boolean accept(char c) {
+        skipSpace();
+        if (pos < text.length() && text.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Skip white space.
+     */
+    private void skipSpace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    /**
+     * If a char can be part of a tag.
+     *
+     * @param c the c
+     * @return true, if so
+     */
+    static boolean isTagChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == '.' || c == ':';
+    }
+
+    /**
+     * A parse error at the current position.
+     *
+     * @param message the message
+     * @return the exception
+     */
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Invalid tag expression '" + text + "' at " + pos + ": " + message);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * A node of the expression.
+     */
+    private interface Node {
+
+        /**
+         * If the node holds for the tags.
+         *
+         * @param tags the tags
+         * @return true, if so
+         */
+        boolean matches(Set<String> tags);
+    }
+}
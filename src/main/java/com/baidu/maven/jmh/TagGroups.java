@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.openjdk.jmh.runner.BenchmarkListEntry;
+
+/**
+ * Groups benchmarks by their {@link Tag}s: a tag expression selects the benchmarks to run, and the first
+ * {@link TagPolicy} whose tag a benchmark has gives its run settings. A benchmark without tags only matches
+ * expressions like "!slow".
+ */
+public class TagGroups {
+
+    /** The expression, null to select all. */
+    private final TagExpression expression;
+
+    /** The policies, the first matching one applies. */
+    private final List<TagPolicy> policies;
+
+    /** The tags by benchmark name. */
+    private final Map<String, Set<String>> tags;
+
+    /**
+     * Instantiates new tag groups.
+     *
+     * @param expression the tag expression, all benchmarks if empty
+     * @param policies the policies, may be null
+     * @param tags the tags by benchmark name
+     * @throws IllegalArgumentException if the expression is invalid or a policy has no tag
+     */
+    public TagGroups(String expression, List<TagPolicy> policies, Map<String, Set<String>> tags) {
+        this.expression = StringUtils.isEmpty(expression) ? null : new TagExpression(expression);
+        this.policies = policies != null ? policies : new ArrayList<TagPolicy>();
+        this.tags = tags;
+        for (TagPolicy policy : this.policies) {
+            if (StringUtils.isEmpty(policy.getTag())) {
+                throw new IllegalArgumentException("A tag policy has no tag");
+            }
+        }
+    }
+
+    /**
+     * Read the {@link Tag}s of the benchmarks, of the method and its class. Classes are loaded without
+     * initialization; one that can not be loaded has no tags.
+     *
+     * @param entries the benchmarks
+     * @param loader the class loader of the benchmarks
+     * @return the tags by benchmark name, only of benchmarks that have any
+     */
+    public static Map<String, Set<String>> annotatedTags(Collection<BenchmarkListEntry> entries, ClassLoader loader) {
+        Map<String, Set<String>> ret = new HashMap<String, Set<String>>();
+        for (BenchmarkListEntry entry : entries) {
+            String name = entry.getUsername();
+            if (ret.containsKey(name)) {
+                continue;
+            }
+            String methodName = name.substring(name.lastIndexOf('.') + 1);
+            try {
+                Class<?> clazz = Class.forName(entry.getUserClassQName(), false, loader);
+                Set<String> set = new TreeSet<String>();
+                addTags(clazz, set);
+                for (Method method : clazz.getMethods()) {
+                    if (method.getName().equals(methodName)) {
+                        addTags(method, set);
+                        break;
+                    }
+                }
+                if (!set.isEmpty()) {
+                    ret.put(name, set);
+                }
+            } catch (ClassNotFoundException e) {
+                continue;
+            } catch (LinkageError e) {
+                continue;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Add the values of the Tag and Tags annotations, found by their simple names.
+     *
+     * @param element the element
+     * @param set the tags to add to
+     */
+    private static void addTags(AnnotatedElement element, Set<String> set) {
+        for (Annotation annotation : element.getAnnotations()) {
+            String type = annotation.annotationType().getSimpleName();
+            if (type.equals(Tag.class.getSimpleName())) {
+                addValue(value(annotation), set);
+            } else if (type.equals(Tag.class.getSimpleName() + "s")) {
+                Object value = value(annotation);
+                if (value instanceof Annotation[]) {
+                    for (Annotation tag : (Annotation[]) value) {
+                        addValue(value(tag), set);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The value() of an annotation.
+     *
+     * @param annotation the annotation
+     * @return the value, null if it has none
+     */
+    private static Object value(Annotation annotation) {
+        try {
+            return annotation.annotationType().getMethod("value").invoke(annotation);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Add a String or String[] value.
+     *
+     * @param value the value
+     * @param set the tags to add to
+     */
+    private static void addValue(Object value, Set<String> set) {
+        if (value instanceof String) {
+            set.add(((String) value).trim());
+        } else if (value instanceof String[]) {
+            for (String tag : (String[]) value) {
+                set.add(tag.trim());
+            }
+        }
+    }
+
+    /**
+     * Gets the tags of a benchmark.
+     *
+     * @param benchmark the benchmark name
+     * @return the tags, empty if none
+     */
+    public Set<String> tagsOf(String benchmark) {
+        Set<String> set = tags.get(benchmark);
+        return set != null ? set : Collections.<String> emptySet();
+    }
+
+    /**
+     * If the tag expression selects a benchmark.
+     *
+     * @param benchmark the benchmark name
+     * @return true, if selected or there is no expression
+     */
+    public boolean isSelected(String benchmark) {
+        return expression == null || expression.matches(tagsOf(benchmark));
+    }
+
+    /**
+     * If there is any policy.
+     *
+     * @return true, if there are policies
+     */
+    public boolean hasPolicies() {
+        return !policies.isEmpty();
+    }
+
+    /**
+     * The policy of a benchmark.
+     *
+     * @param benchmark the benchmark name
+     * @return the first policy whose tag it has, null if none
+     */
+    public TagPolicy policy(String benchmark) {
+        Set<String> set = tagsOf(benchmark);
+        for (TagPolicy policy : policies) {
+            if (set.contains(policy.getTag())) {
+                return policy;
+            }
+        }
+        return null;
+    }
+}
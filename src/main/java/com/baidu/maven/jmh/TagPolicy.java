@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+/**
+ * A run policy of the POM for the benchmarks with a tag: the settings it gives replace the ones of the plugin
+ * configuration for those benchmarks, the others stay. The first policy whose tag a benchmark has applies.
+ *
+ * <pre>
+ * &lt;tagPolicies&gt;
+ *   &lt;tagPolicy&gt;
+ *     &lt;tag&gt;hot-path&lt;/tag&gt;
+ *     &lt;forks&gt;1&lt;/forks&gt;
+ *     &lt;warmupIterations&gt;2&lt;/warmupIterations&gt;
+ *     &lt;measurementIterations&gt;3&lt;/measurementIterations&gt;
+ *     &lt;measurementTime&gt;1s&lt;/measurementTime&gt;
+ *     &lt;mode&gt;avgt&lt;/mode&gt;
+ *   &lt;/tagPolicy&gt;
+ * &lt;/tagPolicies&gt;
+ * </pre>
+ */
+public class TagPolicy {
+
+    /** The tag. */
+    private String tag;
+
+    /** The forks. */
+    private Integer forks;
+
+    /** The warmup forks. */
+    private Integer warmupForks;
+
+    /** The warmup iterations. */
+    private Integer warmupIterations;
+
+    /** The measurement iterations. */
+    private Integer measurementIterations;
+
+    /** The warmup time, e.g. "1s". */
+    private String warmupTime;
+
+    /** The measurement time, e.g. "1s". */
+    private String measurementTime;
+
+    /** The mode, e.g. "thrpt" or "avgt". */
+    private String mode;
+
+    /**
+     * Gets the tag.
+     *
+     * @return the tag
+     */
+    public String getTag() {
+        return tag;
+    }
+
+    /**
+     * Sets the tag.
+     *
+     * @param tag the new tag
+     */
+    public void setTag(String tag) {
+        this.tag = tag;
+    }
+
+    /**
+     * Gets the forks.
+     *
+     * @return the forks, null to keep
+     */
+    public Integer getForks() {
+        return forks;
+    }
+
+    /**
+     * Sets the forks.
+     *
+     * @param forks the new forks
+     */
+    public void setForks(Integer forks) {
+        this.forks = forks;
+    }
+
+    /**
+     * Gets the warmup forks.
+     *
+     * @return the warmup forks, null to keep
+     */
+    public Integer getWarmupForks() {
+        return warmupForks;
+    }
+
+    /**
+     * Sets the warmup forks.
+     *
+     * @param warmupForks the new warmup forks
+     */
+    public void setWarmupForks(Integer warmupForks) {
+        this.warmupForks = warmupForks;
+    }
+
+    /**
+     * Gets the warmup iterations.
+     *
+     * @return the warmup iterations, null to keep
+     */
+    public Integer getWarmupIterations() {
+        return warmupIterations;
+    }
+
+    /**
+     * Sets the warmup iterations.
+     *
+     * @param warmupIterations the new warmup iterations
+     */
+    public void setWarmupIterations(Integer warmupIterations) {
+        this.warmupIterations = warmupIterations;
+    }
+
+    /**
+     * Gets the measurement iterations.
+     *
+     * @return the measurement iterations, null to keep
+     */
+    public Integer getMeasurementIterations() {
+        return measurementIterations;
+    }
+
+    /**
+     * Sets the measurement iterations.
+     *
+     * @param measurementIterations the new measurement iterations
+     */
+    public void setMeasurementIterations(Integer measurementIterations) {
+        this.measurementIterations = measurementIterations;
+    }
+
+    /**
+     * Gets the warmup time.
+     *
+     * @return the warmup time, null to keep
+     */
+    public String getWarmupTime() {
+        return warmupTime;
+    }
+
+    /**
+     * Sets the warmup time.
+     *
+     * @param warmupTime the new warmup time
+     */
+    public void setWarmupTime(String warmupTime) {
+        this.warmupTime = warmupTime;
+    }
+
+    /**
+     * Gets the measurement time.
+     *
+     * @return the measurement time, null to keep
+     */
+    public String getMeasurementTime() {
+        return measurementTime;
+    }
+
+    /**
+     * Sets the measurement time.
+     *
+     * @param measurementTime the new measurement time
+     */
+    public void setMeasurementTime(String measurementTime) {
+        this.measurementTime = measurementTime;
+    }
+
+    /**
+     * Gets the mode.
+     *
+     * @return the mode, null to keep
+     */
+    public String getMode() {
+        return mode;
+    }
+
+    /**
+     * Sets the mode.
+     *
+     * @param mode the new mode
+     */
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return tag;
+    }
+}
@@ -43,11 +43,26 @@ public class AbstractResourceReader {
     private final String file;
     private final String resource;
     private final String strings;
+    private final ClassLoader loader;
 
     protected AbstractResourceReader(String file, String resource, String strings) {
+        this(file, resource, strings, null);
+    }
+
+    /**
+     * Reads the resource from all roots of a class loader, e.g. one over the class directories and jars of several
+     * modules.
+     *
+     * @param file the file
+     * @param resource the resource
+     * @param strings the strings
+     * @param loader the class loader of the resource, the one of this class if null
+     */
+    protected AbstractResourceReader(String file, String resource, String strings, ClassLoader loader) {
         this.file = file;
         this.resource = resource;
         this.strings = strings;
+        this.loader = loader != null ? loader : getClass().getClassLoader();
     }
 
     /**
@@ -72,8 +87,7 @@ public class AbstractResourceReader {
         if (resource != null) {
             Enumeration<URL> urls;
             try {
-                urls = getClass().getClassLoader()
-                        .getResources(resource.startsWith("/") ? resource.substring(1) : resource);
+                urls = loader.getResources(resource.startsWith("/") ? resource.substring(1) : resource);
             } catch (IOException e) {
                 throw new RuntimeException("ERROR: While obtaining resource: " + resource, e);
             }
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package org.openjdk.jmh.runner;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.BenchmarkResult;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.ScalarResult;
+import org.openjdk.jmh.util.FileUtils;
+import org.openjdk.jmh.util.Statistics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Decides when a benchmark has been measured precisely enough. After each measurement fork the relative half-width of
+ * the 99% confidence interval over all measured iterations is compared with the target; more forks are run until the
+ * target is met or the iteration limit is reached.
+ */
+public class AdaptiveStopRule {
+
+    /** The Constant CONFIDENCE. */
+    public static final double CONFIDENCE = 0.99;
+
+    /** The Constant LABEL_HALF_WIDTH, secondary result with the reached relative CI half-width. */
+    public static final String LABEL_HALF_WIDTH = "·adaptive.ci";
+
+    /** The Constant LABEL_ITERATIONS, secondary result with the measured iteration count. */
+    public static final String LABEL_ITERATIONS = "·adaptive.iterations";
+
+    /** The target relative half-width, e.g. 0.02 for +-2%. */
+    private final double target;
+
+    /** The min iterations. */
+    private final int minIterations;
+
+    /** The max iterations. */
+    private final int maxIterations;
+
+    /** The decisions by benchmark label. */
+    private final Map<String, String> decisions = Collections.synchronizedMap(new TreeMap<String, String>());
+
+    /**
+     * Instantiates a new adaptive stop rule.
+     *
+     * @param target the target relative half-width of the 99% CI, e.g. 0.02
+     * @param minIterations the minimum measurement iterations over all forks
+     * @param maxIterations the maximum measurement iterations over all forks
+     * @throws IllegalArgumentException if the target is not positive, or the limits are not 0 &lt;= min &lt;= max,
+     *             max &gt; 0
+     */
+    public AdaptiveStopRule(double target, int minIterations, int maxIterations) {
+        if (!(target > 0)) {
+            throw new IllegalArgumentException("Adaptive target must be positive: " + target);
+        }
+        if (minIterations < 0 || maxIterations < 1 || minIterations > maxIterations) {
+            throw new IllegalArgumentException("Adaptive iterations need 0 <= min <= max and max > 0, but min is "
+                    + minIterations + " and max " + maxIterations);
+        }
+        this.target = target;
+        this.minIterations = minIterations;
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * Check whether measuring can stop. When it can, the decision is attached to the last fork result as secondary
+     * results and remembered for the report.
+     *
+     * @param params the params
+     * @param results the measurement fork results so far
+     * @return null to run another fork, otherwise the stop reason
+     */
+    public String check(BenchmarkParams params, Collection<BenchmarkResult> results) {
+        if (results.isEmpty()) {
+            return null;
+        }
+
+        Statistics stats = new RunResult(params, results).getPrimaryResult().getStatistics();
+        long iterations = stats.getN();
+        double halfWidth = relativeHalfWidth(stats);
+        int perFork = Math.max(1, params.getMeasurement().getCount());
+
+        String reason;
+        if (iterations < minIterations) {
+            return null;
+        } else if (halfWidth <= target) {
+            reason = String.format("target met, CI half-width %.2f%% <= %.2f%%", halfWidth * 100, target * 100);
+        } else if (iterations + perFork > maxIterations) {
+            reason = String.format("iteration limit %d reached, CI half-width %.2f%% > %.2f%%", maxIterations,
+                    halfWidth * 100, target * 100);
+        } else {
+            return null;
+        }
+
+        BenchmarkResult last = null;
+        for (BenchmarkResult br : results) {
+            last = br;
+        }
+        last.addBenchmarkResult(new ScalarResult(LABEL_HALF_WIDTH, halfWidth * 100, "%", AggregationPolicy.MAX));
+        last.addBenchmarkResult(new ScalarResult(LABEL_ITERATIONS, iterations, "#", AggregationPolicy.MAX));
+
+        decisions.put(ExBenchmarkParams.label(params), results.size() + " forks, " + iterations + " iterations: "
+                + reason);
+        return reason;
+    }
+
+    /**
+     * Relative half-width of the confidence interval.
+     *
+     * @param stats the stats
+     * @return the half-width relative to the mean, infinite if it can not be computed yet
+     */
+    static double relativeHalfWidth(Statistics stats) {
+        if (stats.getN() < 2 || stats.getMean() == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double[] ci = stats.getConfidenceIntervalAt(CONFIDENCE);
+        double hw = Math.abs((ci[1] - ci[0]) / 2 / stats.getMean());
+        return Double.isNaN(hw) ? Double.POSITIVE_INFINITY : hw;
+    }
+
+    /**
+     * Write the stop reason of every benchmark.
+     *
+     * @param file the file
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void writeReport(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        synchronized (decisions) {
+            for (Map.Entry<String, String> e : decisions.entrySet()) {
+                lines.add(e.getKey() + ": " + e.getValue());
+            }
+        }
+        FileUtils.writeLines(file, lines);
+    }
+}
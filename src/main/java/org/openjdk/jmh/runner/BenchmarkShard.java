@@ -0,0 +1,261 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package org.openjdk.jmh.runner;
+
+import org.openjdk.jmh.results.RunResult;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * One of several shards a benchmark suite is split into, to run the suite on several machines at once.
+ * <p>
+ * Every shard sees the same expanded benchmark set and assigns it the same way: benchmarks are taken in order of
+ * decreasing configured cost and each goes to the shard with the least cost so far. A shard runs only its own
+ * benchmarks and writes them as a partial, which carries the shard metadata. {@link #merge(File)} combines the partials
+ * of all shards into one result set.
+ */
+public class BenchmarkShard {
+
+    /** The Constant PARTIAL_PREFIX. */
+    private static final String PARTIAL_PREFIX = "shard-";
+
+    /** The Constant PARTIAL_SUFFIX. */
+    private static final String PARTIAL_SUFFIX = ".ser";
+
+    /** The index, starting at 0. */
+    private final int index;
+
+    /** The count. */
+    private final int count;
+
+    /** The directory the partial is written to. */
+    private final File directory;
+
+    /** The metadata. */
+    private final Properties metadata = new Properties();
+
+    /** The start time. */
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * Instantiates a new benchmark shard.
+     *
+     * @param index the shard index, from 0 to count - 1
+     * @param count the number of shards
+     * @param directory the directory to write the partial to
+     */
+    public BenchmarkShard(int index, int count, File directory) {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Shard index must be between 0 and " + (count - 1) + ", but was "
+                    + index + " of " + count);
+        }
+        this.index = index;
+        this.count = count;
+        this.directory = directory;
+    }
+
+    /**
+     * Gets the index.
+     *
+     * @return the index
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Gets the count.
+     *
+     * @return the count
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the partial file.
+     *
+     * @return the partial file
+     */
+    public File getPartialFile() {
+        return new File(directory, PARTIAL_PREFIX + index + "-of-" + count + PARTIAL_SUFFIX);
+    }
+
+    /**
+     * Assign the benchmarks to the shards and pick the ones of this shard.
+     *
+     * @param costs the configured cost in ms of every benchmark of the suite, by benchmark label
+     * @return the labels of the benchmarks of this shard
+     */
+    public Set<String> select(final Map<String, Long> costs) {
+        List<String> labels = new ArrayList<>(costs.keySet());
+        Collections.sort(labels, new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                int c = costs.get(o2).compareTo(costs.get(o1));
+                return c != 0 ? c : o1.compareTo(o2);
+            }
+        });
+
+        long[] loads = new long[count];
+        Set<String> mine = new HashSet<>();
+        StringBuilder plan = new StringBuilder();
+        for (String label : labels) {
+            int target = 0;
+            for (int i = 1; i < count; i++) {
+                if (loads[i] < loads[target]) {
+                    target = i;
+                }
+            }
+            loads[target] += costs.get(label);
+            if (target == index) {
+                mine.add(label);
+            }
+            plan.append(label).append('=').append(costs.get(label)).append('\n');
+        }
+
+        long total = 0;
+        for (long load : loads) {
+            total += load;
+        }
+        metadata.setProperty("shard.index", String.valueOf(index));
+        metadata.setProperty("shard.count", String.valueOf(count));
+        metadata.setProperty("shard.plan", JvmPropertiesCache.sha1(plan.toString()));
+        metadata.setProperty("shard.benchmarks", String.valueOf(mine.size()));
+        metadata.setProperty("suite.benchmarks", String.valueOf(labels.size()));
+        metadata.setProperty("shard.estimatedMs", String.valueOf(loads[index]));
+        metadata.setProperty("suite.estimatedMs", String.valueOf(total));
+        return mine;
+    }
+
+    /**
+     * Gets the estimated cost of this shard.
+     *
+     * @return the cost in ms, 0 before {@link #select(Map)}
+     */
+    public long getEstimatedCost() {
+        return Long.parseLong(metadata.getProperty("shard.estimatedMs", "0"));
+    }
+
+    /**
+     * Write the results of this shard as a partial.
+     *
+     * @param results the results
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void writePartial(Collection<RunResult> results) throws IOException {
+        Properties md = new Properties();
+        md.putAll(metadata);
+        md.setProperty("shard.host", hostName());
+        md.setProperty("shard.startTime", String.valueOf(startTime));
+        md.setProperty("shard.elapsedMs", String.valueOf(System.currentTimeMillis() - startTime));
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can not create the shard directory " + directory);
+        }
+        File file = getPartialFile();
+        File tmp = new File(directory, file.getName() + ".tmp");
+        try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            oos.writeObject(md);
+            oos.writeObject(new ArrayList<>(results));
+        }
+        file.delete();
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Can not move " + tmp + " to " + file);
+        }
+    }
+
+    /**
+     * Combine the partials of all shards of a suite.
+     *
+     * @param directory the directory holding the partials
+     * @return the results of all shards
+     * @throws IOException if a partial can not be read, the partials come from different suites or a shard is missing
+     */
+    @SuppressWarnings("unchecked")
+    public static SortedSet<RunResult> merge(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null || files.length == 0) {
+            throw new IOException("No shard partials in " + directory);
+        }
+
+        SortedSet<RunResult> results = new TreeSet<>(RunResult.DEFAULT_SORT_COMPARATOR);
+        String plan = null;
+        int count = -1;
+        Set<Integer> seen = new HashSet<>();
+        for (File file : files) {
+            if (!file.getName().startsWith(PARTIAL_PREFIX) || !file.getName().endsWith(PARTIAL_SUFFIX)) {
+                continue;
+            }
+            Properties md;
+            List<RunResult> partial;
+            try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                md = (Properties) ois.readObject();
+                partial = (List<RunResult>) ois.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Can not read the shard partial " + file, e);
+            }
+
+            int shardCount = Integer.parseInt(md.getProperty("shard.count"));
+            if (plan == null) {
+                plan = md.getProperty("shard.plan");
+                count = shardCount;
+            } else if (!plan.equals(md.getProperty("shard.plan")) || count != shardCount) {
+                throw new IOException("Shard partial " + file + " comes from a different benchmark plan, "
+                        + "all shards must run the same suite with the same settings");
+            }
+            if (!seen.add(Integer.parseInt(md.getProperty("shard.index")))) {
+                throw new IOException("Shard " + md.getProperty("shard.index") + " is there twice");
+            }
+            results.addAll(partial);
+        }
+
+        if (plan == null) {
+            throw new IOException("No shard partials in " + directory);
+        }
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (!seen.contains(i)) {
+                missing.add(i);
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new IOException("Missing partials of shards " + missing + " of " + count + " in " + directory);
+        }
+        return results;
+    }
+
+    /**
+     * Host name for the metadata.
+     *
+     * @return the host name
+     */
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "unknown";
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package org.openjdk.jmh.runner;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.BenchmarkResult;
+import org.openjdk.jmh.util.Multimap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Journal of the benchmarks a run has completed, so an interrupted run can be resumed.
+ * <p>
+ * Every completed benchmark is stored as its own file holding the serialized {@link BenchmarkParams} and fork results,
+ * the same objects the forked VMs send over the binary link. A file is written under a temporary name and renamed into
+ * place, so a crash leaves either the complete entry or none.
+ * <p>
+ * Entries are keyed by the identity of the measurement, not just its label: benchmark, mode, workload params, JVM,
+ * JVM arguments, threads, forks and measurement iterations. A resumed run with other settings measures again instead
+ * of reusing results of another configuration. The warmup is left out, since the steady state detection resizes it
+ * from run to run. The identity is the one of the measurement as planned, before a time budget shortens it, since
+ * that is what the resumed run looks up.
+ */
+public class CheckpointJournal {
+
+    /** The Constant SUFFIX. */
+    private static final String SUFFIX = ".ser";
+
+    /** The directory. */
+    private final File directory;
+
+    /** The entries restored from an earlier run, by identity. */
+    private final Map<String, Entry> restored = new HashMap<>();
+
+    /**
+     * Open the journal. Unless resuming, entries of earlier runs are dropped.
+     *
+     * @param directory the journal directory
+     * @param resume true to reload the entries of an earlier run
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public CheckpointJournal(File directory, boolean resume) throws IOException {
+        this.directory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can not create the checkpoint directory " + directory);
+        }
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (resume && file.getName().endsWith(SUFFIX)) {
+                Entry entry = read(file);
+                if (entry != null) {
+                    restored.put(identity(entry.planned), entry);
+                }
+            } else {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Gets the directory.
+     *
+     * @return the directory
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Number of benchmarks restored from an earlier run.
+     *
+     * @return the count
+     */
+    public int restoredCount() {
+        return restored.size();
+    }
+
+    /**
+     * Drop the measurements of a plan that are already in the journal.
+     *
+     * @param plan the plan
+     * @param done receives the restored results of the dropped measurements
+     * @return the plan with the remaining measurements, null if nothing is left to measure
+     */
+    public ActionPlan skipCompleted(ActionPlan plan, Multimap<BenchmarkParams, BenchmarkResult> done) {
+        ActionPlan left = new ActionPlan(plan.getType());
+        boolean measure = false;
+        boolean skipped = false;
+        for (Action action : plan.getActions()) {
+            Entry entry = action.getMode().doMeasurement() ? restored.get(identity(action.getParams())) : null;
+            if (entry == null) {
+                left.add(action);
+                measure |= action.getMode().doMeasurement();
+            } else {
+                done.putAll(entry.params, entry.results);
+                skipped = true;
+            }
+        }
+        if (!measure) {
+            return null;
+        }
+        return skipped ? left : plan;
+    }
+
+    /**
+     * The identity of a measurement.
+     *
+     * @param params the params
+     * @return the identity
+     */
+    static String identity(BenchmarkParams params) {
+        StringBuilder sb = new StringBuilder(ExBenchmarkParams.label(params)).append('\n');
+        sb.append(params.getJvm()).append('\n').append(params.getJvmArgs()).append('\n');
+        sb.append(params.getThreads()).append(' ').append(Arrays.toString(params.getThreadGroups())).append('\n');
+        sb.append(params.getForks()).append(' ').append(params.getWarmupForks()).append('\n');
+        sb.append(params.getMeasurement().getCount()).append(' ').append(params.getMeasurement().getTime())
+                .append(' ').append(params.getMeasurement().getBatchSize()).append('\n');
+        sb.append(params.getTimeUnit()).append(' ').append(params.getOpsPerInvocation());
+        return sb.toString();
+    }
+
+    /**
+     * Store the results of completed benchmarks.
+     *
+     * @param results the results, by the params they ran with
+     * @param planned the planned params by the params they ran with, missing if the same
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public synchronized void record(Multimap<BenchmarkParams, BenchmarkResult> results,
+            Map<BenchmarkParams, BenchmarkParams> planned) throws IOException {
+        for (BenchmarkParams params : results.keys()) {
+            Collection<BenchmarkResult> brs = results.get(params);
+            if (brs == null || brs.isEmpty()) {
+                continue;
+            }
+            BenchmarkParams key = planned.containsKey(params) ? planned.get(params) : params;
+            String name = JvmPropertiesCache.sha1(identity(key));
+            File tmp = new File(directory, name + ".tmp");
+            try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                oos.writeObject(key);
+                oos.writeObject(params);
+                oos.writeObject(new ArrayList<>(brs));
+            }
+            File file = new File(directory, name + SUFFIX);
+            if (!tmp.renameTo(file)) {
+                // rename does not replace existing files on every platform
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("Can not move " + tmp + " to " + file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a journal entry.
+     *
+     * @param file the file
+     * @return the entry, null if it can not be read
+     */
+    @SuppressWarnings("unchecked")
+    private static Entry read(File file) {
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            BenchmarkParams planned = (BenchmarkParams) ois.readObject();
+            BenchmarkParams params = (BenchmarkParams) ois.readObject();
+            List<BenchmarkResult> results = (List<BenchmarkResult>) ois.readObject();
+            return new Entry(planned, params, results);
+        } catch (IOException e) {
+            return null;
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (ClassCastException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A completed benchmark.
+     */
+    private static class Entry {
+
+        /** The planned params. */
+        private final BenchmarkParams planned;
+
+        /** The params the results ran with. */
+        private final BenchmarkParams params;
+
+        /** The fork results. */
+        private final List<BenchmarkResult> results;
+
+        /**
+         * Instantiates a new entry.
+         *
+         * @param planned the planned params
+         * @param params the params
+         * @param results the results
+         */
+        Entry(BenchmarkParams planned, BenchmarkParams params, List<BenchmarkResult> results) {
+            this.planned = planned;
+            this.params = params;
+            this.results = results;
+        }
+    }
+}
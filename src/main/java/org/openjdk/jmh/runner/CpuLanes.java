@@ -0,0 +1,267 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package org.openjdk.jmh.runner;
+
+import org.openjdk.jmh.util.FileUtils;
+import org.openjdk.jmh.util.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Splits the CPUs available to the host VM into disjoint lanes, so that independent forked VMs can run side by side
+ * without competing for the same cores.
+ */
+public class CpuLanes {
+
+    /** The Constant CPUS_ALLOWED_LIST, the Linux view of the current CPU affinity. */
+    private static final String CPUS_ALLOWED_LIST = "Cpus_allowed_list:";
+
+    /** The Constant TASKSET_LOCATIONS. */
+    private static final String[] TASKSET_LOCATIONS = { "/usr/bin/taskset", "/bin/taskset" };
+
+    /** The all lanes. */
+    private final List<Lane> lanes;
+
+    /** The free lanes. */
+    private final BlockingQueue<Lane> freeLanes;
+
+    /** The taskset executable, or null if pinning is not possible on this host. */
+    private final String taskset;
+
+    /**
+     * Split the available CPUs into the given number of lanes. Lanes never share a CPU; if there are fewer CPUs than
+     * requested lanes, the lane count is reduced to the CPU count.
+     *
+     * @param laneCount the requested lane count
+     * @return the cpu lanes
+     */
+    public static CpuLanes split(int laneCount) {
+        List<Integer> cpus = availableCpus();
+        int count = Math.max(1, Math.min(laneCount, cpus.size()));
+        int laneSize = cpus.size() / count;
+
+        List<Lane> lanes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            lanes.add(new Lane(i, cpus.subList(i * laneSize, (i + 1) * laneSize)));
+        }
+        return new CpuLanes(lanes, Utils.isWindows() ? null : findTaskset());
+    }
+
+    /**
+     * Instantiates a new cpu lanes.
+     *
+     * @param lanes the lanes
+     * @param taskset the taskset executable
+     */
+    private CpuLanes(List<Lane> lanes, String taskset) {
+        this.lanes = Collections.unmodifiableList(lanes);
+        this.freeLanes = new ArrayBlockingQueue<>(lanes.size(), true, lanes);
+        this.taskset = taskset;
+    }
+
+    /**
+     * Size.
+     *
+     * @return the lane count
+     */
+    public int size() {
+        return lanes.size();
+    }
+
+    /**
+     * Gets the lane size, the same for all lanes.
+     *
+     * @return the CPU count of a lane
+     */
+    public int getLaneSize() {
+        return lanes.get(0).getCpuCount();
+    }
+
+    /**
+     * Can pin.
+     *
+     * @return true, if forked VMs can be bound to their lane CPUs
+     */
+    public boolean canPin() {
+        return taskset != null;
+    }
+
+    /**
+     * Block until a lane is free and take it.
+     *
+     * @return the lane
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Lane acquire() throws InterruptedException {
+        return freeLanes.take();
+    }
+
+    /**
+     * Give the lane back.
+     *
+     * @param lane the lane
+     */
+    public void release(Lane lane) {
+        freeLanes.offer(lane);
+    }
+
+    /**
+     * Command prefix which binds the launched process to the lane CPUs.
+     *
+     * @param lane the lane
+     * @return the invoke options, empty if pinning is not available
+     */
+    public List<String> pinCommand(Lane lane) {
+        if (taskset == null) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(taskset, "-c", lane.getCpuList());
+    }
+
+    @Override
+    public String toString() {
+        return lanes.toString();
+    }
+
+    /**
+     * Find the CPUs this VM is allowed to run on. Honors the Linux affinity mask (containers, cgroups, outer taskset)
+     * and falls back to 0..N-1 elsewhere.
+     *
+     * @return the cpu ids
+     */
+    static List<Integer> availableCpus() {
+        File status = new File("/proc/self/status");
+        if (status.canRead()) {
+            try {
+                for (String line : FileUtils.readAllLines(status)) {
+                    if (line.startsWith(CPUS_ALLOWED_LIST)) {
+                        List<Integer> cpus = parseCpuList(line.substring(CPUS_ALLOWED_LIST.length()).trim());
+                        if (!cpus.isEmpty()) {
+                            return cpus;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // fall-through
+            }
+        }
+
+        List<Integer> cpus = new ArrayList<>();
+        for (int i = 0; i < Runtime.getRuntime().availableProcessors(); i++) {
+            cpus.add(i);
+        }
+        return cpus;
+    }
+
+    /**
+     * Parse a Linux CPU list, e.g. "0-3,8,10-11".
+     *
+     * @param list the list
+     * @return the cpu ids
+     */
+    static List<Integer> parseCpuList(String list) {
+        List<Integer> cpus = new ArrayList<>();
+        for (String range : list.split(",")) {
+            range = range.trim();
+            if (range.isEmpty()) {
+                continue;
+            }
+            try {
+                int dash = range.indexOf('-');
+                if (dash < 0) {
+                    cpus.add(Integer.valueOf(range));
+                } else {
+                    int from = Integer.parseInt(range.substring(0, dash));
+                    int to = Integer.parseInt(range.substring(dash + 1));
+                    for (int c = from; c <= to; c++) {
+                        cpus.add(c);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return Collections.emptyList();
+            }
+        }
+        return cpus;
+    }
+
+    /**
+     * Find taskset.
+     *
+     * @return the taskset path, or null if not installed
+     */
+    private static String findTaskset() {
+        for (String location : TASKSET_LOCATIONS) {
+            if (new File(location).canExecute()) {
+                return location;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A fixed set of CPUs handed to one forked VM at a time.
+     */
+    public static class Lane {
+
+        /** The id. */
+        private final int id;
+
+        /** The cpus. */
+        private final List<Integer> cpus;
+
+        /**
+         * Instantiates a new lane.
+         *
+         * @param id the id
+         * @param cpus the cpus
+         */
+        Lane(int id, List<Integer> cpus) {
+            this.id = id;
+            this.cpus = Collections.unmodifiableList(new ArrayList<>(cpus));
+        }
+
+        /**
+         * Gets the id.
+         *
+         * @return the id
+         */
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * Gets the cpu count.
+         *
+         * @return the cpu count
+         */
+        public int getCpuCount() {
+            return cpus.size();
+        }
+
+        /**
+         * Gets the cpu list in taskset format.
+         *
+         * @return the cpu list
+         */
+        public String getCpuList() {
+            StringBuilder sb = new StringBuilder();
+            for (Integer cpu : cpus) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(cpu);
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public String toString() {
+            return "#" + id + "[" + getCpuList() + "]";
+        }
+    }
+}
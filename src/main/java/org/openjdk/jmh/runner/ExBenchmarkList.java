@@ -3,13 +3,13 @@
  */
 package org.openjdk.jmh.runner;
 
+import com.baidu.maven.jmh.BenchmarkSelector;
 import org.openjdk.jmh.runner.format.OutputFormat;
 import org.openjdk.jmh.util.FileUtils;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.regex.Pattern;
 
 /**
  * Helper class for listing micro benchmarks.
@@ -19,6 +19,18 @@ public class ExBenchmarkList extends AbstractResourceReader {
     /** Location of the pre-compiled list of micro benchmarks. */
     public static final String BENCHMARK_LIST = "/META-INF/BenchmarkList";
 
+    /** The parsed entries, null until read. */
+    private List<BenchmarkListEntry> entries;
+
+    /** The benchmarks listed more than once with different settings. */
+    private final Set<String> collisions = new TreeSet<>();
+
+    /** The last selector. */
+    private BenchmarkSelector selector;
+
+    /** The includes and excludes of the last selector. */
+    private List<List<String>> selectorKey;
+
     /**
      * Default list.
      *
@@ -48,6 +60,17 @@ public class ExBenchmarkList extends AbstractResourceReader {
         return new ExBenchmarkList(null, resource, null);
     }
 
+    /**
+     * From the resource in all roots of a class loader. Entries found in several roots are read once.
+     *
+     * @param resource the resource
+     * @param loader the loader
+     * @return the ex benchmark list
+     */
+    public static ExBenchmarkList fromResource(String resource, ClassLoader loader) {
+        return new ExBenchmarkList(null, resource, null, loader);
+    }
+
     /**
      * From string.
      *
@@ -103,6 +126,18 @@ public class ExBenchmarkList extends AbstractResourceReader {
         super(file, resource, strings);
     }
 
+    /**
+     * Instantiates a new ex benchmark list.
+     *
+     * @param file the file
+     * @param resource the resource
+     * @param strings the strings
+     * @param loader the class loader of the resource
+     */
+    private ExBenchmarkList(String file, String resource, String strings, ClassLoader loader) {
+        super(file, resource, strings, loader);
+    }
+
     /**
      * Gets all micro benchmarks from the list, sorted.
      *
@@ -123,82 +158,93 @@ public class ExBenchmarkList extends AbstractResourceReader {
      * @return Names of all micro benchmarks in the list that matches includes and NOT matching excludes
      */
     public SortedSet<BenchmarkListEntry> find(OutputFormat out, List<String> includes, List<String> excludes) {
-
-        // assume we match all benchmarks when include is empty
-        List<String> regexps = new ArrayList<>(includes);
-        if (regexps.isEmpty()) {
-            regexps.add(Defaults.INCLUDE_BENCHMARKS);
+        List<BenchmarkListEntry> all = entries();
+        Map<String, Boolean> selectedByName = new HashMap<>();
+        SortedSet<BenchmarkListEntry> result = new TreeSet<>();
+        BenchmarkSelector selector = selector(includes, excludes);
+        for (BenchmarkListEntry br : all) {
+            // entries of the other modes of a method share its name
+            Boolean selected = selectedByName.get(br.getUsername());
+            if (selected == null) {
+                selected = selector.isSelected(br.getUsername());
+                selectedByName.put(br.getUsername(), selected);
+            }
+            if (selected) {
+                result.add(br);
+            }
         }
+        out.verbosePrintln("Selected " + result.size() + " of " + all.size() + " benchmarks, includes " + includes
+                + ", excludes " + excludes);
+        return result;
+    }
 
-        // compile all patterns
-        List<Pattern> includePatterns = new ArrayList<>(regexps.size());
-        for (String regexp : regexps) {
-            includePatterns.add(Pattern.compile(regexp));
-        }
-        List<Pattern> excludePatterns = new ArrayList<>(excludes.size());
-        for (String regexp : excludes) {
-            excludePatterns.add(Pattern.compile(regexp));
+    /**
+     * The selector of includes and excludes, the last one if they did not change.
+     *
+     * @param includes the includes, all benchmarks if empty
+     * @param excludes the excludes
+     * @return the selector
+     */
+    public synchronized BenchmarkSelector selector(List<String> includes, List<String> excludes) {
+        List<List<String>> key = Arrays.<List<String>> asList(new ArrayList<>(includes), new ArrayList<>(excludes));
+        if (!key.equals(selectorKey)) {
+            List<String> regexps = new ArrayList<>(includes);
+            if (regexps.isEmpty()) {
+                regexps.add(Defaults.INCLUDE_BENCHMARKS);
+            }
+            Set<String> names = new HashSet<>();
+            for (BenchmarkListEntry entry : entries()) {
+                names.add(entry.getUsername());
+            }
+            selector = new BenchmarkSelector(regexps, excludes).index(names);
+            selectorKey = key;
         }
+        return selector;
+    }
 
-        // find all benchmarks containing pattern
-        SortedSet<BenchmarkListEntry> result = new TreeSet<>();
+    /**
+     * The entries of the list, read and parsed once.
+     *
+     * @return the entries
+     */
+    public synchronized List<BenchmarkListEntry> entries() {
+        if (entries != null) {
+            return entries;
+        }
+        // the same benchmark from several roots, e.g. a class directory and its jar, is kept once, the first wins
+        Map<BenchmarkListEntry, String> lines = new LinkedHashMap<>();
         try {
             for (Reader r : getReaders()) {
-                BufferedReader reader = null;
-                try {
-                    reader = new BufferedReader(r);
-
+                try (BufferedReader reader = new BufferedReader(r)) {
                     for (String line = reader.readLine(); line != null; line = reader.readLine()) {
-                        if (line.startsWith("#")) {
-                            continue;
-                        }
-
-                        if (line.trim().isEmpty()) {
+                        if (line.startsWith("#") || line.trim().isEmpty()) {
                             continue;
                         }
-
-                        BenchmarkListEntry br = new BenchmarkListEntry(line);
-
-                        for (Pattern pattern : includePatterns) {
-                            if (pattern.matcher(br.getUsername()).find()) {
-                                boolean exclude = false;
-
-                                // excludes override
-                                for (Pattern excludePattern : excludePatterns) {
-                                    if (excludePattern.matcher(br.getUsername()).find()) {
-                                        out.verbosePrintln(
-                                                "Excluding " + br.getUsername() + ", matches " + excludePattern);
-
-                                        exclude = true;
-                                        break;
-                                    }
-                                }
-
-                                if (!exclude) {
-                                    result.add(br);
-                                }
-                                break;
-                            } else {
-                                out.verbosePrintln("Excluding: " + br.getUsername() + ", does not match " + pattern);
-                            }
-                        }
-                    }
-                } finally {
-                    if (reader != null) {
-                        try {
-                            reader.close();
-                        } catch (IOException e) {
-                            // ignore
+                        BenchmarkListEntry entry = new BenchmarkListEntry(line);
+                        String first = lines.get(entry);
+                        if (first == null) {
+                            lines.put(entry, line);
+                        } else if (!first.equals(line)) {
+                            collisions.add(entry.getUsername());
                         }
                     }
                 }
             }
-
         } catch (IOException ex) {
             throw new RuntimeException("Error reading benchmark list", ex);
         }
+        entries = Collections.unmodifiableList(new ArrayList<>(lines.keySet()));
+        return entries;
+    }
 
-        return result;
+    /**
+     * Gets the benchmarks listed more than once with different settings, of which the first was kept.
+     *
+     * @return the names
+     */
+    public synchronized Set<String> getCollisions() {
+        entries();
+        return collisions;
     }
 
 }
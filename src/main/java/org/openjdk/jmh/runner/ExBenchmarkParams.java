@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package org.openjdk.jmh.runner;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+
+import java.lang.reflect.Field;
+import java.util.Collection;
+
+/**
+ * Helpers to derive new {@link BenchmarkParams} from existing ones. {@link BenchmarkParams} is immutable, so every
+ * change is a full copy.
+ */
+public final class ExBenchmarkParams {
+
+    /**
+     * Instantiates a new ex benchmark params.
+     */
+    private ExBenchmarkParams() {
+    }
+
+    /**
+     * Copy the params with new iteration and fork settings.
+     *
+     * @param params the params
+     * @param warmup the warmup iterations
+     * @param measurement the measurement iterations
+     * @param forks the forks
+     * @param warmupForks the warmup forks
+     * @return the benchmark params
+     */
+    public static BenchmarkParams with(BenchmarkParams params, IterationParams warmup, IterationParams measurement,
+            int forks, int warmupForks) {
+        return copy(params, warmup, measurement, forks, warmupForks, params.getJvmArgs());
+    }
+
+    /**
+     * Copy the params with new JVM arguments.
+     *
+     * @param params the params
+     * @param jvmArgs the jvm args
+     * @return the benchmark params
+     */
+    public static BenchmarkParams withJvmArgs(BenchmarkParams params, Collection<String> jvmArgs) {
+        return copy(params, params.getWarmup(), params.getMeasurement(), params.getForks(), params.getWarmupForks(),
+                jvmArgs);
+    }
+
+    /**
+     * Stable human readable identity of a benchmark run: name, mode and workload params.
+     *
+     * @param params the params
+     * @return the label, e.g. "org.Foo.bar thrpt {size=10}"
+     */
+    public static String label(BenchmarkParams params) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(params.getBenchmark()).append(' ').append(params.getMode().shortLabel());
+        if (!params.getParamsKeys().isEmpty()) {
+            sb.append(" {");
+            boolean first = true;
+            for (String key : params.getParamsKeys()) {
+                if (!first) {
+                    sb.append(", ");
+                }
+                sb.append(key).append('=').append(params.getParam(key));
+                first = false;
+            }
+            sb.append('}');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get the workload params, which {@link BenchmarkParams} does not expose directly. The original instance keeps the
+     * declared value order, which result sorting depends on; the rebuilt fallback does not.
+     *
+     * @param params the params
+     * @return the workload params
+     */
+    public static WorkloadParams workloadParams(BenchmarkParams params) {
+        // the field lives in one of the padding super classes
+        for (Class<?> c = params.getClass(); c != null; c = c.getSuperclass()) {
+            try {
+                Field field = c.getDeclaredField("params");
+                field.setAccessible(true);
+                return ((WorkloadParams) field.get(params)).copy();
+            } catch (NoSuchFieldException e) {
+                // look further up
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                break;
+            }
+        }
+
+        WorkloadParams wp = new WorkloadParams();
+        int idx = 0;
+        for (String key : params.getParamsKeys()) {
+            wp.put(key, params.getParam(key), idx++);
+        }
+        return wp;
+    }
+
+    /**
+     * Copy.
+     *
+     * @param params the params
+     * @param warmup the warmup
+     * @param measurement the measurement
+     * @param forks the forks
+     * @param warmupForks the warmup forks
+     * @param jvmArgs the jvm args
+     * @return the benchmark params
+     */
+    private static BenchmarkParams copy(BenchmarkParams params, IterationParams warmup, IterationParams measurement,
+            int forks, int warmupForks, Collection<String> jvmArgs) {
+        return new BenchmarkParams(params.getBenchmark(), params.generatedBenchmark(), params.shouldSynchIterations(),
+                params.getThreads(), params.getThreadGroups(), params.getThreadGroupLabels(), forks, warmupForks,
+                warmup, measurement, params.getMode(), workloadParams(params), params.getTimeUnit(),
+                params.getOpsPerInvocation(), params.getJvm(), jvmArgs, params.getJdkVersion(), params.getVmName(),
+                params.getVmVersion(), params.getJmhVersion(), params.getTimeout());
+    }
+}
@@ -87,6 +87,17 @@ public class ExCompilerHints extends AbstractResourceReader {
         return new ExCompilerHints(null, resource);
     }
 
+    /**
+     * From the resource in all roots of a class loader.
+     *
+     * @param resource the resource
+     * @param loader the loader
+     * @return the ex compiler hints
+     */
+    public static ExCompilerHints fromResource(String resource, ClassLoader loader) {
+        return new ExCompilerHints(null, resource, loader);
+    }
+
     /**
      * From file.
      *
@@ -104,7 +115,18 @@ public class ExCompilerHints extends AbstractResourceReader {
      * @param resource the resource
      */
     private ExCompilerHints(String file, String resource) {
-        super(file, resource, null);
+        this(file, resource, null);
+    }
+
+    /**
+     * Instantiates a new ex compiler hints.
+     *
+     * @param file the file
+     * @param resource the resource
+     * @param loader the class loader of the resource
+     */
+    private ExCompilerHints(String file, String resource, ClassLoader loader) {
+        super(file, resource, null, loader);
         hints = Collections.unmodifiableSet(read());
     }
 
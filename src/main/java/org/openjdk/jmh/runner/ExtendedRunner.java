@@ -42,12 +42,18 @@ import org.openjdk.jmh.util.Optional;
 
 import java.io.*;
 import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 import java.util.jar.*;
 import java.util.zip.*;
 
@@ -76,10 +82,196 @@ public class ExtendedRunner extends BaseRunner {
 
     private Set<String> classPaths = new HashSet<String>();
 
+    private int parallelForks = 1;
+    private CpuLanes lanes;
+
+    private String benchmarkDirectory;
+    private JvmPropertiesCache propertiesCache;
+
+    private boolean sharedArchive;
+    private final Object sharedArchiveLock = new Object();
+
+    private boolean pipelinedForks;
+
+    private AdaptiveStopRule adaptiveStopRule;
+
+    private SteadyStateWarmup steadyStateWarmup;
+
+    private TimeBudget timeBudget;
+
+    private CheckpointJournal checkpointJournal;
+
+    private ResultCache resultCache;
+
+    private Map<String, Options> benchmarkOptions = Collections.emptyMap();
+
+    private BenchmarkShard shard;
+
+    private boolean isolated;
+
+    private double[] percentiles = new double[0];
+
     public void setClassPaths(Set<String> classPaths) {
         this.classPaths = classPaths;
     }
 
+    /**
+     * Directory for run artifacts which outlive a single run, like the target JVM properties cache.
+     *
+     * @param benchmarkDirectory the directory, usually target/benchmark
+     */
+    public void setBenchmarkDirectory(String benchmarkDirectory) {
+        this.benchmarkDirectory = benchmarkDirectory;
+        this.propertiesCache = null;
+    }
+
+    /**
+     * Start forked VMs from a class data sharing archive (AppCDS, or the AOT cache on JDK 24+). The archive is trained
+     * by one short extra fork and reused by all later forks with the same JVM, JVM arguments and classpath.
+     *
+     * @param sharedArchive true to enable
+     */
+    public void setSharedArchive(boolean sharedArchive) {
+        this.sharedArchive = sharedArchive;
+    }
+
+    /**
+     * Start booting the next fork of a benchmark as soon as the current one has finished measuring. The new VM waits
+     * until the current one has exited before it connects back, so measurements never overlap. Profiler results are
+     * processed in the background meanwhile.
+     *
+     * @param pipelinedForks true to enable
+     */
+    public void setPipelinedForks(boolean pipelinedForks) {
+        this.pipelinedForks = pipelinedForks;
+    }
+
+    /**
+     * Keep adding measurement forks to every benchmark until the 99% confidence interval is narrow enough. The
+     * configured fork count is the minimum. The stop reason of each benchmark goes to the console, to secondary
+     * results of the last fork and to adaptive_stop_reasons.txt in the benchmark directory.
+     *
+     * @param adaptiveStopRule the rule, null to run the configured forks only
+     */
+    public void setAdaptiveStopRule(AdaptiveStopRule adaptiveStopRule) {
+        this.adaptiveStopRule = adaptiveStopRule;
+    }
+
+    /**
+     * Watch warmup scores for a steady state and size the warmup of each benchmark from what earlier runs needed. The
+     * configured warmup iterations become the maximum.
+     *
+     * @param steadyStateWarmup the detector, null to always run the configured warmup
+     */
+    public void setSteadyStateWarmup(SteadyStateWarmup steadyStateWarmup) {
+        if (this.steadyStateWarmup != null) {
+            listeningOut().removeListener(this.steadyStateWarmup);
+        }
+        this.steadyStateWarmup = steadyStateWarmup;
+        if (steadyStateWarmup != null) {
+            listeningOut().addListener(steadyStateWarmup);
+        }
+    }
+
+    /**
+     * Fit the run into a wall-clock budget. Iteration times and forks of the benchmarks are cut down as far as needed,
+     * the plan is redone before each benchmark from the time actually used. Adaptive mode only adds forks the budget
+     * can afford.
+     *
+     * @param timeBudget the budget, null to run as configured
+     */
+    public void setTimeBudget(TimeBudget timeBudget) {
+        this.timeBudget = timeBudget;
+    }
+
+    /**
+     * Store the results of every completed benchmark in a journal as the run goes. A journal opened for resume also
+     * provides the results of benchmarks an earlier, interrupted run has completed; those are not run again but are
+     * part of the final result file.
+     *
+     * @param checkpointJournal the journal, null for none
+     */
+    public void setCheckpointJournal(CheckpointJournal checkpointJournal) {
+        this.checkpointJournal = checkpointJournal;
+    }
+
+    /**
+     * Reuse the cached result of every measurement whose fingerprint is in the cache instead of forking, and store
+     * the results of the measured ones.
+     *
+     * @param resultCache the cache, null for none
+     */
+    public void setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Options of single benchmarks, e.g. of their tag policy, whose settings win over the options of the run. Every
+     * one should have the options of the run as parent, so the settings it does not give are the ones of the run.
+     *
+     * @param benchmarkOptions the options by benchmark name
+     */
+    public void setBenchmarkOptions(Map<String, Options> benchmarkOptions) {
+        this.benchmarkOptions = benchmarkOptions;
+    }
+
+    private Options optionsOf(BenchmarkListEntry benchmark) {
+        Options o = benchmarkOptions.get(benchmark.getUsername());
+        return o != null ? o : options;
+    }
+
+    /**
+     * Run one shard of the suite only. The expanded benchmark set is split by configured cost, the same way on every
+     * machine, and the results of the shard are also written as a partial for {@link BenchmarkShard#merge(File)}.
+     *
+     * @param shard the shard, null to run the whole suite
+     */
+    public void setShard(BenchmarkShard shard) {
+        this.shard = shard;
+    }
+
+    /**
+     * Run forked benchmarks inside the host VM instead, each fork on its own thread in a fresh class loader built from
+     * the class paths, with its own copy of the JMH runtime. The loader is dropped after the fork, so neither classes
+     * nor JIT profiles of the benchmark code carry over to the next one. JDK classes and the VM options are still those
+     * of the host, and external profilers do not work; use it for quick local iteration, not for published numbers.
+     * Parallel forks are ignored.
+     *
+     * @param isolated true to enable
+     */
+    public void setIsolated(boolean isolated) {
+        this.isolated = isolated;
+    }
+
+    /**
+     * Report more percentiles of sample time benchmarks than the fixed set of JMH. They are computed from the samples
+     * of all forks and added to the secondary results, as e.g. "bench·p0.99999".
+     *
+     * @param percentiles the percentiles, e.g. 99.999
+     */
+    public void setPercentiles(double[] percentiles) {
+        this.percentiles = percentiles.clone();
+    }
+
+    /**
+     * Observe the run: iterations of all forks, measurement forks and benchmarks as they finish.
+     *
+     * @param listener the listener, called on the link server threads
+     */
+    public void addListener(ListeningOutputFormat.Listener listener) {
+        listeningOut().addListener(listener);
+    }
+
+    /**
+     * Run up to the given number of forked action plans at the same time. The CPUs are split into that many disjoint
+     * lanes, each forked VM is pinned to its lane and told about the lane size via -XX:ActiveProcessorCount.
+     *
+     * @param parallelForks the number of lanes, 1 runs everything sequentially
+     */
+    public void setParallelForks(int parallelForks) {
+        this.parallelForks = parallelForks;
+    }
+
     /**
      * Create runner with the custom OutputFormat.
      *
@@ -87,7 +279,7 @@ public class ExtendedRunner extends BaseRunner {
      * @param format OutputFormat to use
      */
     public ExtendedRunner(Options options, OutputFormat format, ExBenchmarkList list, String path) {
-        super(options, format);
+        super(options, ListeningOutputFormat.wrap(format));
         this.list = list;
         hintFilePath = path;
     }
@@ -99,7 +291,7 @@ public class ExtendedRunner extends BaseRunner {
      * @param format OutputFormat to use
      */
     public ExtendedRunner(Options options, ExBenchmarkList list, String path) {
-        super(options, createOutputFormat(options));
+        super(options, ListeningOutputFormat.wrap(createOutputFormat(options)));
         this.list = list;
         hintFilePath = path;
     }
@@ -294,15 +486,18 @@ public class ExtendedRunner extends BaseRunner {
             throw new NoBenchmarksException();
         }
 
-        // override the benchmark types;
+        // override the benchmark types, per benchmark for the ones with options of their own;
         // this may yield new benchmark records
-        if (!options.getBenchModes().isEmpty()) {
+        if (!options.getBenchModes().isEmpty() || !benchmarkOptions.isEmpty()) {
             List<BenchmarkListEntry> newBenchmarks = new ArrayList<>();
             for (BenchmarkListEntry br : benchmarks) {
-                for (Mode m : options.getBenchModes()) {
+                Collection<Mode> modes = optionsOf(br).getBenchModes();
+                if (modes.isEmpty()) {
+                    newBenchmarks.add(br);
+                }
+                for (Mode m : modes) {
                     newBenchmarks.add(br.cloneWith(m));
                 }
-
             }
 
             benchmarks.clear();
@@ -344,8 +539,57 @@ public class ExtendedRunner extends BaseRunner {
             benchmarks.addAll(newBenchmarks);
         }
 
+        if (shard != null) {
+            selectShard(benchmarks);
+        }
+
         Collection<RunResult> results = runBenchmarks(benchmarks);
 
+        if (shard != null) {
+            try {
+                shard.writePartial(results);
+                out.println("");
+                out.println("Shard " + shard.getIndex() + " of " + shard.getCount() + " is saved to "
+                        + shard.getPartialFile());
+            } catch (IOException e) {
+                throw new RunnerException("Can not write the shard partial: " + shard.getPartialFile(), e);
+            }
+        }
+
+        if (steadyStateWarmup != null) {
+            try {
+                Map<String, Integer> observed = steadyStateWarmup.writeProfile();
+                out.println("");
+                out.println("Warmup iterations needed to reach steady state:");
+                for (Map.Entry<String, Integer> e : new TreeMap<>(observed).entrySet()) {
+                    out.println("  " + e.getKey() + ": "
+                            + (e.getValue() == SteadyStateWarmup.NOT_STEADY ? "not steady" : e.getValue()));
+                }
+            } catch (IOException e) {
+                out.println("# WARNING: Can not write the warmup profile: " + e.getMessage());
+            }
+        }
+
+        if (timeBudget != null) {
+            long left = timeBudget.remaining();
+            out.println("");
+            out.println("Time budget " + formatMillis(timeBudget.getBudget()) + ", "
+                    + (left >= 0 ? formatMillis(left) + " left" : formatMillis(-left) + " over"));
+            try {
+                timeBudget.writeHistory();
+            } catch (IOException e) {
+                out.println("# WARNING: Can not write the time budget history: " + e.getMessage());
+            }
+        }
+
+        if (adaptiveStopRule != null && benchmarkDirectory != null) {
+            try {
+                adaptiveStopRule.writeReport(new File(benchmarkDirectory, "adaptive_stop_reasons.txt"));
+            } catch (IOException e) {
+                out.println("# WARNING: Can not write the adaptive stop reasons: " + e.getMessage());
+            }
+        }
+
         // If user requested the result file, write it out.
         if (resultFile != null) {
             ResultFormatFactory.getInstance(options.getResultFormat().orElse(Defaults.RESULT_FORMAT), resultFile)
@@ -361,6 +605,27 @@ public class ExtendedRunner extends BaseRunner {
         return results;
     }
 
+    private void selectShard(SortedSet<BenchmarkListEntry> benchmarks) {
+        // configured params only, local warmup profiles must not change the split
+        Map<String, Long> costs = new HashMap<>();
+        Map<String, BenchmarkListEntry> byLabel = new HashMap<>();
+        for (BenchmarkListEntry br : benchmarks) {
+            BenchmarkParams params = newConfiguredParams(br, ActionMode.WARMUP_MEASUREMENT);
+            String label = ExBenchmarkParams.label(params);
+            costs.put(label, TimeBudget.configuredCost(params));
+            byLabel.put(label, br);
+        }
+
+        Set<String> selected = shard.select(costs);
+        int total = benchmarks.size();
+        benchmarks.clear();
+        for (String label : selected) {
+            benchmarks.add(byLabel.get(label));
+        }
+        out.println("# Shard " + shard.getIndex() + " of " + shard.getCount() + ": " + benchmarks.size() + " of "
+                + total + " benchmarks, estimated " + formatMillis(shard.getEstimatedCost()));
+    }
+
     private List<ActionPlan> getActionPlans(Set<BenchmarkListEntry> benchmarks) {
         ActionPlan base = new ActionPlan(ActionType.FORKED);
 
@@ -420,11 +685,27 @@ public class ExtendedRunner extends BaseRunner {
     }
 
     private BenchmarkParams newBenchmarkParams(BenchmarkListEntry benchmark, ActionMode mode) {
-        int[] threadGroups = options.getThreadGroups().orElse(benchmark.getThreadGroups());
+        BenchmarkParams params = newConfiguredParams(benchmark, mode);
+        if (steadyStateWarmup != null && mode.doWarmup()) {
+            params = steadyStateWarmup.adjust(params);
+        }
+        return params;
+    }
 
-        int threads = options.getThreads().orElse(benchmark.getThreads().orElse(Defaults.THREADS));
+    private BenchmarkParams newConfiguredParams(BenchmarkListEntry benchmark, ActionMode mode) {
+        // the settings of the benchmark's own options win over the ones of the run
+        Options benchOptions = optionsOf(benchmark);
 
-        if (threads == Threads.MAX) {
+        int[] threadGroups = benchOptions.getThreadGroups().orElse(benchmark.getThreadGroups());
+
+        int threads = benchOptions.getThreads().orElse(benchmark.getThreads().orElse(Defaults.THREADS));
+
+        int forks = benchOptions.getForkCount().orElse(benchmark.getForks().orElse(Defaults.MEASUREMENT_FORKS));
+
+        if (threads == Threads.MAX && forks > 0 && parallelForks > 1 && !isolated) {
+            // a fork of a lane only has the CPUs of its lane
+            threads = lanes().getLaneSize();
+        } else if (threads == Threads.MAX) {
             if (cpuCount == 0) {
                 out.print("# Detecting actual CPU count: ");
                 cpuCount = Utils.figureOutHotCPUs();
@@ -436,74 +717,82 @@ public class ExtendedRunner extends BaseRunner {
         threads = Utils.roundUp(threads, Utils.sum(threadGroups));
 
         boolean synchIterations = (benchmark.getMode() != Mode.SingleShotTime)
-                && options.shouldSyncIterations().orElse(Defaults.SYNC_ITERATIONS);
+                && benchOptions.shouldSyncIterations().orElse(Defaults.SYNC_ITERATIONS);
 
         IterationParams measurement = mode.doMeasurement()
                 ? new IterationParams(IterationType.MEASUREMENT,
-                        options.getMeasurementIterations()
+                        benchOptions.getMeasurementIterations()
                                 .orElse(benchmark.getMeasurementIterations()
                                         .orElse((benchmark.getMode() == Mode.SingleShotTime)
                                                 ? Defaults.MEASUREMENT_ITERATIONS_SINGLESHOT
                                                 : Defaults.MEASUREMENT_ITERATIONS)),
-                        options.getMeasurementTime()
+                        benchOptions.getMeasurementTime()
                                 .orElse(benchmark.getMeasurementTime()
                                         .orElse((benchmark.getMode() == Mode.SingleShotTime) ? TimeValue.NONE
                                                 : Defaults.MEASUREMENT_TIME)),
-                        options.getMeasurementBatchSize()
+                        benchOptions.getMeasurementBatchSize()
                                 .orElse(benchmark.getMeasurementBatchSize().orElse(Defaults.MEASUREMENT_BATCHSIZE)))
                 : new IterationParams(IterationType.MEASUREMENT, 0, TimeValue.NONE, 1);
 
         IterationParams warmup = mode.doWarmup()
-                ? new IterationParams(IterationType.WARMUP, options.getWarmupIterations().orElse(benchmark
+                ? new IterationParams(IterationType.WARMUP, benchOptions.getWarmupIterations().orElse(benchmark
                         .getWarmupIterations()
                         .orElse((benchmark.getMode() == Mode.SingleShotTime) ? Defaults.WARMUP_ITERATIONS_SINGLESHOT
                                 : Defaults.WARMUP_ITERATIONS)),
-                        options.getWarmupTime()
+                        benchOptions.getWarmupTime()
                                 .orElse(benchmark.getWarmupTime()
                                         .orElse((benchmark.getMode() == Mode.SingleShotTime) ? TimeValue.NONE
                                                 : Defaults.WARMUP_TIME)),
-                        options.getWarmupBatchSize()
+                        benchOptions.getWarmupBatchSize()
                                 .orElse(benchmark.getWarmupBatchSize().orElse(Defaults.WARMUP_BATCHSIZE)))
                 : new IterationParams(IterationType.WARMUP, 0, TimeValue.NONE, 1);
 
-        int forks = options.getForkCount().orElse(benchmark.getForks().orElse(Defaults.MEASUREMENT_FORKS));
-
-        int warmupForks = options.getWarmupForkCount().orElse(benchmark.getWarmupForks().orElse(Defaults.WARMUP_FORKS));
+        int warmupForks = benchOptions.getWarmupForkCount()
+                .orElse(benchmark.getWarmupForks().orElse(Defaults.WARMUP_FORKS));
 
-        TimeUnit timeUnit = options.getTimeUnit().orElse(benchmark.getTimeUnit().orElse(Defaults.OUTPUT_TIMEUNIT));
+        TimeUnit timeUnit = benchOptions.getTimeUnit().orElse(benchmark.getTimeUnit().orElse(Defaults.OUTPUT_TIMEUNIT));
 
-        int opsPerInvocation = options.getOperationsPerInvocation()
+        int opsPerInvocation = benchOptions.getOperationsPerInvocation()
                 .orElse(benchmark.getOperationsPerInvocation().orElse(Defaults.OPS_PER_INVOCATION));
 
-        String jvm = options.getJvm().orElse(benchmark.getJvm().orElse(Utils.getCurrentJvm()));
+        String jvm = benchOptions.getJvm().orElse(benchmark.getJvm().orElse(Utils.getCurrentJvm()));
 
         Properties targetProperties;
         if (jvm.equals(Utils.getCurrentJvm())) {
             targetProperties = Utils.getRecordedSystemProperties();
         } else {
-            targetProperties = Utils.readPropertiesFromCommand(getPrintPropertiesCommand(jvm));
+            targetProperties = getPropertiesCache().get(jvm, getPrintPropertiesCommand(jvm));
         }
 
         Collection<String> jvmArgs = new ArrayList<>();
 
-        jvmArgs.addAll(options.getJvmArgsPrepend()
+        jvmArgs.addAll(benchOptions.getJvmArgsPrepend()
                 .orElse(benchmark.getJvmArgsPrepend().orElse(Collections.<String> emptyList())));
 
-        jvmArgs.addAll(options.getJvmArgs()
+        jvmArgs.addAll(benchOptions.getJvmArgs()
                 .orElse(benchmark.getJvmArgs().orElse(ManagementFactory.getRuntimeMXBean().getInputArguments())));
 
-        jvmArgs.addAll(options.getJvmArgsAppend()
+        jvmArgs.addAll(benchOptions.getJvmArgsAppend()
                 .orElse(benchmark.getJvmArgsAppend().orElse(Collections.<String> emptyList())));
 
-        TimeValue timeout = options.getTimeout().orElse(benchmark.getTimeout().orElse(Defaults.TIMEOUT));
+        TimeValue timeout = benchOptions.getTimeout().orElse(benchmark.getTimeout().orElse(Defaults.TIMEOUT));
 
         String jdkVersion = targetProperties.getProperty("java.version");
         String vmVersion = targetProperties.getProperty("java.vm.version");
         String vmName = targetProperties.getProperty("java.vm.name");
-        return new BenchmarkParams(benchmark.getUsername(), benchmark.generatedTarget(), synchIterations, threads,
-                threadGroups, benchmark.getThreadGroupLabels().orElse(Collections.<String> emptyList()), forks,
-                warmupForks, warmup, measurement, benchmark.getMode(), benchmark.getWorkloadParams(), timeUnit,
-                opsPerInvocation, jvm, jvmArgs, jdkVersion, vmName, vmVersion, Version.getPlainVersion(), timeout);
+        return new BenchmarkParams(benchmark.getUsername(), benchmark.generatedTarget(),
+                synchIterations, threads, threadGroups,
+                benchmark.getThreadGroupLabels().orElse(Collections.<String> emptyList()), forks, warmupForks, warmup,
+                measurement, benchmark.getMode(), benchmark.getWorkloadParams(), timeUnit, opsPerInvocation, jvm,
+                jvmArgs, jdkVersion, vmName, vmVersion, Version.getPlainVersion(), timeout);
+    }
+
+    private JvmPropertiesCache getPropertiesCache() {
+        if (propertiesCache == null) {
+            propertiesCache = new JvmPropertiesCache(
+                    benchmarkDirectory == null ? null : new File(benchmarkDirectory, "jvm-cache").getAbsolutePath());
+        }
+        return propertiesCache;
     }
 
     private List<WorkloadParams> explodeAllParams(BenchmarkListEntry br) throws RunnerException {
@@ -549,22 +838,59 @@ public class ExtendedRunner extends BaseRunner {
         Multimap<BenchmarkParams, BenchmarkResult> results = new TreeMultimap<>();
         List<ActionPlan> plan = getActionPlans(benchmarks);
 
+        if (checkpointJournal != null && checkpointJournal.restoredCount() > 0) {
+            List<ActionPlan> left = new ArrayList<>();
+            for (ActionPlan r : plan) {
+                ActionPlan rest = checkpointJournal.skipCompleted(r, results);
+                if (rest != null) {
+                    left.add(rest);
+                }
+            }
+            out.println("# Resuming: " + results.keys().size() + " benchmarks restored from "
+                    + checkpointJournal.getDirectory() + ", " + left.size() + " action plans left");
+            plan = left;
+        }
+
+        if (resultCache != null) {
+            List<ActionPlan> left = new ArrayList<>();
+            for (ActionPlan r : plan) {
+                ActionPlan rest = resultCache.skipCached(r, results);
+                if (rest != null) {
+                    left.add(rest);
+                }
+            }
+            for (String hit : resultCache.getHits()) {
+                out.println("# Cached: " + hit);
+            }
+            out.println("# Result cache: " + resultCache.getHits().size() + " benchmarks reused from "
+                    + resultCache.getDirectory() + ", " + left.size() + " action plans left");
+            plan = left;
+        }
+
         etaBeforeBenchmarks(plan);
 
+        if (timeBudget != null) {
+            long estimate = timeBudget.start(plan, parallelForks);
+            out.println("# Time budget: " + formatMillis(timeBudget.getBudget()) + " for an estimated "
+                    + formatMillis(estimate) + (estimate > timeBudget.getBudget()
+                            ? ", iterations and forks are shortened to fit" : ""));
+        }
+
         try {
-            for (ActionPlan r : plan) {
-                Multimap<BenchmarkParams, BenchmarkResult> res;
-                switch (r.getType()) {
-                    case EMBEDDED:
-                        res = runBenchmarksEmbedded(r);
-                        break;
-                    case FORKED:
-                        res = runSeparate(r);
-                        break;
-                    default:
-                        throw new IllegalStateException("Unknown action plan type: " + r.getType());
+            List<Multimap<BenchmarkParams, BenchmarkResult>> planResults;
+            if (parallelForks > 1 && isolated) {
+                out.println("# WARNING: isolated forks share the host VM, parallelForks is ignored");
+            }
+            if (parallelForks > 1 && !isolated) {
+                planResults = runPlansInLanes(plan);
+            } else {
+                planResults = new ArrayList<>();
+                for (ActionPlan r : plan) {
+                    planResults.add(runBudgeted(r, null));
                 }
+            }
 
+            for (Multimap<BenchmarkParams, BenchmarkResult> res : planResults) {
                 for (BenchmarkParams br : res.keys()) {
                     results.putAll(br, res.get(br));
                 }
@@ -580,15 +906,230 @@ public class ExtendedRunner extends BaseRunner {
         }
     }
 
+    /**
+     * Runs the plan, fitted into its share of the time budget if there is one, and journals its results.
+     */
+    private Multimap<BenchmarkParams, BenchmarkResult> runBudgeted(ActionPlan r, CpuLanes.Lane lane) {
+        if (timeBudget == null) {
+            return checkpoint(r, r, runPlan(r, lane));
+        }
+        ActionPlan fitted = timeBudget.fit(r);
+        if (fitted != r) {
+            out.println("# Time budget: " + formatMillis(timeBudget.remaining()) + " left, shortened to "
+                    + describe(fitted));
+        }
+        Multimap<BenchmarkParams, BenchmarkResult> results = new HashMultimap<>();
+        try {
+            results = runPlan(fitted, lane);
+            return checkpoint(r, fitted, results);
+        } finally {
+            timeBudget.finished(fitted, results);
+        }
+    }
+
+    /**
+     * Journals and caches the results of a plan under the params it was configured with, which are the ones the next
+     * run looks up, not the ones the time budget has fitted.
+     *
+     * @param configured the plan as configured
+     * @param ran the plan that ran, the configured one or its fitted copy
+     */
+    private Multimap<BenchmarkParams, BenchmarkResult> checkpoint(ActionPlan configured, ActionPlan ran,
+            Multimap<BenchmarkParams, BenchmarkResult> results) {
+        Map<BenchmarkParams, BenchmarkParams> keys = new HashMap<>();
+        List<Action> configuredActions = configured.getActions();
+        List<Action> ranActions = ran.getActions();
+        for (int i = 0; i < ranActions.size(); i++) {
+            keys.put(ranActions.get(i).getParams(), configuredActions.get(i).getParams());
+        }
+        if (checkpointJournal != null) {
+            try {
+                checkpointJournal.record(results, keys);
+            } catch (IOException e) {
+                out.println("# WARNING: Can not write the checkpoint journal: " + e.getMessage());
+            }
+        }
+        if (resultCache != null) {
+            try {
+                resultCache.record(results, keys);
+            } catch (IOException e) {
+                out.println("# WARNING: Can not write the result cache: " + e.getMessage());
+            }
+        }
+        return results;
+    }
+
+    private static String describe(ActionPlan plan) {
+        List<String> parts = new ArrayList<>();
+        for (Action action : plan.getMeasurementActions()) {
+            BenchmarkParams params = action.getParams();
+            parts.add(params.getForks() + "+" + params.getWarmupForks() + " forks of " + params.getWarmup().getCount()
+                    + "x" + params.getWarmup().getTime() + " warmup, " + params.getMeasurement().getCount() + "x"
+                    + params.getMeasurement().getTime() + " measurement");
+        }
+        return Utils.join(parts, "; ");
+    }
+
+    private static String formatMillis(long ms) {
+        long s = Math.max(0, ms) / 1000;
+        return String.format("%d:%02d:%02d", s / 3600, s / 60 % 60, s % 60);
+    }
+
+    private Multimap<BenchmarkParams, BenchmarkResult> runPlan(ActionPlan r, CpuLanes.Lane lane) {
+        switch (r.getType()) {
+            case EMBEDDED:
+                return runBenchmarksEmbedded(r);
+            case FORKED:
+                return isolated ? runIsolated(r) : runSeparate(r, lane);
+            default:
+                throw new IllegalStateException("Unknown action plan type: " + r.getType());
+        }
+    }
+
+    private CpuLanes lanes() {
+        if (lanes == null) {
+            lanes = CpuLanes.split(parallelForks);
+        }
+        return lanes;
+    }
+
+    /**
+     * Runs the forked plans in the lanes. Each plan writes its output to a buffer of its own, which goes to the
+     * console in one piece when the plan has finished; the run progress is kept on the calling thread.
+     */
+    private List<Multimap<BenchmarkParams, BenchmarkResult>> runPlansInLanes(List<ActionPlan> plan) {
+        final CpuLanes lanes = lanes();
+        out.println("# Running forked benchmarks in " + lanes.size() + " parallel lanes: " + lanes);
+        if (!lanes.canPin()) {
+            out.println("# WARNING: taskset is not available, forked VMs are not pinned to their lanes");
+        }
+        etaBeforeBenchmark();
+        out.println("");
+
+        final VerboseMode verbosity = options.verbosity().orElse(Defaults.VERBOSITY);
+        ExecutorService executor = Executors.newFixedThreadPool(lanes.size());
+        CompletionService<Multimap<BenchmarkParams, BenchmarkResult>> completion =
+                new ExecutorCompletionService<>(executor);
+        final Map<Future<Multimap<BenchmarkParams, BenchmarkResult>>, String[]> outputs = new HashMap<>();
+        Map<Future<Multimap<BenchmarkParams, BenchmarkResult>>, ActionPlan> plans = new HashMap<>();
+        List<ActionPlan> embedded = new ArrayList<>();
+        try {
+            for (final ActionPlan r : plan) {
+                if (r.getType() != ActionType.FORKED) {
+                    embedded.add(r);
+                    continue;
+                }
+                final String[] output = new String[1];
+                Future<Multimap<BenchmarkParams, BenchmarkResult>> future = completion.submit(
+                        new Callable<Multimap<BenchmarkParams, BenchmarkResult>>() {
+                            @Override
+                            public Multimap<BenchmarkParams, BenchmarkResult> call() throws Exception {
+                                CpuLanes.Lane lane = lanes.acquire();
+                                listeningOut().startBuffer(verbosity);
+                                try {
+                                    return runBudgeted(r, lane);
+                                } finally {
+                                    output[0] = listeningOut().endBuffer();
+                                    lanes.release(lane);
+                                }
+                            }
+                        });
+                outputs.put(future, output);
+                plans.put(future, r);
+            }
+
+            List<Multimap<BenchmarkParams, BenchmarkResult>> results = new ArrayList<>();
+            for (int i = 0; i < plans.size(); i++) {
+                try {
+                    Future<Multimap<BenchmarkParams, BenchmarkResult>> f = completion.take();
+                    String output = outputs.get(f)[0];
+                    if (output != null) {
+                        out.print(output);
+                    }
+                    Multimap<BenchmarkParams, BenchmarkResult> res = f.get();
+                    results.add(res);
+                    etaAfterPlan(plans.get(f), res);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof BenchmarkException) {
+                        throw (BenchmarkException) e.getCause();
+                    }
+                    throw new BenchmarkException(e.getCause());
+                } catch (InterruptedException e) {
+                    throw new BenchmarkException(e);
+                }
+            }
+
+            // embedded benchmarks share the host VM, run them once all forks are done
+            for (ActionPlan r : embedded) {
+                results.add(runBudgeted(r, null));
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Counts the forks of a plan run in a lane towards the run progress, and prints it.
+     */
+    private void etaAfterPlan(ActionPlan plan, Multimap<BenchmarkParams, BenchmarkResult> results) {
+        for (Action action : plan.getMeasurementActions()) {
+            BenchmarkParams params = action.getParams();
+            Collection<BenchmarkResult> measured = results.get(params);
+            int forks = params.getWarmupForks()
+                    + Math.max(params.getForks(), measured != null ? measured.size() : 0);
+            for (int i = 0; i < forks; i++) {
+                etaAfterBenchmark(params);
+            }
+        }
+        etaBeforeBenchmark();
+        out.println("");
+    }
+
     private SortedSet<RunResult> mergeRunResults(Multimap<BenchmarkParams, BenchmarkResult> results) {
         SortedSet<RunResult> result = new TreeSet<>(RunResult.DEFAULT_SORT_COMPARATOR);
         for (BenchmarkParams key : results.keys()) {
-            result.add(new RunResult(key, results.get(key)));
+            RunResult runResult = new RunResult(key, results.get(key));
+            if (key.getMode() == Mode.SampleTime && percentiles.length > 0) {
+                addPercentiles(runResult);
+            }
+            result.add(runResult);
         }
         return result;
     }
 
-    private Multimap<BenchmarkParams, BenchmarkResult> runSeparate(ActionPlan actionPlan) {
+    /**
+     * Adds the configured percentiles JMH does not report itself, from the merged samples of all forks, to the first
+     * fork, so each is aggregated from exactly one value.
+     */
+    private void addPercentiles(RunResult runResult) {
+        Result primary = runResult.getPrimaryResult();
+        Statistics statistics = primary.getStatistics();
+        Map<String, Result> secondary = runResult.getSecondaryResults();
+        BenchmarkResult first = runResult.getBenchmarkResults().iterator().next();
+        for (double p : percentiles) {
+            String label = primary.getLabel() + "·p" + percentileName(p);
+            if (!secondary.containsKey(label)) {
+                first.addBenchmarkResult(new ScalarResult(label, statistics.getPercentile(p), primary.getScoreUnit(),
+                        AggregationPolicy.MAX));
+            }
+        }
+    }
+
+    /**
+     * Name of a percentile the way JMH writes it, as a fraction with at least two decimals: 50 is "0.50", 99.999 is
+     * "0.99999".
+     */
+    static String percentileName(double p) {
+        String s = BigDecimal.valueOf(p).movePointLeft(2).stripTrailingZeros().toPlainString();
+        int dot = s.indexOf('.');
+        if (dot < 0) {
+            return s + ".00";
+        }
+        return s.length() - dot < 3 ? s + "0" : s;
+    }
+
+    private Multimap<BenchmarkParams, BenchmarkResult> runSeparate(ActionPlan actionPlan, CpuLanes.Lane lane) {
         Multimap<BenchmarkParams, BenchmarkResult> results = new HashMultimap<>();
 
         if (actionPlan.getMeasurementActions().size() != 1) {
@@ -597,12 +1138,14 @@ public class ExtendedRunner extends BaseRunner {
         }
 
         BinaryLinkServer server = null;
+        ExecutorService postProcessor = null;
+        ForkedVM next = null;
         try {
             server = new BinaryLinkServer(options, out);
 
             server.setPlan(actionPlan);
 
-            BenchmarkParams params = actionPlan.getMeasurementActions().get(0).getParams();
+            final BenchmarkParams params = actionPlan.getMeasurementActions().get(0).getParams();
 
             List<ExternalProfiler> profilers = ProfilerFactory.getSupportedExternal(options.getProfilers());
 
@@ -613,9 +1156,6 @@ public class ExtendedRunner extends BaseRunner {
                 printErr &= prof.allowPrintErr();
             }
 
-            List<ExternalProfiler> profilersRev = new ArrayList<>(profilers);
-            Collections.reverse(profilersRev);
-
             boolean forcePrint = options.verbosity().orElse(Defaults.VERBOSITY).equalsOrHigherThan(VerboseMode.EXTRA);
             printOut = forcePrint || printOut;
             printErr = forcePrint || printErr;
@@ -627,27 +1167,41 @@ public class ExtendedRunner extends BaseRunner {
             int warmupForkCount = params.getWarmupForks();
             int totalForks = warmupForkCount + forkCount;
 
+            List<String> archiveOptions = getSharedArchiveOptions(params, lane);
+
+            // pipelined forks need their own profiler instances, the previous fork's ones
+            // are still busy processing results in the background
+            boolean pipelined = pipelinedForks && totalForks > 1;
+            List<Future<?>> postProcessing = new ArrayList<>();
+            if (pipelined) {
+                postProcessor = Executors.newSingleThreadExecutor();
+            }
+
             for (int i = 0; i < totalForks; i++) {
                 boolean warmupFork = (i < warmupForkCount);
-                List<String> forkedString = getForkedMainCommand(params, profilers, server.getHost(), server.getPort());
-                etaBeforeBenchmark();
+
+                ForkedVM fork = next;
+                next = null;
+                if (fork == null) {
+                    fork = startFork(params, profilers, server, lane, archiveOptions, printOut, printErr, false);
+                }
+                if (lane == null) {
+                    // lanes run concurrently, their progress is kept by runPlansInLanes
+                    etaBeforeBenchmark();
+                }
 
                 if (warmupFork) {
-                    out.verbosePrintln("Warmup forking using command: " + forkedString);
+                    out.verbosePrintln("Warmup forking using command: " + fork.command);
                     out.println("# Warmup Fork: " + (i + 1) + " of " + warmupForkCount);
                 } else {
-                    out.verbosePrintln("Forking using command: " + forkedString);
+                    out.verbosePrintln("Forking using command: " + fork.command);
                     out.println("# Fork: " + (i + 1 - warmupForkCount) + " of " + forkCount);
                 }
 
-                TempFile stdErr = FileUtils.weakTempFile("stderr");
-                TempFile stdOut = FileUtils.weakTempFile("stdout");
-
-                if (!profilers.isEmpty()) {
+                if (!fork.profilers.isEmpty()) {
                     out.print("# Preparing profilers: ");
-                    for (ExternalProfiler profiler : profilers) {
+                    for (ExternalProfiler profiler : fork.profilers) {
                         out.print(profiler.getClass().getSimpleName() + " ");
-                        profiler.beforeTrial(params);
                     }
                     out.println("");
 
@@ -664,8 +1218,16 @@ public class ExtendedRunner extends BaseRunner {
 
                 long startTime = System.currentTimeMillis();
 
-                List<IterationResult> result =
-                        doFork(server, forkedString, stdOut.file(), stdErr.file(), printOut, printErr);
+                fork.release();
+
+                if (pipelined && i + 1 < totalForks) {
+                    // boot the next VM while this one tears down and we post-process its results
+                    awaitMeasurementEnd(fork, params);
+                    next = startFork(params, ProfilerFactory.getSupportedExternal(options.getProfilers()), server,
+                            lane, archiveOptions, printOut, printErr, true);
+                }
+
+                List<IterationResult> result = finishFork(server, fork);
                 if (!result.isEmpty()) {
                     long pid = server.getClientPid();
 
@@ -676,28 +1238,53 @@ public class ExtendedRunner extends BaseRunner {
 
                     BenchmarkResult br = new BenchmarkResult(params, result, md);
 
-                    if (!profilersRev.isEmpty()) {
-                        out.print("# Processing profiler results: ");
-                        for (ExternalProfiler profiler : profilersRev) {
-                            out.print(profiler.getClass().getSimpleName() + " ");
-                            for (Result profR : profiler.afterTrial(br, pid, stdOut.file(), stdErr.file())) {
-                                br.addBenchmarkResult(profR);
-                            }
-                        }
-                        out.println("");
+                    Integer steadyAt = steadyStateWarmup != null ? steadyStateWarmup.lastFork(params) : null;
+                    if (steadyAt != null && steadyAt != SteadyStateWarmup.NOT_STEADY) {
+                        br.addBenchmarkResult(new ScalarResult("·warmup.steady", steadyAt, "#", AggregationPolicy.MAX));
                     }
 
+                    // the listeners get the fork once the profilers have added their results to it
+                    int measuredFork = warmupFork ? 0 : i - warmupForkCount + 1;
                     if (!warmupFork) {
                         results.put(params, br);
                     }
+                    if (pipelined) {
+                        postProcessing.add(postProcessor.submit(newProfilerTask(fork, br, pid, measuredFork)));
+                    } else {
+                        newProfilerTask(fork, br, pid, measuredFork).run();
+                    }
+                } else if (pipelined) {
+                    postProcessing.add(postProcessor.submit(newProfilerTask(fork, null, 0, 0)));
+                } else {
+                    newProfilerTask(fork, null, 0, 0).run();
                 }
 
-                etaAfterBenchmark(params);
+                if (lane == null) {
+                    etaAfterBenchmark(params);
+                }
                 out.println("");
 
-                // we know these are not needed anymore, proactively delete
-                stdOut.delete();
-                stdErr.delete();
+                if (adaptiveStopRule != null && !warmupFork && i + 1 == totalForks) {
+                    // profiler results are attached to the same fork results, let them settle first
+                    for (Future<?> f : postProcessing) {
+                        f.get();
+                    }
+                    String stop = adaptiveStopRule.check(params, results.get(params));
+                    if (stop == null && timeBudget != null && !timeBudget.allowsFork(params)) {
+                        stop = "time budget exhausted";
+                    }
+                    if (stop == null) {
+                        forkCount++;
+                        totalForks++;
+                    } else {
+                        out.println("# Adaptive stop after " + forkCount + " forks: " + stop);
+                        out.println("");
+                    }
+                }
+            }
+
+            for (Future<?> f : postProcessing) {
+                f.get();
             }
 
             out.endBenchmark(new RunResult(params, results.get(params)).getAggregatedResult());
@@ -705,6 +1292,12 @@ public class ExtendedRunner extends BaseRunner {
         } catch (IOException e) {
             results.clear();
             throw new BenchmarkException(e);
+        } catch (InterruptedException e) {
+            results.clear();
+            throw new BenchmarkException(e);
+        } catch (ExecutionException e) {
+            results.clear();
+            throw new BenchmarkException(e.getCause());
         } catch (BenchmarkException e) {
             results.clear();
             if (options.shouldFailOnError().orElse(Defaults.FAIL_ON_ERROR)) {
@@ -712,7 +1305,13 @@ public class ExtendedRunner extends BaseRunner {
                 throw e;
             }
         } finally {
-            if (server != null) {
+            if (next != null) {
+                next.abandon();
+            }
+            if (postProcessor != null) {
+                postProcessor.shutdownNow();
+            }
+            if (server != null) {
                 server.terminate();
             }
             FileUtils.purgeTemps();
@@ -721,40 +1320,439 @@ public class ExtendedRunner extends BaseRunner {
         return results;
     }
 
+    private Multimap<BenchmarkParams, BenchmarkResult> runIsolated(ActionPlan actionPlan) {
+        Multimap<BenchmarkParams, BenchmarkResult> results = new HashMultimap<>();
+
+        if (actionPlan.getMeasurementActions().size() != 1) {
+            throw new IllegalStateException("Expect only single benchmark in the action plan, but was "
+                    + actionPlan.getMeasurementActions().size());
+        }
+
+        BinaryLinkServer server = null;
+        try {
+            server = new BinaryLinkServer(options, out);
+
+            server.setPlan(actionPlan);
+
+            BenchmarkParams params = actionPlan.getMeasurementActions().get(0).getParams();
+
+            out.startBenchmark(params);
+            out.println("");
+            if (!ProfilerFactory.getSupportedExternal(options.getProfilers()).isEmpty()) {
+                out.println("# WARNING: external profilers need a forked VM, they are ignored by isolated forks");
+            }
+
+            int forkCount = params.getForks();
+            int warmupForkCount = params.getWarmupForks();
+            int totalForks = warmupForkCount + forkCount;
+
+            for (int i = 0; i < totalForks; i++) {
+                boolean warmupFork = (i < warmupForkCount);
+
+                etaBeforeBenchmark();
+
+                if (warmupFork) {
+                    out.println("# Warmup Fork: " + (i + 1) + " of " + warmupForkCount + ", isolated in the host VM");
+                } else {
+                    out.println("# Fork: " + (i + 1 - warmupForkCount) + " of " + forkCount
+                            + ", isolated in the host VM");
+                }
+
+                long startTime = System.currentTimeMillis();
+
+                runInIsolation(server);
+
+                server.waitFinish();
+                BenchmarkException exception = server.getException();
+                if (exception != null) {
+                    throw exception;
+                }
+
+                List<IterationResult> result = server.getResults();
+                if (!result.isEmpty() && !warmupFork) {
+                    BenchmarkResultMetaData md = server.getMetadata();
+                    if (md != null) {
+                        md.adjustStart(startTime);
+                    }
+                    BenchmarkResult br = new BenchmarkResult(params, result, md);
+                    results.put(params, br);
+                    listeningOut().endFork(br, i - warmupForkCount + 1);
+                }
+
+                etaAfterBenchmark(params);
+                out.println("");
+
+                if (adaptiveStopRule != null && !warmupFork && i + 1 == totalForks) {
+                    String stop = adaptiveStopRule.check(params, results.get(params));
+                    if (stop == null && timeBudget != null && !timeBudget.allowsFork(params)) {
+                        stop = "time budget exhausted";
+                    }
+                    if (stop == null) {
+                        forkCount++;
+                        totalForks++;
+                    } else {
+                        out.println("# Adaptive stop after " + forkCount + " forks: " + stop);
+                        out.println("");
+                    }
+                }
+            }
+
+            out.endBenchmark(new RunResult(params, results.get(params)).getAggregatedResult());
+
+        } catch (IOException e) {
+            results.clear();
+            throw new BenchmarkException(e);
+        } catch (InterruptedException e) {
+            results.clear();
+            throw new BenchmarkException(e);
+        } catch (BenchmarkException e) {
+            results.clear();
+            if (options.shouldFailOnError().orElse(Defaults.FAIL_ON_ERROR)) {
+                out.println("Benchmark had encountered error, and fail on error was requested");
+                throw e;
+            }
+        } finally {
+            if (server != null) {
+                server.terminate();
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Runs one fork on a new thread in a fresh class loader and waits for it.
+     */
+    private void runInIsolation(BinaryLinkServer server) throws IOException, InterruptedException {
+        List<URL> urls = new ArrayList<>();
+        if (classPaths != null) {
+            for (String classPath : classPaths) {
+                urls.add(new File(classPath).toURI().toURL());
+            }
+        }
+        // last, so the project's own JMH version wins
+        urls.add(pluginLocation().toURI().toURL());
+
+        // no parent but the platform classes, the benchmark must not see Maven's or the plugin's classes
+        final URLClassLoader loader = new URLClassLoader(urls.toArray(new URL[urls.size()]),
+                ClassLoader.getSystemClassLoader().getParent());
+        final String[] argv = { server.getHost(), String.valueOf(server.getPort()) };
+        final Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Method main = loader.loadClass(IsolatedForkedMain.class.getName()).getMethod("main",
+                            String[].class);
+                    main.setAccessible(true);
+                    main.invoke(null, (Object) argv);
+                } catch (InvocationTargetException e) {
+                    failure[0] = e.getCause();
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            }
+        }, "jmh-isolated-fork");
+        thread.setContextClassLoader(loader);
+        try {
+            thread.start();
+            thread.join();
+        } finally {
+            loader.close();
+        }
+
+        // let the loader and everything it has loaded go before the next fork
+        System.gc();
+
+        if (failure[0] instanceof ClassNotFoundException || failure[0] instanceof NoClassDefFoundError) {
+            throw new BenchmarkException(new IllegalStateException(
+                    "Isolated forks need jmh-core on the project classpath: " + failure[0], failure[0]));
+        } else if (failure[0] != null) {
+            throw new BenchmarkException(failure[0]);
+        }
+    }
+
+    /**
+     * Processes the profiler results of a finished fork, then reports it to the listeners, and drops its temp files.
+     *
+     * @param br the fork result, null if the fork has not produced any
+     * @param measuredFork the fork number to report, 0 for a warmup fork
+     */
+    private Runnable newProfilerTask(final ForkedVM fork, final BenchmarkResult br, final long pid,
+            final int measuredFork) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (br != null && !fork.profilers.isEmpty()) {
+                        List<ExternalProfiler> profilersRev = new ArrayList<>(fork.profilers);
+                        Collections.reverse(profilersRev);
+
+                        StringBuilder sb = new StringBuilder("# Processing profiler results: ");
+                        for (ExternalProfiler profiler : profilersRev) {
+                            sb.append(profiler.getClass().getSimpleName()).append(" ");
+                            for (Result profR : profiler.afterTrial(br, pid, fork.stdOut.file(), fork.stdErr.file())) {
+                                br.addBenchmarkResult(profR);
+                            }
+                        }
+                        out.println(sb.toString());
+                    }
+                    if (br != null && measuredFork > 0) {
+                        listeningOut().endFork(br, measuredFork);
+                    }
+                } finally {
+                    // we know these are not needed anymore, proactively delete
+                    fork.stdOut.delete();
+                    fork.stdErr.delete();
+                }
+            }
+        };
+    }
+
+    /**
+     * Blocks until the fork has reported its last measurement iteration, or has exited.
+     */
+    private void awaitMeasurementEnd(ForkedVM fork, final BenchmarkParams params) throws InterruptedException {
+        final CountDownLatch measured = new CountDownLatch(1);
+        ListeningOutputFormat.Listener listener = new ListeningOutputFormat.Adapter() {
+            @Override
+            public void iterationResult(BenchmarkParams benchParams, IterationParams ip, int iteration,
+                    IterationResult data) {
+                if (ip.getType() == IterationType.MEASUREMENT && iteration == ip.getCount()
+                        && params.equals(benchParams)) {
+                    measured.countDown();
+                }
+            }
+        };
+
+        listeningOut().addListener(listener);
+        try {
+            while (!measured.await(10, TimeUnit.MILLISECONDS)) {
+                if (!fork.isAlive()) {
+                    return;
+                }
+            }
+        } finally {
+            listeningOut().removeListener(listener);
+        }
+    }
+
+    private ListeningOutputFormat listeningOut() {
+        return (ListeningOutputFormat) out;
+    }
+
+    private List<String> getSharedArchiveOptions(BenchmarkParams params, CpuLanes.Lane lane) {
+        if (!sharedArchive || useSeparateClasspathJar()) {
+            // the classpath JAR is regenerated for every fork, an archive would never match it
+            return Collections.emptyList();
+        }
+
+        List<String> cp = new ArrayList<>();
+        addClasspath(cp);
+        String dir = benchmarkDirectory != null ? benchmarkDirectory : System.getProperty("java.io.tmpdir");
+        SharedArchive archive = SharedArchive.forJvm(new File(dir, "cds").getAbsolutePath(), params.getJvm(),
+                params.getJdkVersion(), params.getVmName(), params.getJvmArgs(), jarPrefix(cp.get(1)));
+        if (archive == null) {
+            out.verbosePrintln("Shared archive is not supported by " + params.getVmName() + " "
+                    + params.getJdkVersion());
+            return Collections.emptyList();
+        }
+
+        synchronized (sharedArchiveLock) {
+            if (!archive.isReady() && !archive.isFailed()) {
+                trainSharedArchive(archive, params, lane);
+            }
+        }
+        return archive.isReady() ? archive.useOptions() : Collections.<String> emptyList();
+    }
+
+    /**
+     * The leading jar entries of the classpath, directories can not be archived.
+     */
+    private static String jarPrefix(String classPath) {
+        StringBuilder sb = new StringBuilder();
+        for (String entry : classPath.split(File.pathSeparator)) {
+            if (!entry.endsWith(".jar")) {
+                break;
+            }
+            if (sb.length() > 0) {
+                sb.append(File.pathSeparator);
+            }
+            sb.append(entry);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Runs the training fork on a link server of its own with a silent output format, so its iterations neither show
+     * up on the console nor reach the listeners, e.g. the steady state detector or the result stream.
+     */
+    private void trainSharedArchive(SharedArchive archive, BenchmarkParams params, CpuLanes.Lane lane) {
+        out.println("# Training shared class archive: " + archive.getArchive());
+
+        // a short run of the same benchmark touches all the classes the real forks need
+        BenchmarkParams trainingParams = ExBenchmarkParams.with(params,
+                new IterationParams(IterationType.WARMUP, 1, TimeValue.milliseconds(100), 1),
+                new IterationParams(IterationType.MEASUREMENT, 1, TimeValue.milliseconds(100), 1), 1, 0);
+        ActionPlan trainingPlan = new ActionPlan(ActionType.FORKED);
+        trainingPlan.add(new Action(trainingParams, ActionMode.WARMUP_MEASUREMENT));
+
+        BinaryLinkServer server = null;
+        TempFile stdErr = null;
+        TempFile stdOut = null;
+        try {
+            stdErr = FileUtils.weakTempFile("stderr");
+            stdOut = FileUtils.weakTempFile("stdout");
+            OutputFormat silent = OutputFormatFactory.createFormatInstance(new PrintStream(new NullOutputStream()),
+                    VerboseMode.SILENT);
+            server = new BinaryLinkServer(options, silent);
+            server.setPlan(trainingPlan);
+            List<String> command = getForkedMainCommand(trainingParams, Collections.<ExternalProfiler> emptyList(),
+                    server.getHost(), server.getPort(), lane, archive.trainingOptions());
+            out.verbosePrintln("Training fork using command: " + command);
+            doFork(server, command, stdOut.file(), stdErr.file(), false, false);
+        } catch (IOException | BenchmarkException e) {
+            out.println("# Shared archive training fork failed, falling back to regular class loading");
+        } finally {
+            if (server != null) {
+                server.terminate();
+            }
+            if (stdOut != null) {
+                stdOut.delete();
+            }
+            if (stdErr != null) {
+                stdErr.delete();
+            }
+        }
+
+        if (archive.build(out, params.getJvmArgs())) {
+            out.println("# Shared archive created: " + archive.getArchive());
+        } else {
+            out.println("# Shared archive could not be created, forks use regular class loading");
+        }
+        out.println("");
+    }
+
     private List<IterationResult> doFork(BinaryLinkServer reader, List<String> commandString, File stdOut, File stdErr,
             boolean printOut, boolean printErr) {
         try (FileOutputStream fosErr = new FileOutputStream(stdErr);
                 FileOutputStream fosOut = new FileOutputStream(stdOut)) {
-            ProcessBuilder pb = new ProcessBuilder(commandString);
-            Process p = pb.start();
+            Process p = new ProcessBuilder(commandString).start();
+            return finishFork(reader, p, drain(p.getErrorStream(), fosErr, printErr),
+                    drain(p.getInputStream(), fosOut, printOut), stdOut, stdErr);
+        } catch (IOException ex) {
+            out.println("<failed to invoke the VM, caught IOException: " + ex.getMessage() + ">");
+            out.println("");
+            throw new BenchmarkException(ex);
+        }
+    }
 
-            // drain streams, else we might lock up
-            InputStreamDrainer errDrainer = new InputStreamDrainer(p.getErrorStream(), fosErr);
-            InputStreamDrainer outDrainer = new InputStreamDrainer(p.getInputStream(), fosOut);
+    private ForkedVM startFork(BenchmarkParams params, List<ExternalProfiler> profilers, BinaryLinkServer server,
+            CpuLanes.Lane lane, List<String> archiveOptions, boolean printOut, boolean printErr, boolean gated)
+            throws IOException {
+        List<String> command =
+                getForkedMainCommand(params, profilers, server.getHost(), server.getPort(), lane, archiveOptions);
+        if (gated) {
+            gateCommand(command);
+        }
 
-            if (printErr) {
-                errDrainer.addOutputStream(new OutputFormatAdapter(out));
-            }
+        TempFile stdErr = FileUtils.weakTempFile("stderr");
+        TempFile stdOut = FileUtils.weakTempFile("stdout");
 
-            if (printOut) {
-                outDrainer.addOutputStream(new OutputFormatAdapter(out));
-            }
+        for (ExternalProfiler profiler : profilers) {
+            profiler.beforeTrial(params);
+        }
 
-            errDrainer.start();
-            outDrainer.start();
+        FileOutputStream fosErr = new FileOutputStream(stdErr.file());
+        FileOutputStream fosOut = new FileOutputStream(stdOut.file());
+        try {
+            Process p = new ProcessBuilder(command).start();
+            return new ForkedVM(p, drain(p.getErrorStream(), fosErr, printErr),
+                    drain(p.getInputStream(), fosOut, printOut), fosErr, fosOut, stdOut, stdErr, profilers, command,
+                    gated);
+        } catch (IOException ex) {
+            FileUtils.safelyClose(fosErr);
+            FileUtils.safelyClose(fosOut);
+            out.println("<failed to invoke the VM, caught IOException: " + ex.getMessage() + ">");
+            out.println("");
+            throw new BenchmarkException(ex);
+        }
+    }
 
+    /**
+     * Let the forked VM start with {@link GatedForkedMain}, which waits for the release before connecting back. The
+     * gate lives in the plugin, so the plugin itself goes on the forked classpath.
+     */
+    private void gateCommand(List<String> command) {
+        int main = command.lastIndexOf(ForkedMain.class.getName());
+        command.set(main, GatedForkedMain.class.getName());
+
+        int cp = command.indexOf("-cp") + 1;
+        String pluginPath = pluginLocation().getAbsolutePath();
+        String classPath = command.get(cp);
+        if (classPath.endsWith("\"")) {
+            command.set(cp, classPath.substring(0, classPath.length() - 1) + File.pathSeparator + pluginPath + "\"");
+        } else {
+            command.set(cp, classPath + File.pathSeparator + pluginPath);
+        }
+    }
+
+    /**
+     * The jar or directory the plugin's own runner classes are loaded from.
+     */
+    private static File pluginLocation() {
+        try {
+            return new File(ExtendedRunner.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private InputStreamDrainer drain(InputStream in, OutputStream file, boolean print) {
+        // drain streams, else we might lock up
+        InputStreamDrainer drainer = new InputStreamDrainer(in, file);
+        if (print) {
+            drainer.addOutputStream(new OutputFormatAdapter(out));
+        }
+        drainer.start();
+        return drainer;
+    }
+
+    private List<IterationResult> finishFork(BinaryLinkServer reader, ForkedVM fork) {
+        try {
+            return finishFork(reader, fork.waitFor(), fork.stdOut.file(), fork.stdErr.file());
+        } catch (InterruptedException ex) {
+            out.println("<host VM has been interrupted waiting for forked VM: " + ex.getMessage() + ">");
+            out.println("");
+            throw new BenchmarkException(ex);
+        }
+    }
+
+    private List<IterationResult> finishFork(BinaryLinkServer reader, Process p, InputStreamDrainer errDrainer,
+            InputStreamDrainer outDrainer, File stdOut, File stdErr) {
+        try {
             int ecode = p.waitFor();
 
             errDrainer.join();
             outDrainer.join();
 
-            // need to wait for all pending messages to be processed
-            // before starting the next benchmark
-            reader.waitFinish();
+            return finishFork(reader, ecode, stdOut, stdErr);
+        } catch (InterruptedException ex) {
+            out.println("<host VM has been interrupted waiting for forked VM: " + ex.getMessage() + ">");
+            out.println("");
+            throw new BenchmarkException(ex);
+        }
+    }
+
+    private List<IterationResult> finishFork(BinaryLinkServer reader, int ecode, File stdOut, File stdErr) {
+        // need to wait for all pending messages to be processed
+        // before starting the next benchmark
+        reader.waitFinish();
 
-            if (ecode != 0) {
-                out.println("<forked VM failed with exit code " + ecode + ">");
-                out.println("<stdout last='" + TAIL_LINES_ON_ERROR + " lines'>");
+        if (ecode != 0) {
+            out.println("<forked VM failed with exit code " + ecode + ">");
+            out.println("<stdout last='" + TAIL_LINES_ON_ERROR + " lines'>");
+            try {
                 for (String l : FileUtils.tail(stdOut, TAIL_LINES_ON_ERROR)) {
                     out.println(l);
                 }
@@ -763,30 +1761,23 @@ public class ExtendedRunner extends BaseRunner {
                 for (String l : FileUtils.tail(stdErr, TAIL_LINES_ON_ERROR)) {
                     out.println(l);
                 }
-                out.println("</stderr>");
-
-                out.println("");
+            } catch (IOException ex) {
+                out.println("<failed to read the forked VM output: " + ex.getMessage() + ">");
             }
+            out.println("</stderr>");
 
-            BenchmarkException exception = reader.getException();
-            if (exception == null) {
-                if (ecode == 0) {
-                    return reader.getResults();
-                } else {
-                    throw new BenchmarkException(new IllegalStateException("Forked VM failed with exit code " + ecode));
-                }
+            out.println("");
+        }
+
+        BenchmarkException exception = reader.getException();
+        if (exception == null) {
+            if (ecode == 0) {
+                return reader.getResults();
             } else {
-                throw exception;
+                throw new BenchmarkException(new IllegalStateException("Forked VM failed with exit code " + ecode));
             }
-
-        } catch (IOException ex) {
-            out.println("<failed to invoke the VM, caught IOException: " + ex.getMessage() + ">");
-            out.println("");
-            throw new BenchmarkException(ex);
-        } catch (InterruptedException ex) {
-            out.println("<host VM has been interrupted waiting for forked VM: " + ex.getMessage() + ">");
-            out.println("");
-            throw new BenchmarkException(ex);
+        } else {
+            throw exception;
         }
     }
 
@@ -797,6 +1788,18 @@ public class ExtendedRunner extends BaseRunner {
      */
     List<String> getForkedMainCommand(BenchmarkParams benchmark, List<ExternalProfiler> profilers, String host,
             int port) {
+        return getForkedMainCommand(benchmark, profilers, host, port, null, Collections.<String> emptyList());
+    }
+
+    /**
+     * @param host host VM host
+     * @param port host VM port
+     * @param lane CPU lane to confine the forked VM to, null for no confinement
+     * @param extraOptions additional JVM options, e.g. for class data sharing
+     * @return
+     */
+    List<String> getForkedMainCommand(BenchmarkParams benchmark, List<ExternalProfiler> profilers, String host,
+            int port, CpuLanes.Lane lane, List<String> extraOptions) {
         // Poll profilers for options
         List<String> javaInvokeOptions = new ArrayList<>();
         List<String> javaOptions = new ArrayList<>();
@@ -805,6 +1808,13 @@ public class ExtendedRunner extends BaseRunner {
             javaOptions.addAll(prof.addJVMOptions(benchmark));
         }
 
+        if (lane != null) {
+            javaInvokeOptions.addAll(0, lanes.pinCommand(lane));
+            if (supportsActiveProcessorCount(benchmark.getJdkVersion())) {
+                javaOptions.add("-XX:ActiveProcessorCount=" + lane.getCpuCount());
+            }
+        }
+
         List<String> command = new ArrayList<>();
 
         // prefix java invoke options, if any profiler wants it
@@ -819,6 +1829,8 @@ public class ExtendedRunner extends BaseRunner {
         // add profiler JVM commands, if any profiler wants it
         command.addAll(javaOptions);
 
+        command.addAll(extraOptions);
+
         // add any compiler oracle hints
         ExCompilerHints.addCompilerHints(command, hintFilePath);
 
@@ -836,6 +1848,33 @@ public class ExtendedRunner extends BaseRunner {
         return command;
     }
 
+    /**
+     * -XX:ActiveProcessorCount is available since 8u191 and 10, older VMs refuse to start with it.
+     */
+    static boolean supportsActiveProcessorCount(String jdkVersion) {
+        if (jdkVersion == null) {
+            return false;
+        }
+        if (jdkVersion.startsWith("1.6") || jdkVersion.startsWith("1.7")) {
+            return false;
+        }
+        if (jdkVersion.startsWith("1.8")) {
+            int idx = jdkVersion.indexOf('_');
+            if (idx < 0) {
+                return false;
+            }
+            StringBuilder update = new StringBuilder();
+            for (char c : jdkVersion.substring(idx + 1).toCharArray()) {
+                if (!Character.isDigit(c)) {
+                    break;
+                }
+                update.append(c);
+            }
+            return update.length() > 0 && Integer.parseInt(update.toString()) >= 191;
+        }
+        return !jdkVersion.startsWith("9");
+    }
+
     private List<String> getPrintPropertiesCommand(String jvm) {
         List<String> command = new ArrayList<>();
 
@@ -850,12 +1889,7 @@ public class ExtendedRunner extends BaseRunner {
         return command;
     }
 
-    private void addClasspath(List<String> command) {
-        command.add("-cp");
-
-        String cpProp = System.getProperty("java.class.path");
-        File tmpFile = null;
-
+    private boolean useSeparateClasspathJar() {
         String jvmargs = "" + options.getJvmArgs().orElse(Collections.<String> emptyList())
                 + options.getJvmArgsPrepend().orElse(Collections.<String> emptyList())
                 + options.getJvmArgsAppend().orElse(Collections.<String> emptyList());
@@ -863,8 +1897,16 @@ public class ExtendedRunner extends BaseRunner {
         // The second (creepy) test is for the cases when external plugins are not supplying
         // the options properly. Looking at you, JMH Gradle plugin. In this case, we explicitly
         // check if the option is provided by the user.
+        return Boolean.getBoolean("jmh.separateClasspathJAR") || jvmargs.contains("jmh.separateClasspathJAR=true");
+    }
+
+    private void addClasspath(List<String> command) {
+        command.add("-cp");
+
+        String cpProp = System.getProperty("java.class.path");
+        File tmpFile = null;
 
-        if (Boolean.getBoolean("jmh.separateClasspathJAR") || jvmargs.contains("jmh.separateClasspathJAR=true")) {
+        if (useSeparateClasspathJar()) {
 
             // Classpath can be too long and overflow the command line length.
             // Looking at you, Windows.
@@ -903,9 +1945,23 @@ public class ExtendedRunner extends BaseRunner {
             }
         }
 
+        List<String> entries = new ArrayList<>();
+        if (classPaths != null) {
+            entries.addAll(classPaths);
+        }
+        if (sharedArchive) {
+            // class data sharing only archives jars, and only from a classpath prefix
+            Collections.sort(entries, new Comparator<String>() {
+                @Override
+                public int compare(String o1, String o2) {
+                    return Boolean.compare(!o1.endsWith(".jar"), !o2.endsWith(".jar"));
+                }
+            });
+        }
+
         StringBuilder sbuilder = new StringBuilder();
         if (classPaths != null) {
-            for (String classPath : classPaths) {
+            for (String classPath : entries) {
                 if (Utils.isWindows()) {
                     sbuilder.append(";").append(classPath);
                 } else {
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package org.openjdk.jmh.runner;
+
+import org.openjdk.jmh.profile.ExternalProfiler;
+import org.openjdk.jmh.util.FileUtils;
+import org.openjdk.jmh.util.InputStreamDrainer;
+import org.openjdk.jmh.util.TempFile;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * A started forked VM together with the files and profilers that belong to it.
+ */
+class ForkedVM {
+
+    /** The process. */
+    private final Process process;
+
+    /** The err drainer. */
+    private final InputStreamDrainer errDrainer;
+
+    /** The out drainer. */
+    private final InputStreamDrainer outDrainer;
+
+    /** The fos err. */
+    private final FileOutputStream fosErr;
+
+    /** The fos out. */
+    private final FileOutputStream fosOut;
+
+    /** The std out. */
+    final TempFile stdOut;
+
+    /** The std err. */
+    final TempFile stdErr;
+
+    /** The profilers attached to this fork. */
+    final List<ExternalProfiler> profilers;
+
+    /** The command. */
+    final List<String> command;
+
+    /** Whether the VM waits for {@link #release()} before connecting back. */
+    final boolean gated;
+
+    /**
+     * Instantiates a new forked VM.
+     *
+     * @param process the process
+     * @param errDrainer the err drainer
+     * @param outDrainer the out drainer
+     * @param fosErr the fos err
+     * @param fosOut the fos out
+     * @param stdOut the std out
+     * @param stdErr the std err
+     * @param profilers the profilers
+     * @param command the command
+     * @param gated the gated
+     */
+    ForkedVM(Process process, InputStreamDrainer errDrainer, InputStreamDrainer outDrainer, FileOutputStream fosErr,
+            FileOutputStream fosOut, TempFile stdOut, TempFile stdErr, List<ExternalProfiler> profilers,
+            List<String> command, boolean gated) {
+        this.process = process;
+        this.errDrainer = errDrainer;
+        this.outDrainer = outDrainer;
+        this.fosErr = fosErr;
+        this.fosOut = fosOut;
+        this.stdOut = stdOut;
+        this.stdErr = stdErr;
+        this.profilers = profilers;
+        this.command = command;
+        this.gated = gated;
+    }
+
+    /**
+     * Let a gated VM connect back to the host.
+     *
+     * @throws IOException if the VM has gone away
+     */
+    void release() throws IOException {
+        if (gated) {
+            OutputStream os = process.getOutputStream();
+            os.write(1);
+            os.flush();
+            os.close();
+        }
+    }
+
+    /**
+     * Checks if is alive.
+     *
+     * @return true, if the process has not exited yet
+     */
+    boolean isAlive() {
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Wait for the VM to exit and all its output to be drained.
+     *
+     * @return the exit code
+     * @throws InterruptedException if interrupted
+     */
+    int waitFor() throws InterruptedException {
+        try {
+            int ecode = process.waitFor();
+            errDrainer.join();
+            outDrainer.join();
+            return ecode;
+        } finally {
+            FileUtils.safelyClose(fosErr);
+            FileUtils.safelyClose(fosOut);
+        }
+    }
+
+    /**
+     * Kill the VM and drop its files, used for forks that will never be released.
+     */
+    void abandon() {
+        process.destroy();
+        FileUtils.safelyClose(fosErr);
+        FileUtils.safelyClose(fosOut);
+        stdOut.delete();
+        stdErr.delete();
+    }
+}
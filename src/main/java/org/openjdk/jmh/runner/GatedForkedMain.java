@@ -0,0 +1,30 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package org.openjdk.jmh.runner;
+
+/**
+ * Entry point of pipelined forked VMs. The VM boots and loads the JMH runtime while the previous fork is still
+ * finishing, then waits for the host to release it through stdin before connecting back as a regular
+ * {@link ForkedMain}.
+ */
+class GatedForkedMain {
+
+    /**
+     * The main method.
+     *
+     * @param argv host and port to back-connect, as for {@link ForkedMain}
+     * @throws Exception if the forked runtime can not be loaded or stdin can not be read
+     */
+    public static void main(String[] argv) throws Exception {
+        // load and initialize the forked runtime before waiting, this is the part we want to overlap
+        Class.forName(ForkedMain.class.getName());
+
+        if (System.in.read() < 0) {
+            // host has given up on this fork
+            return;
+        }
+
+        ForkedMain.main(argv);
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package org.openjdk.jmh.runner;
+
+import org.openjdk.jmh.runner.link.BinaryLinkClient;
+import org.openjdk.jmh.runner.options.Options;
+
+/**
+ * Entry point of isolated in-process forks. It is loaded by a fresh class loader inside the host VM, together with its
+ * own copy of the JMH runtime, and talks to the host through the binary link like a {@link ForkedMain}. Unlike
+ * {@link ForkedMain} it leaves the streams, shutdown hooks and the exit of the shared VM alone.
+ */
+class IsolatedForkedMain {
+
+    /**
+     * The main method.
+     *
+     * @param argv host and port to back-connect, as for {@link ForkedMain}
+     * @throws Exception if the link fails
+     */
+    public static void main(String[] argv) throws Exception {
+        BinaryLinkClient link = new BinaryLinkClient(argv[0], Integer.parseInt(argv[1]));
+        try {
+            Options options = link.handshake();
+            new ForkedRunner(options, link).run();
+        } catch (Throwable ex) {
+            link.pushException(new BenchmarkException(ex));
+        } finally {
+            link.close();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package org.openjdk.jmh.runner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.openjdk.jmh.util.Utils;
+
+/**
+ * Caches the system properties of a target JVM, so that a probe VM is launched once per JVM binary instead of once per
+ * benchmark. Entries are keyed by the JVM path and the modification time of its binary, in memory and optionally on
+ * disk.
+ */
+public class JvmPropertiesCache {
+
+    /** The Constant KEY_JVM. */
+    private static final String KEY_JVM = "jmh.cache.jvm";
+
+    /** The Constant KEY_MTIME. */
+    private static final String KEY_MTIME = "jmh.cache.mtime";
+
+    /** The Constant MEMORY, shared by all runners in this VM. */
+    private static final ConcurrentMap<String, Properties> MEMORY = new ConcurrentHashMap<>();
+
+    /** The disk cache directory, null for memory only. */
+    private final File directory;
+
+    /**
+     * Instantiates a new jvm properties cache.
+     *
+     * @param directory the disk cache directory, null for memory only
+     */
+    public JvmPropertiesCache(String directory) {
+        this.directory = directory == null ? null : new File(directory);
+    }
+
+    /**
+     * Gets the target JVM properties, running the probe command on a miss.
+     *
+     * @param jvm the jvm path
+     * @param probeCommand the command printing the properties
+     * @return the properties
+     */
+    public Properties get(String jvm, List<String> probeCommand) {
+        File binary = new File(jvm);
+        long mtime = binary.isFile() ? binary.lastModified() : 0L;
+        String key = jvm + "@" + mtime;
+
+        Properties props = MEMORY.get(key);
+        if (props != null) {
+            return props;
+        }
+
+        // an unresolvable binary may change under the same name, never persist it
+        File cacheFile = (directory != null && mtime != 0L) ? new File(directory, cacheFileName(jvm)) : null;
+
+        props = load(cacheFile, jvm, mtime);
+        if (props == null) {
+            props = Utils.readPropertiesFromCommand(probeCommand);
+            store(cacheFile, jvm, mtime, props);
+        }
+
+        Properties prev = MEMORY.putIfAbsent(key, props);
+        return prev != null ? prev : props;
+    }
+
+    /**
+     * Load.
+     *
+     * @param cacheFile the cache file
+     * @param jvm the jvm
+     * @param mtime the mtime
+     * @return the properties, null if missing or stale
+     */
+    private Properties load(File cacheFile, String jvm, long mtime) {
+        if (cacheFile == null || !cacheFile.isFile()) {
+            return null;
+        }
+        Properties props = new Properties();
+        try (InputStream is = new FileInputStream(cacheFile)) {
+            props.load(is);
+        } catch (IOException e) {
+            return null;
+        }
+        if (!jvm.equals(props.getProperty(KEY_JVM)) || !String.valueOf(mtime).equals(props.getProperty(KEY_MTIME))) {
+            return null;
+        }
+        props.remove(KEY_JVM);
+        props.remove(KEY_MTIME);
+        return props;
+    }
+
+    /**
+     * Store.
+     *
+     * @param cacheFile the cache file
+     * @param jvm the jvm
+     * @param mtime the mtime
+     * @param props the props
+     */
+    private void store(File cacheFile, String jvm, long mtime, Properties props) {
+        if (cacheFile == null || props.isEmpty()) {
+            return;
+        }
+        Properties copy = new Properties();
+        copy.putAll(props);
+        copy.setProperty(KEY_JVM, jvm);
+        copy.setProperty(KEY_MTIME, String.valueOf(mtime));
+
+        cacheFile.getParentFile().mkdirs();
+        try (OutputStream os = new FileOutputStream(cacheFile)) {
+            copy.store(os, "Target JVM properties");
+        } catch (IOException e) {
+            // cache is best effort, the next run will probe again
+            cacheFile.delete();
+        }
+    }
+
+    /**
+     * Cache file name.
+     *
+     * @param jvm the jvm
+     * @return the file name
+     */
+    private static String cacheFileName(String jvm) {
+        return "jvm-" + sha1(jvm) + ".properties";
+    }
+
+    /**
+     * Hex encoded SHA-1 of the given string.
+     *
+     * @param s the string
+     * @return the hash
+     */
+    public static String sha1(String s) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest(s.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b & 0xFF));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
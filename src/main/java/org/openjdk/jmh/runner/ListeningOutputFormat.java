@@ -0,0 +1,287 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package org.openjdk.jmh.runner;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.results.BenchmarkResult;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.format.OutputFormat;
+import org.openjdk.jmh.runner.format.OutputFormatFactory;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * {@link OutputFormat} decorator which lets the host observe the progress of a run. Forked VMs report every iteration
+ * through the {@link org.openjdk.jmh.runner.link.BinaryLinkServer} to the host output format, so listeners see the
+ * results of all forks as they stream in.
+ * <p>
+ * A thread can divert its output into a buffer, e.g. a lane of parallel forks, so the output of concurrent benchmarks
+ * does not interleave. The threads it starts meanwhile, like the link server and stream drainers of its forks, write
+ * to the same buffer. Listeners still see every event as it happens.
+ */
+public class ListeningOutputFormat implements OutputFormat {
+
+    /** The delegate. */
+    private final OutputFormat delegate;
+
+    /** The listeners. */
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /** The buffer of the current thread and the threads it has started, null to write to the delegate. */
+    private final InheritableThreadLocal<Buffer> buffers = new InheritableThreadLocal<>();
+
+    /**
+     * Wrap the format, unless it is already wrapped.
+     *
+     * @param format the format
+     * @return the listening output format
+     */
+    public static ListeningOutputFormat wrap(OutputFormat format) {
+        if (format instanceof ListeningOutputFormat) {
+            return (ListeningOutputFormat) format;
+        }
+        return new ListeningOutputFormat(format);
+    }
+
+    /**
+     * Instantiates a new listening output format.
+     *
+     * @param delegate the delegate
+     */
+    private ListeningOutputFormat(OutputFormat delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Adds the listener.
+     *
+     * @param listener the listener
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes the listener.
+     *
+     * @param listener the listener
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Divert the output of the current thread, and of the threads it starts from now on, into a new buffer.
+     *
+     * @param mode the verbosity of the buffered output
+     */
+    public void startBuffer(VerboseMode mode) {
+        buffers.set(new Buffer(mode));
+    }
+
+    /**
+     * Stop buffering the output of the current thread.
+     *
+     * @return the buffered output, empty if the thread had no buffer
+     */
+    public String endBuffer() {
+        Buffer buffer = buffers.get();
+        buffers.remove();
+        return buffer != null ? buffer.text() : "";
+    }
+
+    /**
+     * The format to write to.
+     *
+     * @return the buffer of the current thread, or the delegate
+     */
+    private OutputFormat target() {
+        Buffer buffer = buffers.get();
+        return buffer != null ? buffer.format : delegate;
+    }
+
+    @Override
+    public void iteration(BenchmarkParams benchParams, IterationParams params, int iteration) {
+        target().iteration(benchParams, params, iteration);
+    }
+
+    @Override
+    public void iterationResult(BenchmarkParams benchParams, IterationParams params, int iteration,
+            IterationResult data) {
+        target().iterationResult(benchParams, params, iteration, data);
+        for (Listener l : listeners) {
+            l.iterationResult(benchParams, params, iteration, data);
+        }
+    }
+
+    @Override
+    public void startBenchmark(BenchmarkParams benchParams) {
+        target().startBenchmark(benchParams);
+    }
+
+    @Override
+    public void endBenchmark(BenchmarkResult result) {
+        target().endBenchmark(result);
+        for (Listener l : listeners) {
+            l.endBenchmark(result);
+        }
+    }
+
+    /**
+     * Notify the listeners that a measurement fork has finished. Not an {@link OutputFormat} event, the runner calls it
+     * directly.
+     *
+     * @param result the result of the fork
+     * @param fork the fork number, starting at 1
+     */
+    public void endFork(BenchmarkResult result, int fork) {
+        for (Listener l : listeners) {
+            l.endFork(result, fork);
+        }
+    }
+
+    @Override
+    public void startRun() {
+        target().startRun();
+    }
+
+    @Override
+    public void endRun(Collection<RunResult> result) {
+        target().endRun(result);
+    }
+
+    @Override
+    public void print(String s) {
+        target().print(s);
+    }
+
+    @Override
+    public void println(String s) {
+        target().println(s);
+    }
+
+    @Override
+    public void flush() {
+        target().flush();
+    }
+
+    @Override
+    public void close() {
+        target().close();
+    }
+
+    @Override
+    public void verbosePrintln(String s) {
+        target().verbosePrintln(s);
+    }
+
+    @Override
+    public void write(int b) {
+        target().write(b);
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        target().write(b);
+    }
+
+    /**
+     * Output of a thread, kept as text until it is written in one piece.
+     */
+    private static class Buffer {
+
+        /** The bytes. */
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        /** The format writing to the bytes. */
+        private final OutputFormat format;
+
+        /**
+         * Instantiates a new buffer.
+         *
+         * @param mode the verbosity
+         */
+        Buffer(VerboseMode mode) {
+            try {
+                format = OutputFormatFactory.createFormatInstance(
+                        new PrintStream(bytes, true, StandardCharsets.UTF_8.name()), mode);
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * The text written so far.
+         *
+         * @return the text
+         */
+        String text() {
+            format.flush();
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Receives run progress. Callbacks arrive on the link server threads and must not block.
+     */
+    public interface Listener {
+
+        /**
+         * Called after an iteration of any fork has finished.
+         *
+         * @param benchParams the bench params
+         * @param params the iteration params
+         * @param iteration the iteration number, starting at 1
+         * @param data the iteration result
+         */
+        void iterationResult(BenchmarkParams benchParams, IterationParams params, int iteration, IterationResult data);
+
+        /**
+         * Called after a measurement fork has finished.
+         *
+         * @param result the result of the fork
+         * @param fork the fork number, starting at 1
+         */
+        void endFork(BenchmarkResult result, int fork);
+
+        /**
+         * Called after all forks of a benchmark have finished.
+         *
+         * @param result the aggregated result
+         */
+        void endBenchmark(BenchmarkResult result);
+    }
+
+    /**
+     * Empty {@link Listener} to extend from.
+     */
+    public static class Adapter implements Listener {
+
+        @Override
+        public void iterationResult(BenchmarkParams benchParams, IterationParams params, int iteration,
+                IterationResult data) {
+            // nothing by default
+        }
+
+        @Override
+        public void endFork(BenchmarkResult result, int fork) {
+            // nothing by default
+        }
+
+        @Override
+        public void endBenchmark(BenchmarkResult result) {
+            // nothing by default
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package org.openjdk.jmh.runner;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.BenchmarkResult;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.ScalarResult;
+import org.openjdk.jmh.util.Multimap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Content-addressed cache of benchmark results, to skip benchmarks whose inputs did not change.
+ * <p>
+ * A result is stored under the fingerprint of everything it depends on: the code fingerprint of the benchmark, given
+ * by the caller from the bytecode it can reach and the jars of the class path, the environment, e.g. host hardware
+ * and profilers, and all {@link BenchmarkParams} of the measurement: workload params, mode, threads, forks,
+ * iterations, JVM, JVM version and arguments. When a planned measurement has a stored result, the result is reused
+ * instead of forking, with a "·cached" secondary result telling its age in days. Entries are written like the ones
+ * of the {@link CheckpointJournal}, but are never dropped by the plugin.
+ */
+public class ResultCache {
+
+    /** The Constant CACHED, the secondary result that marks a reused result. */
+    public static final String CACHED = "·cached";
+
+    /** The Constant SUFFIX. */
+    private static final String SUFFIX = ".ser";
+
+    /** The Constant DAY_MS. */
+    private static final double DAY_MS = 24 * 3600 * 1000.0;
+
+    /** The directory. */
+    private final File directory;
+
+    /** The code fingerprints by benchmark name. */
+    private final Map<String, String> codeFingerprints;
+
+    /** The environment, part of every fingerprint. */
+    private final String environment;
+
+    /** The reused benchmarks, described for the log. */
+    private final List<String> hits = new ArrayList<>();
+
+    /** The params of the reused measurements, never stored again. */
+    private final Set<BenchmarkParams> reused = new HashSet<>();
+
+    /**
+     * Open the cache.
+     *
+     * @param directory the cache directory
+     * @param codeFingerprints the code fingerprints by benchmark name, a benchmark without one is never cached
+     * @param environment the environment, e.g. the host fingerprint and the profilers
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public ResultCache(File directory, Map<String, String> codeFingerprints, String environment) throws IOException {
+        this.directory = directory;
+        this.codeFingerprints = codeFingerprints;
+        this.environment = environment;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can not create the result cache directory " + directory);
+        }
+    }
+
+    /**
+     * Gets the directory.
+     *
+     * @return the directory
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Gets the reused benchmarks, each with the time it was measured.
+     *
+     * @return the hits
+     */
+    public List<String> getHits() {
+        return hits;
+    }
+
+    /**
+     * If a result was reused from a cache.
+     *
+     * @param result the result
+     * @return true, if cached
+     */
+    public static boolean isCached(RunResult result) {
+        return result.getSecondaryResults().containsKey(CACHED);
+    }
+
+    /**
+     * The fingerprint of a measurement.
+     *
+     * @param params the params
+     * @return the fingerprint, null if the benchmark has no code fingerprint
+     */
+    public String fingerprint(BenchmarkParams params) {
+        String code = codeFingerprints.get(params.getBenchmark());
+        if (code == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(code).append('\n').append(environment).append('\n');
+        sb.append(params.getBenchmark()).append('\n').append(params.generatedBenchmark()).append('\n');
+        sb.append(params.getMode()).append('\n').append(params.getTimeUnit()).append('\n');
+        sb.append(params.getOpsPerInvocation()).append('\n').append(params.shouldSynchIterations()).append('\n');
+        sb.append(params.getThreads()).append(' ').append(Arrays.toString(params.getThreadGroups())).append(' ')
+                .append(params.getThreadGroupLabels()).append('\n');
+        sb.append(params.getForks()).append(' ').append(params.getWarmupForks()).append('\n');
+        describe(sb, params.getWarmup());
+        describe(sb, params.getMeasurement());
+        sb.append(params.getTimeout()).append('\n');
+        for (String key : params.getParamsKeys()) {
+            sb.append(key).append('=').append(params.getParam(key)).append('\n');
+        }
+        sb.append(params.getJvm()).append('\n').append(params.getJvmArgs()).append('\n');
+        sb.append(params.getVmName()).append(' ').append(params.getJdkVersion()).append(' ')
+                .append(params.getVmVersion()).append('\n');
+        sb.append(params.getJmhVersion());
+        return JvmPropertiesCache.sha1(sb.toString());
+    }
+
+    /**
+     * Describe iteration params.
+     *
+     * @param sb the sb
+     * @param iteration the iteration
+     */
+    private static void describe(StringBuilder sb, IterationParams iteration) {
+        sb.append(iteration.getType()).append(' ').append(iteration.getCount()).append(' ')
+                .append(iteration.getTime()).append(' ').append(iteration.getBatchSize()).append('\n');
+    }
+
+    /**
+     * Drop the measurements of a plan that have a cached result.
+     *
+     * @param plan the plan
+     * @param done receives the cached results of the dropped measurements
+     * @return the plan with the remaining measurements, null if nothing is left to measure
+     */
+    public ActionPlan skipCached(ActionPlan plan, Multimap<BenchmarkParams, BenchmarkResult> done) {
+        ActionPlan left = new ActionPlan(plan.getType());
+        boolean measure = false;
+        boolean skipped = false;
+        for (Action action : plan.getActions()) {
+            Entry entry = null;
+            if (action.getMode().doMeasurement()) {
+                String fingerprint = fingerprint(action.getParams());
+                entry = fingerprint != null ? read(new File(directory, fingerprint + SUFFIX)) : null;
+            }
+            if (entry == null) {
+                left.add(action);
+                measure |= action.getMode().doMeasurement();
+                continue;
+            }
+            double age = Math.max(0, System.currentTimeMillis() - entry.timestamp) / DAY_MS;
+            for (BenchmarkResult br : entry.results) {
+                br.addBenchmarkResult(new ScalarResult(CACHED, age, "days", AggregationPolicy.MAX));
+            }
+            done.putAll(entry.params, entry.results);
+            reused.add(action.getParams());
+            hits.add(ExBenchmarkParams.label(action.getParams()) + ", measured "
+                    + new SimpleDateFormat("yyyy-MM-dd HH:mm").format(new Date(entry.timestamp)));
+            skipped = true;
+        }
+        if (!measure) {
+            return null;
+        }
+        return skipped ? left : plan;
+    }
+
+    /**
+     * Store the results of measured benchmarks. A benchmark with fewer results than forks, e.g. of a failed fork, is
+     * not stored, nor is a reused one: its entry keeps the time it was measured and no "·cached" result.
+     * <p>
+     * A result is stored under the params it was planned with, which {@link #skipCached} looks up; a time budget may
+     * have run it with fewer forks, iterations or a shorter time.
+     *
+     * @param results the results, by the params they ran with
+     * @param planned the planned params by the params they ran with, missing if the same
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public synchronized void record(Multimap<BenchmarkParams, BenchmarkResult> results,
+            Map<BenchmarkParams, BenchmarkParams> planned) throws IOException {
+        for (BenchmarkParams params : results.keys()) {
+            Collection<BenchmarkResult> brs = results.get(params);
+            BenchmarkParams key = planned.containsKey(params) ? planned.get(params) : params;
+            String fingerprint = fingerprint(key);
+            if (fingerprint == null || reused.contains(key) || brs == null
+                    || brs.size() < Math.max(1, params.getForks())) {
+                continue;
+            }
+            File tmp = new File(directory, fingerprint + ".tmp");
+            try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                oos.writeObject(params);
+                oos.writeObject(new ArrayList<>(brs));
+                oos.writeLong(System.currentTimeMillis());
+            }
+            File file = new File(directory, fingerprint + SUFFIX);
+            if (!tmp.renameTo(file)) {
+                // rename does not replace existing files on every platform
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("Can not move " + tmp + " to " + file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a cache entry.
+     *
+     * @param file the file
+     * @return the entry, null if missing or it can not be read
+     */
+    @SuppressWarnings("unchecked")
+    private static Entry read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            BenchmarkParams params = (BenchmarkParams) ois.readObject();
+            List<BenchmarkResult> results = (List<BenchmarkResult>) ois.readObject();
+            return new Entry(params, results, ois.readLong());
+        } catch (IOException e) {
+            return null;
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (ClassCastException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A cached result.
+     */
+    private static class Entry {
+
+        /** The params the results ran with. */
+        private final BenchmarkParams params;
+
+        /** The fork results. */
+        private final List<BenchmarkResult> results;
+
+        /** The time of the measurement. */
+        private final long timestamp;
+
+        /**
+         * Instantiates a new entry.
+         *
+         * @param params the params
+         * @param results the results
+         * @param timestamp the timestamp
+         */
+        Entry(BenchmarkParams params, List<BenchmarkResult> results, long timestamp) {
+            this.params = params;
+            this.results = results;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package org.openjdk.jmh.runner;
+
+import org.openjdk.jmh.runner.format.OutputFormat;
+import org.openjdk.jmh.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class data sharing archive for forked benchmark VMs. One training fork records the loaded classes, the archive is
+ * then built once and every later fork maps it instead of loading JMH, the project and its dependencies from scratch.
+ * <p>
+ * JDK 24+ gets an AOT cache (JEP 483), JDK 11-23 an AppCDS archive built from a class list. Older or non-HotSpot VMs
+ * are not supported. The archive is keyed by a hash of the JVM, its version, the JVM arguments and the classpath,
+ * with the size and modification time of every entry, so any change, e.g. a rebuilt SNAPSHOT jar, produces a fresh
+ * archive. A failed build is remembered under the same key for a day, and the forks run without the archive.
+ */
+public class SharedArchive {
+
+    /** The Constant FAILURE_EXPIRY_MS, how long a failed build is not tried again. */
+    private static final long FAILURE_EXPIRY_MS = 24 * 3600 * 1000L;
+
+    /**
+     * The Enum Kind.
+     */
+    enum Kind {
+        /** AppCDS archive built from a class list. */
+        APP_CDS,
+        /** JDK AOT cache. */
+        AOT_CACHE
+    }
+
+    /** The kind. */
+    private final Kind kind;
+
+    /** The jvm. */
+    private final String jvm;
+
+    /** The class path. */
+    private final String classPath;
+
+    /** The training output, a class list or AOT configuration. */
+    private final File training;
+
+    /** The archive. */
+    private final File archive;
+
+    /** The failure marker. */
+    private final File failed;
+
+    /**
+     * Create the archive descriptor for the given target VM.
+     *
+     * @param directory the archive directory
+     * @param jvm the jvm
+     * @param jdkVersion the jdk version
+     * @param vmName the vm name
+     * @param jvmArgs the jvm args
+     * @param classPath the archived prefix of the class path the forks are started with, jars only
+     * @return the shared archive, null if the target VM can not use one
+     */
+    public static SharedArchive forJvm(String directory, String jvm, String jdkVersion, String vmName,
+            Collection<String> jvmArgs, String classPath) {
+        if (classPath == null || classPath.isEmpty()) {
+            return null;
+        }
+        if (vmName == null || !(vmName.contains("HotSpot") || vmName.contains("OpenJDK"))) {
+            return null;
+        }
+        int major = majorVersion(jdkVersion);
+        Kind kind;
+        if (major >= 24) {
+            kind = Kind.AOT_CACHE;
+        } else if (major >= 11) {
+            kind = Kind.APP_CDS;
+        } else {
+            return null;
+        }
+
+        String key = JvmPropertiesCache.sha1(jvm + "\n" + jdkVersion + "\n" + jvmArgs + "\n" + stamp(classPath));
+        File dir = new File(directory);
+        dir.mkdirs();
+        if (kind == Kind.AOT_CACHE) {
+            return new SharedArchive(kind, jvm, classPath, new File(dir, key + ".aotconf"), new File(dir, key + ".aot"),
+                    new File(dir, key + ".failed"));
+        }
+        return new SharedArchive(kind, jvm, classPath, new File(dir, key + ".classlist"), new File(dir, key + ".jsa"),
+                new File(dir, key + ".failed"));
+    }
+
+    /**
+     * The class path with the size and modification time of every entry.
+     *
+     * @param classPath the class path
+     * @return the stamped class path
+     */
+    private static String stamp(String classPath) {
+        StringBuilder sb = new StringBuilder();
+        for (String entry : classPath.split(File.pathSeparator)) {
+            File file = new File(entry);
+            sb.append(entry).append(' ').append(file.length()).append(' ').append(file.lastModified()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Instantiates a new shared archive.
+     *
+     * @param kind the kind
+     * @param jvm the jvm
+     * @param classPath the class path
+     * @param training the training
+     * @param archive the archive
+     * @param failed the failed
+     */
+    private SharedArchive(Kind kind, String jvm, String classPath, File training, File archive, File failed) {
+        this.kind = kind;
+        this.jvm = jvm;
+        this.classPath = classPath;
+        this.training = training;
+        this.archive = archive;
+        this.failed = failed;
+    }
+
+    /**
+     * Checks if is ready.
+     *
+     * @return true, if the archive exists and can be used
+     */
+    public boolean isReady() {
+        return archive.isFile() && !isFailed();
+    }
+
+    /**
+     * Checks if is failed.
+     *
+     * @return true, if building the archive failed within the last day
+     */
+    public boolean isFailed() {
+        if (!failed.exists()) {
+            return false;
+        }
+        if (System.currentTimeMillis() - failed.lastModified() > FAILURE_EXPIRY_MS) {
+            failed.delete();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Options for the training fork.
+     *
+     * @return the options
+     */
+    public List<String> trainingOptions() {
+        training.delete();
+        if (kind == Kind.AOT_CACHE) {
+            return Arrays.asList("-XX:AOTMode=record", "-XX:AOTConfiguration=" + training.getAbsolutePath());
+        }
+        return Collections.singletonList("-XX:DumpLoadedClassList=" + training.getAbsolutePath());
+    }
+
+    /**
+     * Options for the forks using the archive. The VM silently falls back to regular class loading if the archive
+     * does not match.
+     *
+     * @return the options
+     */
+    public List<String> useOptions() {
+        if (kind == Kind.AOT_CACHE) {
+            return Collections.singletonList("-XX:AOTCache=" + archive.getAbsolutePath());
+        }
+        return Arrays.asList("-Xshare:auto", "-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+    }
+
+    /**
+     * Build the archive from the training output.
+     *
+     * @param out the out
+     * @param jvmArgs the jvm args of the forks
+     * @return true, if the archive was built
+     */
+    public boolean build(OutputFormat out, Collection<String> jvmArgs) {
+        if (!training.isFile() || training.length() == 0) {
+            markFailed("training run produced no " + training.getName());
+            return false;
+        }
+
+        List<String> command = new ArrayList<>();
+        command.add(jvm);
+        command.addAll(jvmArgs);
+        if (kind == Kind.AOT_CACHE) {
+            command.add("-XX:AOTMode=create");
+            command.add("-XX:AOTConfiguration=" + training.getAbsolutePath());
+            command.add("-XX:AOTCache=" + archive.getAbsolutePath());
+        } else {
+            command.add("-Xshare:dump");
+            command.add("-XX:SharedClassListFile=" + training.getAbsolutePath());
+            command.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+        }
+        command.add("-cp");
+        command.add(classPath);
+
+        out.verbosePrintln("Building shared archive using command: " + command);
+        try {
+            File log = FileUtils.tempFile("cds");
+            Process p = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+            int ecode = p.waitFor();
+            if (ecode != 0 || !archive.isFile()) {
+                for (String l : FileUtils.tail(log, 5)) {
+                    out.verbosePrintln(l);
+                }
+                markFailed("archive build failed with exit code " + ecode);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            markFailed(e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            markFailed(e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Mark failed.
+     *
+     * @param reason the reason
+     */
+    private void markFailed(String reason) {
+        archive.delete();
+        try {
+            FileUtils.writeLines(failed, Collections.singletonList(reason));
+        } catch (IOException e) {
+            // nothing to remember, the next run will try again
+        }
+    }
+
+    /**
+     * Gets the archive.
+     *
+     * @return the archive
+     */
+    public File getArchive() {
+        return archive;
+    }
+
+    /**
+     * Major version.
+     *
+     * @param jdkVersion the jdk version, e.g. 1.8.0_202, 11.0.2, 17
+     * @return the major version, 0 if unknown
+     */
+    static int majorVersion(String jdkVersion) {
+        if (jdkVersion == null) {
+            return 0;
+        }
+        String v = jdkVersion.startsWith("1.") ? jdkVersion.substring(2) : jdkVersion;
+        int end = 0;
+        while (end < v.length() && Character.isDigit(v.charAt(end))) {
+            end++;
+        }
+        return end == 0 ? 0 : Integer.parseInt(v.substring(0, end));
+    }
+}
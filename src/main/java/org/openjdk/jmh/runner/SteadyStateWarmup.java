@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package org.openjdk.jmh.runner;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.results.IterationResult;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Detects when warmup iterations have reached a steady state, and sizes the warmup of later runs accordingly.
+ * <p>
+ * Warmup scores stream back from every fork. Steady state is reached at the first iteration whose trailing window of
+ * scores has a least-squares slope below the threshold, relative to the window mean. The iteration count each
+ * benchmark needed is kept in a profile file; the next run warms up for that many iterations, capped by the configured
+ * warmup iterations. A benchmark that does not settle is profiled as such and gets the full warmup again.
+ */
+public class SteadyStateWarmup extends ListeningOutputFormat.Adapter {
+
+    /** The Constant NOT_STEADY. */
+    static final int NOT_STEADY = -1;
+
+    /** The window. */
+    private final int window;
+
+    /** The max relative drift over the window. */
+    private final double threshold;
+
+    /** The profile file. */
+    private final File profileFile;
+
+    /** The profile from earlier runs, by benchmark label. */
+    private final Properties profile = new Properties();
+
+    /** The warmup scores of the running fork, by benchmark label. */
+    private final Map<String, List<Double>> scores = new HashMap<>();
+
+    /** The steady iteration of the last finished fork, by benchmark label. */
+    private final Map<String, Integer> lastFork = new HashMap<>();
+
+    /** The steady iteration over all forks of this run, by benchmark label. */
+    private final Map<String, Integer> observed = new HashMap<>();
+
+    /**
+     * Instantiates a new steady state warmup.
+     *
+     * @param window the number of trailing iterations tested for a trend
+     * @param threshold the max relative drift across the window, e.g. 0.02
+     * @param profileFile the profile file
+     */
+    public SteadyStateWarmup(int window, double threshold, File profileFile) {
+        this.window = Math.max(2, window);
+        this.threshold = threshold;
+        this.profileFile = profileFile;
+        if (profileFile.isFile()) {
+            try (InputStream is = new FileInputStream(profileFile)) {
+                profile.load(is);
+            } catch (IOException e) {
+                // start over with an empty profile
+                profile.clear();
+            }
+        }
+    }
+
+    /**
+     * Size the warmup of a benchmark from the profile.
+     *
+     * @param params the params with the configured, maximum warmup
+     * @return the params with the profiled warmup
+     */
+    public synchronized BenchmarkParams adjust(BenchmarkParams params) {
+        IterationParams warmup = params.getWarmup();
+        String needed = profile.getProperty(ExBenchmarkParams.label(params));
+        if (needed == null || warmup.getCount() == 0) {
+            return params;
+        }
+        int count;
+        try {
+            count = Integer.parseInt(needed);
+        } catch (NumberFormatException e) {
+            return params;
+        }
+        if (count == NOT_STEADY || count >= warmup.getCount()) {
+            return params;
+        }
+        // keep room for a full window, or a regression in warmup behavior could never be noticed
+        count = Math.min(warmup.getCount(), Math.max(count, window));
+        return ExBenchmarkParams.with(params,
+                new IterationParams(warmup.getType(), count, warmup.getTime(), warmup.getBatchSize()),
+                params.getMeasurement(), params.getForks(), params.getWarmupForks());
+    }
+
+    @Override
+    public synchronized void iterationResult(BenchmarkParams benchParams, IterationParams params, int iteration,
+            IterationResult data) {
+        String label = ExBenchmarkParams.label(benchParams);
+        if (params.getType() == IterationType.WARMUP) {
+            List<Double> list = scores.get(label);
+            if (list == null || iteration == 1) {
+                list = new ArrayList<>();
+                scores.put(label, list);
+            }
+            list.add(data.getPrimaryResult().getScore());
+        } else if (iteration == 1) {
+            // first measurement iteration, the fork's warmup is complete
+            List<Double> list = scores.remove(label);
+            if (list != null && !list.isEmpty()) {
+                int steady = steadyAt(list);
+                lastFork.put(label, steady);
+                Integer prev = observed.get(label);
+                if (prev == null || prev != NOT_STEADY && (steady == NOT_STEADY || steady > prev)) {
+                    observed.put(label, steady);
+                }
+            }
+        }
+    }
+
+    /**
+     * Warmup iterations the last finished fork of a benchmark needed.
+     *
+     * @param params the params
+     * @return the iteration count, {@link #NOT_STEADY} if it did not settle, null if unknown
+     */
+    public synchronized Integer lastFork(BenchmarkParams params) {
+        return lastFork.get(ExBenchmarkParams.label(params));
+    }
+
+    /**
+     * First iteration (1-based) at which the trailing window is flat.
+     *
+     * @param list the scores
+     * @return the iteration, {@link #NOT_STEADY} if never
+     */
+    int steadyAt(List<Double> list) {
+        for (int end = window; end <= list.size(); end++) {
+            if (isFlat(list.subList(end - window, end))) {
+                return end;
+            }
+        }
+        return NOT_STEADY;
+    }
+
+    /**
+     * Least-squares slope test over the window.
+     *
+     * @param ys the scores
+     * @return true, if the drift across the window is below the threshold
+     */
+    private boolean isFlat(List<Double> ys) {
+        int n = ys.size();
+        double meanX = (n - 1) / 2.0;
+        double meanY = 0;
+        for (double y : ys) {
+            meanY += y;
+        }
+        meanY /= n;
+        if (meanY == 0) {
+            return true;
+        }
+
+        double sxy = 0;
+        double sxx = 0;
+        for (int i = 0; i < n; i++) {
+            sxy += (i - meanX) * (ys.get(i) - meanY);
+            sxx += (i - meanX) * (i - meanX);
+        }
+        double slope = sxy / sxx;
+        return Math.abs(slope * (n - 1) / meanY) < threshold;
+    }
+
+    /**
+     * Merge this run's observations into the profile and store it.
+     *
+     * @return the observations of this run, by benchmark label
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public synchronized Map<String, Integer> writeProfile() throws IOException {
+        for (Map.Entry<String, Integer> e : observed.entrySet()) {
+            profile.setProperty(e.getKey(), String.valueOf(e.getValue()));
+        }
+        profileFile.getParentFile().mkdirs();
+        try (OutputStream os = new FileOutputStream(profileFile)) {
+            profile.store(os, "Warmup iterations needed to reach steady state, " + NOT_STEADY + " if never");
+        }
+        return new HashMap<>(observed);
+    }
+}
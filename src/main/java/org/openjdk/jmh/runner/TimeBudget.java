@@ -0,0 +1,459 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package org.openjdk.jmh.runner;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.results.BenchmarkResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.openjdk.jmh.util.Multimap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Fits a whole run into a wall-clock budget.
+ * <p>
+ * Before each action plan starts, the time left is shared among the plans that have not run yet, in proportion to
+ * their configured cost times their weight. Prioritized benchmarks and benchmarks that were noisy in earlier runs weigh
+ * more. A plan whose share is below its configured cost first loses warmup forks, then measurement forks while
+ * iterations would get shorter than a quarter of the configured time, then has its iteration times scaled down. Plans
+ * are never made longer than configured. The fork start-up cost is learned from the plans that have finished, so every
+ * re-plan works from the time actually used.
+ */
+public class TimeBudget {
+
+    /** The Constant DEFAULT_FORK_OVERHEAD_MS, start-up and tear-down of a forked VM until one has been seen. */
+    private static final long DEFAULT_FORK_OVERHEAD_MS = 1500;
+
+    /** The Constant MIN_SCALE, shortest iteration time relative to the configured one before forks are dropped. */
+    private static final double MIN_SCALE = 0.25;
+
+    /** The Constant MIN_ITERATION_MS. */
+    private static final long MIN_ITERATION_MS = 10;
+
+    /** The Constant PRIORITY_WEIGHT. */
+    private static final double PRIORITY_WEIGHT = 2;
+
+    /** The Constant MAX_NOISE_WEIGHT, weight of a benchmark whose score error was 30% or more. */
+    private static final double MAX_NOISE_WEIGHT = 4;
+
+    /** The budget in ms. */
+    private final long budgetMs;
+
+    /** The prioritized benchmarks, null if none. */
+    private final Pattern priority;
+
+    /** The history file. */
+    private final File historyFile;
+
+    /** Relative score errors by benchmark label, from earlier runs and updated by this one. */
+    private final Properties noise = new Properties();
+
+    /** The plans not started yet. */
+    private final List<ActionPlan> pending = new ArrayList<>();
+
+    /** The share of each pending plan from the last allocation. */
+    private final Map<ActionPlan, Long> shares = new IdentityHashMap<>();
+
+    /** The share and start time of each running plan. */
+    private final Map<ActionPlan, long[]> running = new IdentityHashMap<>();
+
+    /** The number of plans that may run at once. */
+    private int lanes = 1;
+
+    /** The start time. */
+    private long startTime;
+
+    /** The learned fork overhead in ms. */
+    private long forkOverheadMs = DEFAULT_FORK_OVERHEAD_MS;
+
+    /** The number of forks the overhead has been learned from. */
+    private long overheadSamples;
+
+    /**
+     * Instantiates a new time budget.
+     *
+     * @param budget the wall-clock budget for the run
+     * @param priority regex of benchmarks to give more time to, null or empty for none
+     * @param historyFile the file keeping the score errors of earlier runs
+     */
+    public TimeBudget(TimeValue budget, String priority, File historyFile) {
+        this.budgetMs = budget.convertTo(TimeUnit.MILLISECONDS);
+        this.priority = priority == null || priority.isEmpty() ? null : Pattern.compile(priority);
+        this.historyFile = historyFile;
+        if (historyFile.isFile()) {
+            try (InputStream is = new FileInputStream(historyFile)) {
+                noise.load(is);
+            } catch (IOException e) {
+                // no history, all benchmarks weigh the same
+                noise.clear();
+            }
+        }
+    }
+
+    /**
+     * Start the clock.
+     *
+     * @param plans all plans of the run
+     * @param lanes the number of plans that may run at once
+     * @return the configured cost of all plans in ms
+     */
+    public synchronized long start(Collection<ActionPlan> plans, int lanes) {
+        this.startTime = System.currentTimeMillis();
+        this.lanes = Math.max(1, lanes);
+        pending.clear();
+        pending.addAll(plans);
+        long total = 0;
+        for (ActionPlan plan : plans) {
+            total += estimate(plan);
+        }
+        return total / this.lanes;
+    }
+
+    /**
+     * Gets the budget.
+     *
+     * @return the budget in ms
+     */
+    public long getBudget() {
+        return budgetMs;
+    }
+
+    /**
+     * Re-plan the rest of the run and fit the next plan into its share.
+     *
+     * @param plan the plan about to run
+     * @return the plan to run instead, the same instance if it fits as configured
+     */
+    public synchronized ActionPlan fit(ActionPlan plan) {
+        allocate();
+        pending.remove(plan);
+        Long share = shares.remove(plan);
+        long planShare = share == null ? estimate(plan) : share;
+
+        ActionPlan fitted = plan;
+        long nominal = estimate(plan);
+        if (planShare < nominal) {
+            fitted = new ActionPlan(plan.getType());
+            for (Action action : plan.getActions()) {
+                if (action.getMode().doMeasurement()) {
+                    long actionShare = planShare * estimate(action.getParams()) / nominal;
+                    fitted.add(new Action(fit(action.getParams(), actionShare), action.getMode()));
+                } else {
+                    fitted.add(action);
+                }
+            }
+        }
+        running.put(fitted, new long[] { planShare, System.currentTimeMillis() });
+        return fitted;
+    }
+
+    /**
+     * Record a finished plan.
+     *
+     * @param plan the plan returned by {@link #fit(ActionPlan)}
+     * @param results the results of the plan
+     */
+    public synchronized void finished(ActionPlan plan, Multimap<BenchmarkParams, BenchmarkResult> results) {
+        long[] run = running.remove(plan);
+        if (run == null) {
+            return;
+        }
+        long elapsed = System.currentTimeMillis() - run[1];
+
+        if (plan.getType() == ActionType.FORKED) {
+            long forks = 0;
+            long work = 0;
+            for (Action action : plan.getMeasurementActions()) {
+                BenchmarkParams params = action.getParams();
+                // adaptive mode may have added forks, count what actually ran
+                Collection<BenchmarkResult> brs = results.get(params);
+                int ran = params.getWarmupForks() + Math.max(params.getForks(), brs == null ? 0 : brs.size());
+                forks += ran;
+                work += ran * iterationsMs(params);
+            }
+            if (forks > 0 && elapsed > work) {
+                long overhead = (elapsed - work) / forks;
+                forkOverheadMs = (forkOverheadMs * overheadSamples + overhead * forks) / (overheadSamples + forks);
+                overheadSamples += forks;
+            }
+        }
+
+        for (BenchmarkParams params : results.keys()) {
+            Result r = new RunResult(params, results.get(params)).getPrimaryResult();
+            if (r.getScore() != 0 && !Double.isNaN(r.getScoreError())) {
+                noise.setProperty(ExBenchmarkParams.label(params),
+                        String.valueOf(Math.abs(r.getScoreError() / r.getScore())));
+            }
+        }
+    }
+
+    /**
+     * Check whether one more measurement fork of a running benchmark still leaves the pending plans their share.
+     *
+     * @param params the params of the running benchmark
+     * @return true, if the fork fits
+     */
+    public synchronized boolean allowsFork(BenchmarkParams params) {
+        long reserved = 0;
+        for (ActionPlan plan : pending) {
+            Long share = shares.get(plan);
+            reserved += share == null ? estimate(plan) : share;
+        }
+        return capacity() - reserved >= forkOverheadMs + iterationsMs(params);
+    }
+
+    /**
+     * Gets the time left.
+     *
+     * @return the time left in ms, negative when over budget
+     */
+    public synchronized long remaining() {
+        return budgetMs - (System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Store the score errors seen in this run for the next one.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public synchronized void writeHistory() throws IOException {
+        historyFile.getParentFile().mkdirs();
+        try (OutputStream os = new FileOutputStream(historyFile)) {
+            noise.store(os, "Relative score error of the last run, noisy benchmarks get a larger time budget share");
+        }
+    }
+
+    /**
+     * Share the capacity left among the pending plans.
+     */
+    private void allocate() {
+        shares.clear();
+        long capacity = capacity();
+        long total = 0;
+        for (ActionPlan plan : pending) {
+            total += estimate(plan);
+        }
+        if (total <= capacity) {
+            for (ActionPlan plan : pending) {
+                shares.put(plan, estimate(plan));
+            }
+            return;
+        }
+
+        // weighted shares, capped at the configured cost; what a capped plan does not need goes to the others
+        List<ActionPlan> open = new ArrayList<>(pending);
+        long left = Math.max(0, capacity);
+        boolean capped = true;
+        while (capped && !open.isEmpty()) {
+            capped = false;
+            double sum = 0;
+            for (ActionPlan plan : open) {
+                sum += weight(plan) * estimate(plan);
+            }
+            for (ActionPlan plan : new ArrayList<>(open)) {
+                long nominal = estimate(plan);
+                long share = sum == 0 ? 0 : (long) (left * weight(plan) * nominal / sum);
+                if (share >= nominal) {
+                    shares.put(plan, nominal);
+                    left -= nominal;
+                    open.remove(plan);
+                    capped = true;
+                } else {
+                    shares.put(plan, share);
+                }
+            }
+        }
+    }
+
+    /**
+     * Plan time left over all lanes, less what the running plans are still expected to use.
+     *
+     * @return the capacity in ms
+     */
+    private long capacity() {
+        long now = System.currentTimeMillis();
+        long capacity = remaining() * lanes;
+        for (long[] run : running.values()) {
+            capacity -= Math.max(0, run[0] - (now - run[1]));
+        }
+        return capacity;
+    }
+
+    /**
+     * Fit one benchmark into its share.
+     *
+     * @param params the params
+     * @param share the share in ms
+     * @return the params
+     */
+    private BenchmarkParams fit(BenchmarkParams params, long share) {
+        if (estimate(params) <= share) {
+            return params;
+        }
+        int forks = params.getForks();
+        int warmupForks = params.getWarmupForks();
+        long work = iterationsMs(params);
+
+        double scale;
+        if (forks + warmupForks == 0) {
+            scale = work == 0 ? 1 : (double) share / work;
+        } else {
+            scale = scale(share, forks + warmupForks, work);
+            while (scale < MIN_SCALE && warmupForks > 0) {
+                warmupForks--;
+                scale = scale(share, forks + warmupForks, work);
+            }
+            while (scale < MIN_SCALE && forks > 1) {
+                forks--;
+                scale = scale(share, forks + warmupForks, work);
+            }
+        }
+
+        Mode mode = params.getMode();
+        return ExBenchmarkParams.with(params, scale(params.getWarmup(), scale, mode),
+                scale(params.getMeasurement(), scale, mode), forks, warmupForks);
+    }
+
+    /**
+     * Iteration time scale for a fork count.
+     *
+     * @param share the share in ms
+     * @param forks the forks
+     * @param work the iteration time of one fork in ms
+     * @return the scale
+     */
+    private double scale(long share, int forks, long work) {
+        if (work == 0) {
+            return 1;
+        }
+        return ((double) share / forks - forkOverheadMs) / work;
+    }
+
+    /**
+     * Scale the iteration time. Single shot iterations have no time to scale.
+     *
+     * @param params the iteration params
+     * @param scale the scale
+     * @param mode the mode
+     * @return the iteration params
+     */
+    private static IterationParams scale(IterationParams params, double scale, Mode mode) {
+        if (mode == Mode.SingleShotTime || scale >= 1 || params.getCount() == 0) {
+            return params;
+        }
+        long ms = params.getTime().convertTo(TimeUnit.MILLISECONDS);
+        long scaled = Math.max(MIN_ITERATION_MS, Math.round(ms * scale));
+        if (scaled >= ms) {
+            return params;
+        }
+        return new IterationParams(params.getType(), params.getCount(), new TimeValue(scaled, TimeUnit.MILLISECONDS),
+                params.getBatchSize());
+    }
+
+    /**
+     * Weight of a plan, the highest of its benchmarks.
+     *
+     * @param plan the plan
+     * @return the weight
+     */
+    private double weight(ActionPlan plan) {
+        double weight = 1;
+        for (Action action : plan.getMeasurementActions()) {
+            BenchmarkParams params = action.getParams();
+            double w = 1;
+            if (priority != null && priority.matcher(params.getBenchmark()).find()) {
+                w *= PRIORITY_WEIGHT;
+            }
+            String error = noise.getProperty(ExBenchmarkParams.label(params));
+            if (error != null) {
+                try {
+                    w *= 1 + Math.min(Double.parseDouble(error) * 10, MAX_NOISE_WEIGHT - 1);
+                } catch (NumberFormatException e) {
+                    // ignore a broken entry
+                }
+            }
+            weight = Math.max(weight, w);
+        }
+        return weight;
+    }
+
+    /**
+     * Configured cost of a plan.
+     *
+     * @param plan the plan
+     * @return the cost in ms
+     */
+    private long estimate(ActionPlan plan) {
+        long total = 0;
+        for (Action action : plan.getMeasurementActions()) {
+            total += estimate(action.getParams());
+        }
+        return total;
+    }
+
+    /**
+     * Configured cost of a benchmark, including fork start-up.
+     *
+     * @param params the params
+     * @return the cost in ms
+     */
+    private long estimate(BenchmarkParams params) {
+        return estimate(params, forkOverheadMs);
+    }
+
+    /**
+     * Configured cost of a benchmark, with the default fork start-up time. Single shot iterations are not counted.
+     *
+     * @param params the params
+     * @return the cost in ms
+     */
+    public static long configuredCost(BenchmarkParams params) {
+        return estimate(params, DEFAULT_FORK_OVERHEAD_MS);
+    }
+
+    /**
+     * Cost of a benchmark.
+     *
+     * @param params the params
+     * @param forkOverheadMs the fork start-up and tear-down time
+     * @return the cost in ms
+     */
+    private static long estimate(BenchmarkParams params, long forkOverheadMs) {
+        int forks = params.getForks() + params.getWarmupForks();
+        long work = iterationsMs(params);
+        return forks == 0 ? work : forks * (forkOverheadMs + work);
+    }
+
+    /**
+     * Iteration time of one fork. Single shot iterations are not counted.
+     *
+     * @param params the params
+     * @return the time in ms
+     */
+    private static long iterationsMs(BenchmarkParams params) {
+        if (params.getMode() == Mode.SingleShotTime) {
+            return 0;
+        }
+        return params.getWarmup().getCount() * params.getWarmup().getTime().convertTo(TimeUnit.MILLISECONDS)
+                + params.getMeasurement().getCount() * params.getMeasurement().getTime().convertTo(
+                        TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link BenchmarkSelector} selects exactly what {@link java.util.regex.Matcher#find()} does.
+ */
+public class BenchmarkSelectorTest {
+
+    /** The sample patterns. */
+    private static final List<String> PATTERNS = Arrays.asList(".*", "Codec", "Codec.*encode", "enc{1,2}ode",
+            "en{0}code", "(ab){2}c", "x{2,}y", "\\.encode$", "^com\\.foo\\.", "Bench(mark)?s?\\.", "de+code",
+            "dec?ode", "[Cc]odec", "[^x]ode\\.", "enc.de", "\\d+", "Codec\\w*Benchmark", "a*?b", "io|codec",
+            "(?i)CODEC", "\\Q.\\E", "decode\\b", "o{1}de", "Bench{1,3}mark");
+
+    /** The sample names. */
+    private static final List<String> NAMES = Arrays.asList("com.foo.CodecBenchmark.encode",
+            "com.foo.CodecBenchmark.decode", "com.foo.CodecBenchmark.enccode", "com.foo.CodecBenchmark.ode",
+            "com.bar.IoBenchmark.read", "com.bar.IoBenchmarks.write1", "com.bar.ababc.xxy", "com.bar.Benchhhmark.b",
+            "codec.Decode.decode", "com.foo.codecBenchmark.deeecode");
+
+    /**
+     * Includes select like find.
+     */
+    @Test
+    public void includesAgreeWithFind() {
+        for (String regex : PATTERNS) {
+            BenchmarkSelector selector = new BenchmarkSelector(Collections.singletonList(regex),
+                    Collections.<String> emptyList());
+            for (String name : NAMES) {
+                assertEquals(regex + " on " + name, Pattern.compile(regex).matcher(name).find(),
+                        selector.isSelected(name));
+            }
+        }
+    }
+
+    /**
+     * Excludes drop like find.
+     */
+    @Test
+    public void excludesAgreeWithFind() {
+        for (String regex : PATTERNS) {
+            BenchmarkSelector selector = new BenchmarkSelector(Collections.<String> emptyList(),
+                    Collections.singletonList(regex));
+            for (String name : NAMES) {
+                assertEquals(regex + " on " + name, !Pattern.compile(regex).matcher(name).find(),
+                        selector.isSelected(name));
+            }
+        }
+    }
+
+    /**
+     * The bounds of a quantifier are no literal.
+     */
+    @Test
+    public void quantifierBoundsAreNoLiteral() {
+        assertEquals("ode", BenchmarkSelector.requiredLiteral("enc{1,2}ode"));
+        assertEquals("Bench", BenchmarkSelector.requiredLiteral("(ab){2}Bench"));
+        assertNull(BenchmarkSelector.requiredLiteral("a{3}"));
+    }
+}
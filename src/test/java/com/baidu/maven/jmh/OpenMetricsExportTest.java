@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2017 Baidu, Inc. All Rights Reserved.
+ */
+package com.baidu.maven.jmh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Checks the push of {@link OpenMetricsExport} against a local stub of a Pushgateway, and the format of its samples.
+ */
+public class OpenMetricsExportTest {
+
+    /** The metrics to push. */
+    private static final String METRICS = "# TYPE jmh_score gauge\njmh_score{benchmark=\"a.B.c\"} 1.5\n# EOF\n";
+
+    /** The stub server. */
+    private HttpServer server;
+
+    /** The status the stub answers with. */
+    private volatile int status = 200;
+
+    /** The Content-Type of the last request. */
+    private volatile String contentType;
+
+    /** The method of the last request. */
+    private volatile String method;
+
+    /** The body of the last request. */
+    private volatile String body;
+
+    /** The metrics file. */
+    private File file;
+
+    /**
+     * Start the stub and write the metrics file.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/metrics/job/jmh", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                method = exchange.getRequestMethod();
+                contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+                body = read(exchange.getRequestBody());
+                byte[] answer = (status / 100 == 2 ? "" : "push rejected").getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(status, answer.length > 0 ? answer.length : -1);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(answer);
+                }
+            }
+        });
+        server.start();
+
+        file = File.createTempFile("jmh", ".om");
+        Files.write(file.toPath(), METRICS.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Stop the stub and drop the metrics file.
+     */
+    @After
+    public void tearDown() {
+        server.stop(0);
+        file.delete();
+    }
+
+    /**
+     * The push POSTs the file as Prometheus text.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void pushPostsTheFile() throws IOException {
+        assertEquals(200, OpenMetricsExport.push(file, url(), 5000));
+        assertEquals("POST", method);
+        assertEquals("text/plain; version=0.0.4; charset=utf-8", contentType);
+        assertEquals(METRICS, body);
+    }
+
+    /**
+     * An answer other than 2xx fails the push.
+     */
+    @Test
+    public void pushFailsOnAnError() {
+        status = 500;
+        try {
+            OpenMetricsExport.push(file, url(), 5000);
+            fail("HTTP 500 was accepted");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("HTTP 500"));
+            assertTrue(e.getMessage(), e.getMessage().endsWith("push rejected"));
+        }
+    }
+
+    /**
+     * A closed port fails the push.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test(expected = IOException.class)
+    public void pushFailsOnAClosedPort() throws IOException {
+        URL url = url();
+        server.stop(0);
+        OpenMetricsExport.push(file, url, 5000);
+    }
+
+    /**
+     * Label values are escaped, values are written the way Prometheus reads them.
+     */
+    @Test
+    public void sampleEscapesLabels() {
+        Map<String, String> labels = new LinkedHashMap<String, String>();
+        labels.put("benchmark", "a.B.c");
+        labels.put("param_s", "x\\y \"z\"\nw");
+        labels.put("commit", null);
+        assertEquals("m{benchmark=\"a.B.c\",param_s=\"x\\\\y \\\"z\\\"\\nw\",commit=\"\"} 2.5\n",
+                OpenMetricsExport.sample("m", labels, 2.5));
+        assertEquals("m{} NaN\n", OpenMetricsExport.sample("m", new LinkedHashMap<String, String>(), Double.NaN));
+        assertEquals("m{} +Inf\n",
+                OpenMetricsExport.sample("m", new LinkedHashMap<String, String>(), Double.POSITIVE_INFINITY));
+    }
+
+    /**
+     * The url of the stub.
+     *
+     * @return the url
+     */
+    private URL url() {
+        try {
+            return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/metrics/job/jmh");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Read a stream to its end.
+     *
+     * @param in the in
+     * @return the string
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            bos.write(buf, 0, n);
+        }
+        return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+    }
+}